@@ -1,11 +1,10 @@
 package application;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
 import geography.GeographicPoint;
-import util.GraphLoader;
+import util.GraphSnapshot;
 
 /**
  * Class to wrap the graph, current .map file map, and 
@@ -15,16 +14,17 @@ import util.GraphLoader;
  *
  */
 public class DataSet {
+	// number of landmarks used by the A* searches
+	private static final int LANDMARKS = 8;
+
 	String filePath;
 	roadgraph.MapGraph graph;
 	Set<GeographicPoint> intersections;
-    private HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads;
 	boolean currentlyDisplayed;
 
 	public DataSet (String path) {
         this.filePath = path;
         graph = null;
-        roads = null;
         currentlyDisplayed = false;
 	}
 
@@ -32,7 +32,6 @@ public class DataSet {
     	this.graph = graph;
     }
 
-    public void setRoads(HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads) { this.roads = roads; }
     public roadgraph.MapGraph getGraph(){ return graph; }
     
     /** Return the intersections in this graph.
@@ -52,14 +51,16 @@ public class DataSet {
     	}
     }
     
-    public HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  getRoads() { return this.roads; }
-
     public void initializeGraph() {
         graph = new roadgraph.MapGraph();
-        roads = new HashMap<geography.GeographicPoint, HashSet<geography.RoadSegment>>();
         intersections = new HashSet<GeographicPoint>();
         //TODO: change to use intersections for points in graph.
-    	GraphLoader.loadRoadMap(filePath, graph, roads, intersections);
+    	// the binary snapshot next to the map skips parsing the text on later runs;
+    	// the road shapes are kept in the graph's geometry store
+    	GraphSnapshot.loadRoadMap(filePath, graph, null, intersections);
+    	// landmark tables are saved next to the map so they are only computed once
+    	graph.useLandmarks(roadgraph.Landmarks.loadOrCompute(graph.freeze(), LANDMARKS,
+    			filePath + ".landmarks"));
     }
 
 	public String getFilePath() {
@@ -68,7 +69,7 @@ public class DataSet {
 
 
     public Object[] getPoints() {
-    	Set<geography.GeographicPoint> pointSet = roads.keySet();
+    	Set<geography.GeographicPoint> pointSet = graph.getVertices();
     	return pointSet.toArray();
     }
 
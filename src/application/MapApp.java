@@ -337,10 +337,22 @@ implements MapComponentInitializedListener {
 		RadioButton rbB = new RadioButton("BFS");
 		rbB.setUserData("BFS");
 
+		RadioButton rbBD = new RadioButton("Bidirectional Dijkstra");
+		rbBD.setUserData("Bidirectional Dijkstra");
+
+		RadioButton rbBA = new RadioButton("Bidirectional A*");
+		rbBA.setUserData("Bidirectional A*");
+
+		RadioButton rbR = new RadioButton("Reachable within 5 km");
+		rbR.setUserData("Reachable");
+
 		rbB.setToggleGroup(group);
 		rbD.setToggleGroup(group);
 		rbA.setToggleGroup(group);
-		return new LinkedList<RadioButton>(Arrays.asList(rbB, rbD, rbA));
+		rbBD.setToggleGroup(group);
+		rbBA.setToggleGroup(group);
+		rbR.setToggleGroup(group);
+		return new LinkedList<RadioButton>(Arrays.asList(rbB, rbD, rbA, rbBD, rbBA, rbR));
 	}
 
 
@@ -29,12 +29,17 @@ import javafx.util.StringConverter;
 
 public class RouteController {
 	// Strings for slider labels
+	public static final int REACHABLE = 6;
+	public static final int BI_A_STAR = 5;
+	public static final int BI_DIJ = 4;
 	public static final int BFS = 3;
     public static final int A_STAR = 2;
     public static final int DIJ = 1;
 	public static final int DISABLE = 0;
 	public static final int START = 1;
 	public static final int DESTINATION = 2;
+	// road distance shaded by the reachability option
+	public static final double REACHABLE_KM = 5.0;
 
     private int selectedToggle = DIJ;
 
@@ -88,7 +93,15 @@ public class RouteController {
 
 	private void setupDisplayButtons() {
 		displayButton.setOnAction(e -> {
-            if(startLabel.getItem() != null && endLabel.getItem() != null) {
+            if(selectedToggle == REACHABLE) {
+            	if(startLabel.getItem() != null) {
+            		routeService.displayReachable(startLabel.getItem(), REACHABLE_KM);
+            	}
+            	else {
+            		MapApp.showErrorAlert("Route Display Error", "Make sure to choose a start point.");
+            	}
+            }
+            else if(startLabel.getItem() != null && endLabel.getItem() != null) {
         			routeService.displayRoute(startLabel.getItem(), endLabel.getItem(), selectedToggle);
             }
             else {
@@ -98,6 +111,7 @@ public class RouteController {
 
         hideButton.setOnAction(e -> {
         	routeService.hideRoute();
+        	routeService.hideReachable();
         });
 
         //TODO -- implement
@@ -141,6 +155,15 @@ public class RouteController {
             else if(group.getSelectedToggle().getUserData().equals("BFS")) {
             	selectedToggle = BFS;
             }
+            else if(group.getSelectedToggle().getUserData().equals("Bidirectional Dijkstra")) {
+            	selectedToggle = BI_DIJ;
+            }
+            else if(group.getSelectedToggle().getUserData().equals("Bidirectional A*")) {
+            	selectedToggle = BI_A_STAR;
+            }
+            else if(group.getSelectedToggle().getUserData().equals("Reachable")) {
+            	selectedToggle = REACHABLE;
+            }
             else {
             	System.err.println("Invalid radio button selection");
             }
@@ -5,7 +5,6 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -16,17 +15,18 @@ import application.MarkerManager;
 import application.RouteVisualization;
 import application.controllers.RouteController;
 
-import java.util.Iterator;
-
 import geography.GeographicPoint;
-import geography.RoadSegment;
 import gmapsfx.GoogleMapView;
 import gmapsfx.javascript.object.GoogleMap;
 import gmapsfx.javascript.object.LatLong;
 import gmapsfx.javascript.object.LatLongBounds;
 import gmapsfx.javascript.object.MVCArray;
+import gmapsfx.shapes.Polygon;
+import gmapsfx.shapes.PolygonOptions;
 import gmapsfx.shapes.Polyline;
+import gmapsfx.shapes.PolylineOptions;
 import javafx.scene.control.Button;
+import roadgraph.Route;
 
 public class RouteService {
 	private GoogleMap map;
@@ -34,6 +34,10 @@ public class RouteService {
     // static variable
     private MarkerManager markerManager;
     private Polyline routeLine;
+    private Polygon reachableArea;
+    // alternative routes drawn next to the chosen one
+    private List<Polyline> alternateLines = new ArrayList<Polyline>();
+    private static final int ROUTE_CHOICES = 3;
     private RouteVisualization rv;
 
 	public RouteService(GoogleMapView mapComponent, MarkerManager manager) {
@@ -81,6 +85,7 @@ public class RouteService {
     public void hideRoute() {
     	if(routeLine != null) {
         	map.removeMapShape(routeLine);
+        	removeAlternates();
         	if(markerManager.getVisualization() != null) {
         		markerManager.clearVisualization();
         	}
@@ -92,6 +97,44 @@ public class RouteService {
 
     public void reset() {
         removeRouteLine();
+        hideReachable();
+    }
+
+    /**
+     * Shades the area that can be reached from a point by road
+     * @param origin the point to start from
+     * @param maxKm the road distance limit in km
+     * @return returns false if nothing could be reached
+     */
+    public boolean displayReachable(geography.GeographicPoint origin, double maxKm) {
+    	hideReachable();
+    	roadgraph.Isochrone reached = markerManager.getDataSet().getGraph().reachableWithin(origin, maxKm);
+    	List<geography.GeographicPoint> outline = reached.boundary(72);
+    	if(outline.size() < 3) {
+    		MapApp.showInfoAlert("Reachability : ", "No roads lead away from this point");
+    		return false;
+    	}
+
+    	MVCArray path = new MVCArray();
+    	LatLongBounds bounds = new LatLongBounds();
+    	for(geography.GeographicPoint point : outline) {
+    		LatLong corner = new LatLong(point.getX(), point.getY());
+    		path.push(corner);
+    		bounds = bounds.extend(corner);
+    	}
+    	reachableArea = new Polygon(new PolygonOptions().paths(path)
+    			.fillColor("#3366ff").fillOpacity(0.25)
+    			.strokeColor("#3366ff").strokeWeight(2));
+    	map.addMapShape(reachableArea);
+    	map.fitBounds(bounds);
+    	return true;
+    }
+
+    public void hideReachable() {
+    	if(reachableArea != null) {
+    		map.removeMapShape(reachableArea);
+    		reachableArea = null;
+    	}
     }
 
     public boolean isRouteDisplayed() {
@@ -104,18 +147,26 @@ public class RouteService {
         	}
 
         	if(toggle == RouteController.DIJ || toggle == RouteController.A_STAR ||
-        			toggle == RouteController.BFS) {
+        			toggle == RouteController.BFS || toggle == RouteController.BI_DIJ ||
+        			toggle == RouteController.BI_A_STAR) {
         		markerManager.initVisualization();
             	Consumer<geography.GeographicPoint> nodeAccepter = markerManager.getVisualization()::acceptPoint;
-            	List<geography.GeographicPoint> path = null;
+            	Route path = null;
             	if (toggle == RouteController.BFS) {
-            		path = markerManager.getDataSet().getGraph().bfs(start, end, nodeAccepter);
+            		path = markerManager.getDataSet().getGraph().bfsRoute(start, end, nodeAccepter);
             	}
             	else if (toggle == RouteController.DIJ) {
-            		path = markerManager.getDataSet().getGraph().dijkstra(start, end, nodeAccepter);
+            		path = markerManager.getDataSet().getGraph().dijkstraRoute(start, end, nodeAccepter);
             	}
             	else if (toggle == RouteController.A_STAR) {
-            		path = markerManager.getDataSet().getGraph().aStarSearch(start, end, nodeAccepter);
+            		path = markerManager.getDataSet().getGraph().aStarRoute(start, end, nodeAccepter);
+            	}
+            	else if (toggle == RouteController.BI_DIJ) {
+            		// visualization shows both frontiers, interleaved as they are settled
+            		path = markerManager.getDataSet().getGraph().bidirectionalDijkstraRoute(start, end, nodeAccepter);
+            	}
+            	else if (toggle == RouteController.BI_A_STAR) {
+            		path = markerManager.getDataSet().getGraph().bidirectionalAStarRoute(start, end, nodeAccepter);
             	}
 
             	if(path == null) {
@@ -132,7 +183,11 @@ public class RouteService {
 
 
                 markerManager.setSelectMode(false);
-                return displayRoute(mapPath);
+                boolean shown = displayRoute(mapPath);
+                if(toggle != RouteController.BFS) {
+                	displayAlternates(start, end, path);
+                }
+                return shown;
     		}
 
     		return false;
@@ -145,63 +200,61 @@ public class RouteService {
 
     /**
      * Construct path including road regments
-     * @param path - path with only intersections
+     * @param path - the route found, as the edges it follows
      * @return list of LatLongs corresponding the path of route
      */
-    private List<LatLong> constructMapPath(List<geography.GeographicPoint> path) {
-    	List<LatLong> retVal = new ArrayList<LatLong>();
-        List<geography.GeographicPoint> segmentList = null;
-    	geography.GeographicPoint curr;
-    	geography.GeographicPoint next;
-
-    	geography.RoadSegment chosenSegment = null;;
-
-        for(int i = 0; i < path.size() - 1; i++) {
-            double minLength = Double.MAX_VALUE;
-        	curr = path.get(i);
-        	next = path.get(i+1);
-
-        	if(markerManager.getDataSet().getRoads().containsKey(curr)) {
-        		HashSet<geography.RoadSegment> segments = markerManager.getDataSet().getRoads().get(curr);
-        		Iterator<geography.RoadSegment> it = segments.iterator();
-
-        		// get segments which are
-            	geography.RoadSegment currSegment;
-                while(it.hasNext()) {
-                    //System.out.println("new segment");
-                	currSegment = it.next();
-                	if(currSegment.getOtherPoint(curr).equals(next)) {
-                        //System.out.println("1st check passed : other point correct");
-                		if(currSegment.getLength() < minLength) {
-                            //System.out.println("2nd check passed : length less");
-                			chosenSegment = currSegment;
-                		}
-                	}
-                }
-
-                if(chosenSegment != null) {
-                    segmentList = chosenSegment.getPoints(curr, next);
-                    for(geography.GeographicPoint point : segmentList) {
-                        retVal.add(new LatLong(point.getX(), point.getY()));
-                    }
-                }
-                else {
-                	System.err.println("ERROR in constructMapPath : chosenSegment was null");
-                }
-        		// find
-
-        	}
-        }
-
-        // System.out.println("NOW there are " + retVal.size() + " points");
+    private List<LatLong> constructMapPath(Route path) {
+    	// the shape of each edge is decoded from the graph's geometry store
+    	List<geography.GeographicPoint> points = path.getGeometry();
+    	List<LatLong> retVal = new ArrayList<LatLong>(points.size());
+    	for(geography.GeographicPoint point : points) {
+    		retVal.add(new LatLong(point.getX(), point.getY()));
+    	}
     	return retVal;
     }
 
 
+	/**
+	 * Draws the next shortest routes from start to end as grey lines
+	 * under the chosen route
+	 * @param path the route already displayed, which is not drawn again
+	 */
+	private void displayAlternates(geography.GeographicPoint start, geography.GeographicPoint end,
+								   Route path) {
+		removeAlternates();
+		List<Route> routes =
+				markerManager.getDataSet().getGraph().kShortestRoutes(start, end, ROUTE_CHOICES);
+		if(routes == null) {
+			return;
+		}
+		for(Route route : routes) {
+			if(route.equals(path)) {
+				continue;
+			}
+			Polyline line = new Polyline(new PolylineOptions().strokeColor("#808080")
+					.strokeOpacity(0.8).strokeWeight(4).zIndex(-1));
+			MVCArray linePath = new MVCArray();
+			for(LatLong point : constructMapPath(route)) {
+				linePath.push(point);
+			}
+			line.setPath(linePath);
+			map.addMapShape(line);
+			alternateLines.add(line);
+		}
+	}
+
+	private void removeAlternates() {
+		for(Polyline line : alternateLines) {
+			map.removeMapShape(line);
+		}
+		alternateLines.clear();
+	}
+
 	private void removeRouteLine() {
         if(routeLine != null) {
     		map.removeMapShape(routeLine);
         }
+        removeAlternates();
 	}
 
 //    private void setMarkerManager(MarkerManager manager) {
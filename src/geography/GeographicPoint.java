@@ -22,8 +22,17 @@ public class GeographicPoint extends Double {
                 other.getX(), other.getY());     
 	}
 	
+	/**
+	 * Calculates the geographic distance in km between two raw lat, lon
+	 * pairs, without requiring GeographicPoint objects.
+	 * @return The distance between (lat1, lon1) and (lat2, lon2)
+	 */
+	public static double distance(double lat1, double lon1, double lat2, double lon2)
+	{
+		return getDist(lat1, lon1, lat2, lon2);
+	}
     
-    private double getDist(double lat1, double lon1, double lat2, double lon2)
+    private static double getDist(double lat1, double lon1, double lat2, double lon2)
     {
     	int R = 6373; // radius of the earth in kilometres
     	double lat1rad = Math.toRadians(lat1);
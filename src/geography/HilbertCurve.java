@@ -0,0 +1,58 @@
+package geography;
+
+/**
+ * The position of points along a Hilbert curve over a square grid.  Points
+ * close together on the curve are close together on the map, so handling
+ * points in curve order keeps the data for nearby points together in
+ * caches.
+ */
+public class HilbertCurve
+{
+	/**
+	 * The position of a cell along the curve
+	 * @param bits The grid is 2^bits cells on a side, at most 31
+	 * @param x The column of the cell, from 0 to 2^bits - 1
+	 * @param y The row of the cell, from 0 to 2^bits - 1
+	 * @return The number of cells before it on the curve, from 0 to 4^bits - 1
+	 */
+	public static long index(int bits, int x, int y)
+	{
+		int n = 1 << bits;
+		long d = 0;
+		for (int s = n >>> 1; s > 0; s >>>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			// rotate the quadrant so the curve inside it runs the right way
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * The cell a coordinate falls in, along one side of a grid laid over
+	 * the range [min, max]
+	 * @param value The coordinate
+	 * @param min The smallest coordinate
+	 * @param max The largest coordinate
+	 * @param bits The grid is 2^bits cells on a side
+	 * @return The cell, from 0 to 2^bits - 1
+	 */
+	public static int cell(double value, double min, double max, int bits)
+	{
+		int n = 1 << bits;
+		if (max <= min) {
+			return 0;
+		}
+		int c = (int) ((value - min) / (max - min) * n);
+		return Math.max(0, Math.min(n - 1, c));
+	}
+}
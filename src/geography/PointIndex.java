@@ -0,0 +1,219 @@
+package geography;
+
+import java.util.Arrays;
+
+/**
+ * Maps locations to int ids without creating or hashing a GeographicPoint
+ * per lookup.
+ *
+ * Each location is keyed by its latitude and longitude in fixed point at
+ * RESOLUTION degrees, packed into one long (latitude in the high 32 bits,
+ * longitude in the low 32).  The table is open addressing with linear
+ * probing over parallel primitive arrays.  The exact coordinates are kept
+ * next to the key, so two locations are the same entry exactly when the
+ * GeographicPoints would be equal: locations closer together than the
+ * resolution share a key but not an entry.
+ */
+public class PointIndex
+{
+	/** The fixed point resolution of the keys, in degrees */
+	public static final double RESOLUTION = 1e-7;
+
+	private long[] keys;
+	private long[] latBits;
+	private long[] lonBits;
+	/** The id in each slot, or -1 if the slot is empty */
+	private int[] ids;
+	private int size;
+
+	/** Create an empty index */
+	public PointIndex()
+	{
+		this(16);
+	}
+
+	/**
+	 * Create an empty index with room for a number of locations
+	 * @param expected The number of locations expected
+	 */
+	public PointIndex(int expected)
+	{
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity *= 2;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity];
+		latBits = new long[capacity];
+		lonBits = new long[capacity];
+		ids = new int[capacity];
+		Arrays.fill(ids, -1);
+	}
+
+	/**
+	 * The packed fixed point key of a location
+	 * @param lat The latitude
+	 * @param lon The longitude
+	 * @return round(lat / RESOLUTION) in the high 32 bits and
+	 *   round(lon / RESOLUTION) in the low 32 bits
+	 */
+	public static long key(double lat, double lon)
+	{
+		int latFixed = (int) Math.round(lat / RESOLUTION);
+		int lonFixed = (int) Math.round(lon / RESOLUTION);
+		return ((long) latFixed << 32) | (lonFixed & 0xffffffffL);
+	}
+
+	// Spread the key over the table (the finalizer of MurmurHash3)
+	private static int hash(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	// The slot holding this location, or the empty slot where it would go
+	private int slot(double lat, double lon)
+	{
+		long key = key(lat, lon);
+		long latKey = Double.doubleToLongBits(lat);
+		long lonKey = Double.doubleToLongBits(lon);
+		int mask = ids.length - 1;
+		int slot = hash(key) & mask;
+		while (ids[slot] >= 0) {
+			if (keys[slot] == key && latBits[slot] == latKey && lonBits[slot] == lonKey) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @param lat The latitude
+	 * @param lon The longitude
+	 * @return The id of the location, or -1 if it is not in the index
+	 */
+	public int get(double lat, double lon)
+	{
+		return ids[slot(lat, lon)];
+	}
+
+	/**
+	 * @param pt A location
+	 * @return The id of the location, or -1 if it is not in the index
+	 */
+	public int get(GeographicPoint pt)
+	{
+		return get(pt.getX(), pt.getY());
+	}
+
+	/**
+	 * @param pt A location
+	 * @return true if the location is in the index
+	 */
+	public boolean contains(GeographicPoint pt)
+	{
+		return get(pt) >= 0;
+	}
+
+	/**
+	 * Add a location, or change its id
+	 * @param lat The latitude
+	 * @param lon The longitude
+	 * @param id The id of the location, which must not be negative
+	 * @return The previous id of the location, or -1 if it is new
+	 */
+	public int put(double lat, double lon, int id)
+	{
+		if (id < 0) {
+			throw new IllegalArgumentException("Negative id " + id);
+		}
+		int slot = slot(lat, lon);
+		int previous = ids[slot];
+		if (previous < 0) {
+			keys[slot] = key(lat, lon);
+			latBits[slot] = Double.doubleToLongBits(lat);
+			lonBits[slot] = Double.doubleToLongBits(lon);
+			size++;
+		}
+		ids[slot] = id;
+		if (previous < 0 && size * 2 > ids.length) {
+			grow();
+		}
+		return previous;
+	}
+
+	/**
+	 * Add a location unless it is already in the index
+	 * @param lat The latitude
+	 * @param lon The longitude
+	 * @param id The id to give the location if it is new, which must not
+	 *   be negative
+	 * @return The id the location already had, or -1 if it was added
+	 */
+	public int putIfAbsent(double lat, double lon, int id)
+	{
+		if (id < 0) {
+			throw new IllegalArgumentException("Negative id " + id);
+		}
+		int slot = slot(lat, lon);
+		int previous = ids[slot];
+		if (previous < 0) {
+			keys[slot] = key(lat, lon);
+			latBits[slot] = Double.doubleToLongBits(lat);
+			lonBits[slot] = Double.doubleToLongBits(lon);
+			ids[slot] = id;
+			size++;
+			if (size * 2 > ids.length) {
+				grow();
+			}
+		}
+		return previous;
+	}
+
+	/**
+	 * Add a location, or change its id
+	 * @param pt The location
+	 * @param id The id of the location, which must not be negative
+	 * @return The previous id of the location, or -1 if it is new
+	 */
+	public int put(GeographicPoint pt, int id)
+	{
+		return put(pt.getX(), pt.getY(), id);
+	}
+
+	/** @return The number of locations in the index */
+	public int size()
+	{
+		return size;
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		long[] oldLat = latBits;
+		long[] oldLon = lonBits;
+		int[] oldIds = ids;
+		allocate(oldIds.length * 2);
+		int mask = ids.length - 1;
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldIds[i] < 0) continue;
+			int slot = hash(oldKeys[i]) & mask;
+			while (ids[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			latBits[slot] = oldLat[i];
+			lonBits[slot] = oldLon[i];
+			ids[slot] = oldIds[i];
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package geography;
+
+/**
+ * The classification of a road, as given by the roadType column
+ * of the .map files (these are OpenStreetMap highway tags).
+ * 
+ * Each class has a stable one byte code so that compact graph
+ * representations can store the road type in a byte array
+ * instead of holding on to a String per edge.
+ *
+ */
+public enum RoadClass {
+	MOTORWAY("motorway"),
+	MOTORWAY_LINK("motorway_link"),
+	TRUNK("trunk"),
+	TRUNK_LINK("trunk_link"),
+	PRIMARY("primary"),
+	PRIMARY_LINK("primary_link"),
+	SECONDARY("secondary"),
+	SECONDARY_LINK("secondary_link"),
+	TERTIARY("tertiary"),
+	TERTIARY_LINK("tertiary_link"),
+	RESIDENTIAL("residential"),
+	LIVING_STREET("living_street"),
+	UNCLASSIFIED("unclassified"),
+	SERVICE("service"),
+	OTHER("");
+	
+	private static final RoadClass[] BY_CODE = values();
+	
+	private final String tag;
+	
+	RoadClass(String tag)
+	{
+		this.tag = tag;
+	}
+	
+	/** @return the road type String used in the .map files */
+	public String getTag()
+	{
+		return tag;
+	}
+	
+	/** @return the one byte code for this road class */
+	public byte code()
+	{
+		return (byte)ordinal();
+	}
+	
+	/**
+	 * Look up the road class for a road type read from a map file.
+	 * @param roadType The road type, e.g. "residential"
+	 * @return The matching road class, or OTHER if the type is unknown
+	 */
+	public static RoadClass of(String roadType)
+	{
+		if (roadType != null) {
+			for (RoadClass rc : BY_CODE) {
+				if (rc.tag.equals(roadType)) {
+					return rc;
+				}
+			}
+		}
+		return OTHER;
+	}
+	
+	/**
+	 * @param code A code previously returned by code()
+	 * @return The road class with that code
+	 */
+	public static RoadClass fromCode(byte code)
+	{
+		return BY_CODE[code];
+	}
+}
@@ -0,0 +1,130 @@
+package geography;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A dictionary of the road names and road types of a map.
+ *
+ * Each distinct (road name, road type) pair gets an int label, and objects
+ * that describe a piece of road (MapEdge, RoadSegment, and the lines the
+ * loader reads) keep that label, with the dictionary it came from, instead
+ * of two String references.  The name, the type and the RoadClass are
+ * looked up from the label when they are asked for.  Each name and type is
+ * held as one String however many roads use it, so two labels have the
+ * same name exactly when name() returns the same String for both.
+ *
+ * A dictionary belongs to whatever builds the roads: each MapGraph has one
+ * for its edges, and each loader one for the lines it reads, so it is
+ * garbage along with them.  Labels are numbered in the order they are
+ * first added.  Adding labels is not synchronized, so only the owner adds
+ * them, from one thread; once it is done, looking them up is safe from
+ * any thread the owner is handed to.
+ */
+public class RoadNames
+{
+	// The strings of one label
+	private static class Label
+	{
+		final String name;
+		final String type;
+		final RoadClass roadClass;
+
+		Label(String name, String type)
+		{
+			this.name = name;
+			this.type = type;
+			this.roadClass = RoadClass.of(type);
+		}
+	}
+
+	private Label[] labels = new Label[16];
+	private int size;
+	/** The label of each name and type */
+	private final HashMap<String,HashMap<String,Integer>> ids =
+			new HashMap<String,HashMap<String,Integer>>();
+	/** The shared copy of each name and type */
+	private final HashMap<String,String> strings = new HashMap<String,String>();
+
+	/**
+	 * Get the label of a road name and type, adding it if it is new
+	 * @param name The name of the road
+	 * @param type The type of the road
+	 * @return The label
+	 */
+	public int label(String name, String type)
+	{
+		HashMap<String,Integer> byType = ids.get(name);
+		if (byType == null) {
+			byType = new HashMap<String,Integer>(2);
+			ids.put(name, byType);
+		}
+		Integer id = byType.get(type);
+		if (id != null) {
+			return id;
+		}
+
+		if (size == labels.length) {
+			labels = Arrays.copyOf(labels, labels.length * 2);
+		}
+		labels[size] = new Label(shared(name), shared(type));
+		byType.put(type, size);
+		return size++;
+	}
+
+	private String shared(String s)
+	{
+		if (s == null) {
+			return null;
+		}
+		String copy = strings.get(s);
+		if (copy == null) {
+			strings.put(s, s);
+			copy = s;
+		}
+		return copy;
+	}
+
+	/**
+	 * @param label A label from label()
+	 * @return The road name
+	 */
+	public String name(int label)
+	{
+		return labels[label].name;
+	}
+
+	/**
+	 * @param label A label from label()
+	 * @return The road type
+	 */
+	public String type(int label)
+	{
+		return labels[label].type;
+	}
+
+	/**
+	 * @param label A label from label()
+	 * @return The class of the road type
+	 */
+	public RoadClass roadClass(int label)
+	{
+		return labels[label].roadClass;
+	}
+
+	/**
+	 * @param a A label
+	 * @param b Another label
+	 * @return true if both labels have the same road name
+	 */
+	public boolean sameName(int a, int b)
+	{
+		return a == b || labels[a].name == labels[b].name;
+	}
+
+	/** @return The number of labels */
+	public int size()
+	{
+		return size;
+	}
+}
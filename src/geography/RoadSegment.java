@@ -3,6 +3,7 @@ package geography;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /** 
  * A segment of the road that includes the intersection end points
@@ -18,21 +19,26 @@ public class RoadSegment {
 	
 	private List<GeographicPoint> geometryPoints;
 	
-	private String roadName;
-	private String roadType;
+	// the road name and type, as a label of names
+	private final RoadNames names;
+	private int label;
 	
 	// Length in km
 	private double length;
 	
+	/**
+	 * @param names The dictionary to keep the road name and type in,
+	 *   shared by the segments of one map
+	 */
 	public RoadSegment(GeographicPoint pt1, GeographicPoint pt2, 
 						List<GeographicPoint> geometry, String roadName,
-						String roadType, double length)
+						String roadType, double length, RoadNames names)
 	{
 		point1 = pt1;
 		point2 = pt2;
 		geometryPoints = new ArrayList<GeographicPoint>(geometry);
-		this.roadName = roadName;
-		this.roadType = roadType;
+		this.names = names;
+		this.label = names.label(roadName, roadType);
 		this.length = length;
 	}
 	
@@ -84,7 +90,9 @@ public class RoadSegment {
 		{
 			ptsEqual = true;
 		}
-		return this.roadName.equals(other.roadName) && ptsEqual && this.length == other.length;
+		boolean sameName = names == other.names ? names.sameName(this.label, other.label)
+				: Objects.equals(getRoadName(), other.getRoadName());
+		return sameName && ptsEqual && this.length == other.length;
 	}
 	
 	// get hashCode
@@ -96,7 +104,7 @@ public class RoadSegment {
 	// return road segment as String
 	public String toString()
 	{
-		String toReturn = this.roadName + ", " +this.roadType;
+		String toReturn = getRoadName() + ", " + getRoadType();
 		toReturn += " [" + point1;
 		for (GeographicPoint p : this.geometryPoints) {
 			toReturn += "; " + p;
@@ -108,6 +116,14 @@ public class RoadSegment {
 
 	// get the length of the road segment
 	public double getLength() { return this.length; }
+
+	// get the end points and the points in between
+	public GeographicPoint getStart() { return this.point1; }
+	public GeographicPoint getEnd() { return this.point2; }
+	public List<GeographicPoint> getGeometry() { return Collections.unmodifiableList(this.geometryPoints); }
+	public String getRoadName() { return names.name(this.label); }
+	public String getRoadType() { return names.type(this.label); }
+	public RoadClass getRoadClass() { return names.roadClass(this.label); }
 	
 	
 	// given one end, return the other.
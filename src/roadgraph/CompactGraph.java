@@ -0,0 +1,1197 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+import geography.HilbertCurve;
+import geography.PointIndex;
+import geography.RoadClass;
+
+/**
+ * An immutable, int indexed snapshot of a MapGraph stored in compressed
+ * sparse row (CSR) form.
+ *
+ * Vertices are numbered 0..n-1.  The outgoing edges of vertex v are the
+ * slots offsets[v] .. offsets[v+1]-1 of the targets, lengths and roadTypes
+ * arrays, so a relaxation loop walks a few primitive arrays instead of
+ * chasing MapNode and MapEdge references through HashSets.
+ *
+ * A CompactGraph is created with MapGraph.freeze() and does not change
+ * afterwards, so it can be shared freely between threads.  All per-query
+ * state lives in a SearchContext owned by the searching thread.
+ */
+public class CompactGraph {
+    /** The location of each vertex, indexed by vertex id */
+    private final GeographicPoint[] points;
+    private final double[] lat;
+    private final double[] lon;
+
+    /** Maps a location back to its vertex id */
+    private final PointIndex ids;
+
+    /** Edges out of v are in slots offsets[v] (inclusive) to offsets[v+1] (exclusive) */
+    private final int[] offsets;
+    private final int[] targets;
+    /** The length of each edge, in km */
+    private final double[] lengths;
+    /** The RoadClass code of each edge */
+    private final byte[] roadTypes;
+
+    /** Reverse adjacency: edges into v are in slots inOffsets[v] to inOffsets[v+1]-1 */
+    private final int[] inOffsets;
+    /** The vertex each incoming edge starts from */
+    private final int[] sources;
+    /** The forward slot of each incoming edge, for its length and road type */
+    private final int[] inEdges;
+    /** The vertex each forward edge starts from */
+    private final int[] tails;
+    /** The shape of each edge between its two ends */
+    private final GeometryStore geometry;
+
+    /** The priority queue used when a search does not ask for one */
+    public static final HeapType DEFAULT_HEAP = HeapType.BINARY;
+    /** The grid of the Hilbert order of a batch is 2^HILBERT_BITS on a side */
+    private static final int HILBERT_BITS = 15;
+
+    /** Straight line distance as an A* heuristic */
+    private final Heuristic greatCircle = new Heuristic() {
+        @Override
+        public double toGoal(int v, int goal) {
+            return distance(v, goal);
+        }
+
+        @Override
+        public double fromStart(int start, int v) {
+            return distance(start, v);
+        }
+    };
+
+    /** One search context per thread, created on first use */
+    private final ThreadLocal<SearchContext> contexts;
+
+    /** Grid over the vertices and edges, built by the first spatial query */
+    private volatile SpatialIndex spatialIndex;
+
+    /** The edge times of each WeightProfile without time of day speeds, compiled on first use */
+    private final Map<WeightProfile, double[]> weights = new ConcurrentHashMap<>();
+
+    private CompactGraph(GeographicPoint[] points, PointIndex ids, int[] offsets,
+                         int[] targets, double[] lengths, byte[] roadTypes,
+                         GeometryStore geometry) {
+        this.points = points;
+        this.geometry = geometry;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.lengths = lengths;
+        this.roadTypes = roadTypes;
+        this.lat = new double[points.length];
+        this.lon = new double[points.length];
+        this.contexts = ThreadLocal.withInitial(() -> new SearchContext(points.length));
+        for (int v = 0; v < points.length; v++) {
+            lat[v] = points[v].getX();
+            lon[v] = points[v].getY();
+        }
+
+        // Build the reverse adjacency with a counting sort on the targets
+        int n = points.length;
+        inOffsets = new int[n + 1];
+        sources = new int[targets.length];
+        inEdges = new int[targets.length];
+        tails = new int[targets.length];
+        for (int target : targets) {
+            inOffsets[target + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        int[] next = Arrays.copyOf(inOffsets, n);
+        for (int u = 0; u < n; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int slot = next[targets[e]]++;
+                sources[slot] = u;
+                inEdges[slot] = e;
+                tails[e] = u;
+            }
+        }
+    }
+
+    /**
+     * Build the CSR arrays for a set of MapNodes.
+     * @param nodes The nodes of the graph being frozen
+     * @param shapes The geometry of the graph's edges, by MapEdge id
+     * @return A CompactGraph with the same vertices and edges
+     */
+    static CompactGraph freeze(Collection<MapNode> nodes, GeometryStore.Builder shapes) {
+        int n = nodes.size();
+        GeographicPoint[] points = new GeographicPoint[n];
+        PointIndex index = new PointIndex(n);
+        int m = 0;
+        for (MapNode node : nodes) {
+            points[index.size()] = node.getLocation();
+            index.put(node.getLocation(), index.size());
+            m += node.getEdges().size();
+        }
+
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[m];
+        double[] lengths = new double[m];
+        byte[] roadTypes = new byte[m];
+        int[] edgeIds = new int[m];
+        int slot = 0;
+        int v = 0;
+        for (MapNode node : nodes) {
+            offsets[v++] = slot;
+            for (MapEdge edge : node.getEdges()) {
+                targets[slot] = index.get(edge.getOtherNode(node).getLocation());
+                lengths[slot] = edge.getLength();
+                roadTypes[slot] = edge.getRoadClass().code();
+                edgeIds[slot] = edge.getId();
+                slot++;
+            }
+        }
+        offsets[n] = slot;
+        return new CompactGraph(points, index, offsets, targets, lengths, roadTypes,
+                shapes.build(edgeIds));
+    }
+
+    /** @return The number of vertices in the graph */
+    public int getNumVertices() {
+        return points.length;
+    }
+
+    /** @return The number of (directed) edges in the graph */
+    public int getNumEdges() {
+        return targets.length;
+    }
+
+    /**
+     * Get the vertex id of a location
+     * @param location The location of an intersection
+     * @return The vertex id, or -1 if the location is not a vertex
+     */
+    public int indexOf(GeographicPoint location) {
+        return ids.get(location);
+    }
+
+    /**
+     * @param v A vertex id
+     * @return The location of vertex v
+     */
+    public GeographicPoint getPoint(int v) {
+        return points[v];
+    }
+
+    /** @return The latitude of vertex v */
+    public double getLatitude(int v) {
+        return lat[v];
+    }
+
+    /** @return The longitude of vertex v */
+    public double getLongitude(int v) {
+        return lon[v];
+    }
+
+    /** @return The index of the first edge slot of vertex v */
+    public int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    /** @return One past the index of the last edge slot of vertex v */
+    public int endEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    /** @return The vertex at the end of edge slot e */
+    public int target(int e) {
+        return targets[e];
+    }
+
+    /** @return The length of edge slot e, in km */
+    public double length(int e) {
+        return lengths[e];
+    }
+
+    /** @return The index of the first incoming edge slot of vertex v */
+    public int firstInEdge(int v) {
+        return inOffsets[v];
+    }
+
+    /** @return One past the index of the last incoming edge slot of vertex v */
+    public int endInEdge(int v) {
+        return inOffsets[v + 1];
+    }
+
+    /** @return The vertex that incoming edge slot i starts from */
+    public int source(int i) {
+        return sources[i];
+    }
+
+    /** @return The forward edge slot of incoming edge slot i */
+    public int inEdge(int i) {
+        return inEdges[i];
+    }
+
+    /** @return The vertex that edge e starts from */
+    public int tail(int e) {
+        return tails[e];
+    }
+
+    /**
+     * @return The shortest edge that runs the other way along edge e
+     *   (from its target back to its tail), or -1 if e is one way
+     */
+    public int reverseEdge(int e) {
+        return edgeBetween(targets[e], tails[e]);
+    }
+
+    /**
+     * @return The shortest edge from vertex u to vertex v, or -1 if there
+     *   is no edge from u to v
+     */
+    public int edgeBetween(int u, int v) {
+        int best = -1;
+        for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+            if (targets[i] == v && (best < 0 || lengths[i] < lengths[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the grid index over the vertices and edges of this graph,
+     * building it on first use.
+     * @return The spatial index
+     */
+    public SpatialIndex spatialIndex() {
+        SpatialIndex index = spatialIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = spatialIndex;
+                if (index == null) {
+                    index = new SpatialIndex(this);
+                    spatialIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /** @return The shape of every edge in this graph */
+    public GeometryStore geometry() {
+        return geometry;
+    }
+
+    /**
+     * @param e An edge slot
+     * @return The points on edge e between its tail and its target
+     */
+    public List<GeographicPoint> getGeometry(int e) {
+        int u = tails[e];
+        return geometry.decode(e, lat[u], lon[u]);
+    }
+
+    /** @return The road class of edge slot e */
+    public RoadClass roadClass(int e) {
+        return RoadClass.fromCode(roadTypes[e]);
+    }
+
+    /**
+     * Great circle distance between two vertices, in km.  Edge lengths
+     * are at least this long, so it is a consistent A* heuristic.
+     */
+    double distance(int u, int v) {
+        return GeographicPoint.distance(lat[u], lon[u], lat[v], lon[v]);
+    }
+
+    /**
+     * A hash of the vertices, edges and lengths of this graph, used to
+     * check that data saved for a graph still matches it.
+     * @return A 64 bit fingerprint of the graph
+     */
+    public long fingerprint() {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, points.length);
+        h = mix(h, targets.length);
+        for (int v = 0; v < points.length; v++) {
+            h = mix(h, Double.doubleToLongBits(lat[v]));
+            h = mix(h, Double.doubleToLongBits(lon[v]));
+            h = mix(h, offsets[v]);
+        }
+        for (int e = 0; e < targets.length; e++) {
+            h = mix(h, targets[e]);
+            h = mix(h, Double.doubleToLongBits(lengths[e]));
+        }
+        return h;
+    }
+
+    // One FNV-1a style step over the 8 bytes of value
+    private static long mix(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h ^= (value >>> (i * 8)) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** @return The A* heuristic that uses the great circle distance */
+    public Heuristic greatCircle() {
+        return greatCircle;
+    }
+
+    /**
+     * Get the search context of the calling thread.  Every thread gets
+     * its own context, so searches on one CompactGraph never share state.
+     * @return The calling thread's context for this graph
+     */
+    public SearchContext context() {
+        return contexts.get();
+    }
+
+    /** Find the path from start to goal using breadth first search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched Hook for visualization
+     * @return The list of intersections that form the shortest (unweighted)
+     *   path from start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal,
+                                     Consumer<GeographicPoint> nodeSearched) {
+        return bfs(start, goal, nodeSearched, context());
+    }
+
+    /** Breadth first search using the given search context */
+    public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal,
+                                     Consumer<GeographicPoint> nodeSearched, SearchContext ctx) {
+        return pathOf(bfsRoute(start, goal, nodeSearched, ctx, null));
+    }
+
+    /** Breadth first search using the given search context
+     * @param stats If not null, receives the work done by the search
+     * @return The edges of the path found, or null if there is none */
+    public Route bfsRoute(GeographicPoint start, GeographicPoint goal,
+                          Consumer<GeographicPoint> nodeSearched, SearchContext ctx, SearchStats stats) {
+        int s = indexOf(start);
+        int t = indexOf(goal);
+        if (s < 0 || t < 0) return null;
+
+        if (stats != null) stats.start();
+        ctx.begin();
+        int[] queue = ctx.queue();
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = s;
+        ctx.update(s, 0, -1);
+        while (head < tail) {
+            int u = queue[head++];
+            ctx.settle(u);
+            nodeSearched.accept(points[u]);
+            if (u == t) break;
+            double d = ctx.distance(u) + 1;
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int w = targets[e];
+                if (!ctx.isReached(w)) {
+                    ctx.update(w, d, e);
+                    queue[tail++] = w;
+                }
+            }
+        }
+        Route route = ctx.isReached(t) ? new Route(this, s, pathEdges(ctx, s, t)) : null;
+        if (stats != null) {
+            stats.add(ctx, null);
+            stats.stop(route != null);
+        }
+        return route;
+    }
+
+    /** Find the path from start to goal using Dijkstra's algorithm
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched Hook for visualization
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal,
+                                          Consumer<GeographicPoint> nodeSearched) {
+        return dijkstra(start, goal, nodeSearched, context());
+    }
+
+    /** Dijkstra's algorithm using the given search context */
+    public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal,
+                                          Consumer<GeographicPoint> nodeSearched, SearchContext ctx) {
+        return dijkstra(start, goal, nodeSearched, ctx, DEFAULT_HEAP);
+    }
+
+    /** Dijkstra's algorithm using the given search context and priority queue */
+    public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal,
+                                          Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                                          HeapType heapType) {
+        return pathOf(searchRoute(start, goal, nodeSearched, ctx, heapType, null, null));
+    }
+
+    /** Find the path from start to goal using A-Star search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched Hook for visualization
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched) {
+        return aStarSearch(start, goal, nodeSearched, context());
+    }
+
+    /** A-Star search using the given search context */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched, SearchContext ctx) {
+        return aStarSearch(start, goal, nodeSearched, ctx, DEFAULT_HEAP);
+    }
+
+    /** A-Star search using the given search context and priority queue */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                                             HeapType heapType) {
+        return aStarSearch(start, goal, nodeSearched, ctx, heapType, greatCircle);
+    }
+
+    /** A-Star search using the given search context, priority queue and heuristic */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                                             HeapType heapType, Heuristic heuristic) {
+        return pathOf(searchRoute(start, goal, nodeSearched, ctx, heapType, heuristic, null));
+    }
+
+    /** A-Star search using the given search context, priority queue and
+     * heuristic, or Dijkstra's algorithm if heuristic is null
+     * @param stats If not null, receives the work done by the search
+     * @return The edges of the path found, or null if there is none */
+    public Route searchRoute(GeographicPoint start, GeographicPoint goal,
+                             Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                             HeapType heapType, Heuristic heuristic, SearchStats stats) {
+        int s = indexOf(start);
+        int t = indexOf(goal);
+        if (s < 0 || t < 0) return null;
+
+        if (stats != null) stats.start();
+        shortestPath(s, t, nodeSearched, ctx, heuristic, heapType);
+        Route route = ctx.isSettled(t) ? new Route(this, s, pathEdges(ctx, s, t)) : null;
+        if (stats != null) {
+            stats.add(ctx, ctx.lastHeap());
+            stats.stop(route != null);
+        }
+        return route;
+    }
+
+    private static List<GeographicPoint> pathOf(Route route) {
+        return route == null ? null : route.getPath();
+    }
+
+    /**
+     * Run Dijkstra or A* from s until t is settled.  Dijkstra and A* only
+     * differ in the priority of a vertex, so they share this loop; a null
+     * heuristic means Dijkstra.  The distances are left in ctx, with the
+     * edge each vertex was reached by as its parent, and the queue and its
+     * counters in ctx.lastHeap().
+     * @return The number of vertices settled
+     */
+    int shortestPath(int s, int t, Consumer<GeographicPoint> nodeSearched,
+                     SearchContext ctx, Heuristic heuristic, HeapType heapType) {
+        IntPriorityQueue pq = ctx.heap(heapType);
+
+        ctx.begin();
+        ctx.update(s, 0.0, -1);
+        pq.add(s, 0.0);
+        int visited = 0;
+        while (!pq.isEmpty()) {
+            int u = pq.poll();
+            if (ctx.isSettled(u)) continue; // stale entry of a lazy queue
+            ctx.settle(u);
+            visited++;
+            nodeSearched.accept(points[u]);
+            if (u == t) break;
+            double du = ctx.distance(u);
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int w = targets[e];
+                if (ctx.isSettled(w)) continue;
+                double d = du + lengths[e];
+                if (d < ctx.distance(w)) {
+                    ctx.update(w, d, e);
+                    pq.add(w, heuristic != null ? d + heuristic.toGoal(w, t) : d);
+                }
+            }
+        }
+        return visited;
+    }
+
+    /** Find the fastest route from start to goal with A* search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param profile The speeds of the roads
+     * @param departure The time of departure, in seconds from midnight
+     * @param nodeSearched Hook for visualization
+     * @param ctx The search context
+     * @param heapType The priority queue
+     * @return The edges of the fastest route, or null if there is none
+     */
+    public Route fastestRoute(GeographicPoint start, GeographicPoint goal, WeightProfile profile,
+                              double departure, Consumer<GeographicPoint> nodeSearched,
+                              SearchContext ctx, HeapType heapType) {
+        int s = indexOf(start);
+        int t = indexOf(goal);
+        if (s < 0 || t < 0) return null;
+
+        fastestPath(s, t, profile, departure, nodeSearched, ctx, heapType, true);
+        Route route = ctx.isSettled(t) ? new Route(this, s, pathEdges(ctx, s, t)) : null;
+        return route;
+    }
+
+    /**
+     * Run Dijkstra or A* from s until t is settled, as shortestPath(), but
+     * on travel times in seconds instead of lengths.  The distance of a
+     * vertex in ctx is the time from departure until it is reached.
+     *
+     * With a profile that is not time dependent the edge times are read
+     * from an array compiled once per profile.  Otherwise each edge is
+     * timed from the moment it is entered.  The speed functions keep the
+     * edges FIFO (entering later never means leaving earlier), so the
+     * first time a vertex is settled is still its earliest arrival and the
+     * usual label setting loop is exact.
+     *
+     * A* uses the straight line distance at the top speed of the profile,
+     * which no road can beat at any time of day.
+     * @param guided Whether to run A* rather than Dijkstra
+     * @return The number of vertices settled
+     */
+    int fastestPath(int s, int t, WeightProfile profile, double departure,
+                    Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                    HeapType heapType, boolean guided) {
+        boolean timeDependent = profile.isTimeDependent();
+        double[] seconds = timeDependent ? null : weights(profile);
+        double perKm = SpeedFunction.HOUR / profile.getMaxSpeed();
+        IntPriorityQueue pq = ctx.heap(heapType);
+
+        ctx.begin();
+        ctx.update(s, 0.0, -1);
+        pq.add(s, 0.0);
+        int visited = 0;
+        while (!pq.isEmpty()) {
+            int u = pq.poll();
+            if (ctx.isSettled(u)) continue;
+            ctx.settle(u);
+            visited++;
+            nodeSearched.accept(points[u]);
+            if (u == t) break;
+            double du = ctx.distance(u);
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int w = targets[e];
+                if (ctx.isSettled(w)) continue;
+                double d = du + (timeDependent ? profile.edgeSeconds(roadTypes[e], lengths[e], departure + du)
+                        : seconds[e]);
+                if (d < ctx.distance(w)) {
+                    ctx.update(w, d, e);
+                    pq.add(w, guided ? d + distance(w, t) * perKm : d);
+                }
+            }
+        }
+        return visited;
+    }
+
+    // The time of every edge under a profile that is not time dependent
+    private double[] weights(WeightProfile profile) {
+        return weights.computeIfAbsent(profile, (p) -> p.compile(lengths, roadTypes));
+    }
+
+    /** Find the path from start to goal using bidirectional Dijkstra
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched Hook for visualization, called for the vertices
+     *   settled by both the forward and the backward search
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, GeographicPoint goal,
+                                                       Consumer<GeographicPoint> nodeSearched) {
+        return bidirectional(start, goal, nodeSearched, context(), null, DEFAULT_HEAP);
+    }
+
+    /** Find the path from start to goal using bidirectional A-Star search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched Hook for visualization, called for the vertices
+     *   settled by both the forward and the backward search
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalAStar(GeographicPoint start, GeographicPoint goal,
+                                                    Consumer<GeographicPoint> nodeSearched) {
+        return bidirectional(start, goal, nodeSearched, context(), greatCircle, DEFAULT_HEAP);
+    }
+
+    /** Bidirectional A* using the given search context and priority queue,
+     * or bidirectional Dijkstra if heuristic is null */
+    public List<GeographicPoint> bidirectional(GeographicPoint start, GeographicPoint goal,
+                                               Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                                               Heuristic heuristic, HeapType heapType) {
+        return pathOf(bidirectionalRoute(start, goal, nodeSearched, ctx, heuristic, heapType, null));
+    }
+
+    /** Bidirectional A* or Dijkstra, as bidirectional()
+     * @param stats If not null, receives the work done by both halves of
+     *   the search
+     * @return The edges of the path found, or null if there is none */
+    public Route bidirectionalRoute(GeographicPoint start, GeographicPoint goal,
+                                    Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                                    Heuristic heuristic, HeapType heapType, SearchStats stats) {
+        int s = indexOf(start);
+        int t = indexOf(goal);
+        if (s < 0 || t < 0) return null;
+
+        if (stats != null) stats.start();
+        int meet = bidirectionalPath(s, t, nodeSearched, ctx, heuristic, heapType);
+        Route route = meet >= 0 ? new Route(this, s, pathEdges(ctx, s, meet, t)) : null;
+        if (stats != null) {
+            SearchContext bwd = ctx.backward();
+            stats.add(ctx, ctx.lastHeap());
+            stats.add(bwd, bwd.lastHeap());
+            stats.stop(route != null);
+        }
+        return route;
+    }
+
+    /** Find up to k shortest loopless paths from start to goal (Yen's
+     * algorithm), for offering alternative routes.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param k The number of paths wanted
+     * @return The paths, shortest first, each a list of intersections
+     *   including start and goal; empty if there is no path
+     */
+    public List<List<GeographicPoint>> kShortestPaths(GeographicPoint start, GeographicPoint goal, int k) {
+        List<List<GeographicPoint>> paths = new ArrayList<>();
+        for (Route route : kShortestRoutes(start, goal, k)) {
+            paths.add(route.getPath());
+        }
+        return paths;
+    }
+
+    /** Find up to k shortest loopless paths from start to goal, as
+     * kShortestPaths()
+     * @return The routes, shortest first; empty if there is no path */
+    public List<Route> kShortestRoutes(GeographicPoint start, GeographicPoint goal, int k) {
+        List<Route> routes = new ArrayList<>();
+        int s = indexOf(start);
+        int t = indexOf(goal);
+        if (s < 0 || t < 0) return routes;
+
+        for (int[] edges : KShortestPaths.find(this, s, t, k, context())) {
+            routes.add(new Route(this, s, edges));
+        }
+        return routes;
+    }
+
+    /** Find the shortest route between two points snapped onto roads.
+     * Each snap is treated as a virtual intersection that splits its edge
+     * (and the edge running the other way, on a two way road), so the
+     * route can start and end mid-block.
+     *
+     * @param from Where the route starts
+     * @param to Where the route ends
+     * @return The snapped start, the intersections passed and the snapped
+     *   end, or null if there is no route
+     * @throws IllegalArgumentException If a snap belongs to another graph
+     */
+    public List<GeographicPoint> route(RoadSnap from, RoadSnap to) {
+        return route(from, to, DEFAULT_HEAP);
+    }
+
+    /** Find the shortest route between two points snapped onto roads,
+     * using the given kind of priority queue */
+    public List<GeographicPoint> route(RoadSnap from, RoadSnap to, HeapType heapType) {
+        if (from.getGraph() != this || to.getGraph() != this) {
+            throw new IllegalArgumentException("Road snap is not on this graph");
+        }
+        SearchContext ctx = context();
+        IntPriorityQueue pq = ctx.heap(heapType);
+        ctx.begin();
+
+        // leave the start along its edge, or back along the reverse edge
+        int e = from.getEdge();
+        int eBack = reverseEdge(e);
+        seed(ctx, pq, targets[e], (1 - from.getFraction()) * lengths[e]);
+        if (eBack >= 0) {
+            seed(ctx, pq, targets[eBack], from.getFraction() * lengths[eBack]);
+        }
+
+        // the goal is entered from the tail of its edge, or of the reverse edge
+        int g = to.getEdge();
+        int gBack = reverseEdge(g);
+        double best = Double.POSITIVE_INFINITY;
+        int last = -1;
+        // both points on the same road: maybe no intersection is needed
+        double along = g == e ? to.getFraction() : g == eBack ? 1 - to.getFraction() : -1;
+        if (along >= from.getFraction()) {
+            best = (along - from.getFraction()) * lengths[e];
+        } else if (along >= 0 && eBack >= 0) {
+            best = (from.getFraction() - along) * lengths[eBack];
+        }
+
+        while (!pq.isEmpty() && pq.peekKey() < best) {
+            int u = pq.poll();
+            if (ctx.isSettled(u)) continue;
+            ctx.settle(u);
+            double du = ctx.distance(u);
+            if (u == tails[g] && du + to.getFraction() * lengths[g] < best) {
+                best = du + to.getFraction() * lengths[g];
+                last = u;
+            }
+            if (gBack >= 0 && u == tails[gBack] && du + (1 - to.getFraction()) * lengths[gBack] < best) {
+                best = du + (1 - to.getFraction()) * lengths[gBack];
+                last = u;
+            }
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int w = targets[i];
+                if (ctx.isSettled(w)) continue;
+                double d = du + lengths[i];
+                if (d < ctx.distance(w)) {
+                    ctx.update(w, d, i);
+                    pq.add(w, d);
+                }
+            }
+        }
+        if (best == Double.POSITIVE_INFINITY) {
+            return null;
+        }
+
+        LinkedList<GeographicPoint> path = new LinkedList<>();
+        path.addFirst(to.getLocation());
+        for (int v = last; v >= 0; v = ctx.parent(v) < 0 ? -1 : tails[ctx.parent(v)]) {
+            if (!path.getFirst().equals(points[v])) {
+                path.addFirst(points[v]);
+            }
+        }
+        if (!path.getFirst().equals(from.getLocation())) {
+            path.addFirst(from.getLocation());
+        }
+        return path;
+    }
+
+    // Put a vertex next to a virtual start on the queue.  A seed is not
+    // reached by an edge of the graph, which ends the walk back along the
+    // parents.
+    private static void seed(SearchContext ctx, IntPriorityQueue pq, int v, double d) {
+        if (d < ctx.distance(v)) {
+            ctx.update(v, d, -1);
+            pq.add(v, d);
+        }
+    }
+
+    /**
+     * Search forward from s over the out edges and backward from t over
+     * the in edges, always expanding the side with the smaller queue key.
+     *
+     * Bidirectional A* uses the average potential p(v) = (h(v,t) - h(s,v)) / 2:
+     * forward keys are d(s,v) + p(v) and backward keys d(v,t) - p(v).  Both
+     * searches are then Dijkstra on the same reduced graph, so the usual
+     * criterion holds: once the smallest forward key plus the smallest
+     * backward key reaches the best s-t path length seen, that path is
+     * shortest.  With a null heuristic p is zero and this is plain
+     * bidirectional Dijkstra.
+     *
+     * The forward tree is left in ctx and the backward tree in
+     * ctx.backward(), where the parent of v is the edge out of v towards t.
+     * @return The vertex where the shortest path crosses from the forward
+     *   to the backward tree, or -1 if there is no path
+     */
+    int bidirectionalPath(int s, int t, Consumer<GeographicPoint> nodeSearched,
+                          SearchContext ctx, Heuristic heuristic, HeapType heapType) {
+        SearchContext fwd = ctx;
+        SearchContext bwd = ctx.backward();
+        IntPriorityQueue pf = fwd.heap(heapType);
+        IntPriorityQueue pb = bwd.heap(heapType);
+        fwd.begin();
+        bwd.begin();
+
+        fwd.update(s, 0.0, -1);
+        pf.add(s, heuristic != null ? potential(heuristic, s, s, t) : 0.0);
+        bwd.update(t, 0.0, -1);
+        pb.add(t, heuristic != null ? -potential(heuristic, t, s, t) : 0.0);
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        if (s == t) {
+            best = 0.0;
+            meet = s;
+        }
+
+        while (!pf.isEmpty() && !pb.isEmpty()) {
+            if (pf.peekKey() + pb.peekKey() >= best) break;
+
+            if (pf.peekKey() <= pb.peekKey()) {
+                int u = pf.poll();
+                if (fwd.isSettled(u)) continue;
+                fwd.settle(u);
+                nodeSearched.accept(points[u]);
+                double du = fwd.distance(u);
+                for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                    int w = targets[e];
+                    if (fwd.isSettled(w)) continue;
+                    double d = du + lengths[e];
+                    if (d < fwd.distance(w)) {
+                        fwd.update(w, d, e);
+                        pf.add(w, heuristic != null ? d + potential(heuristic, w, s, t) : d);
+                        double through = d + bwd.distance(w);
+                        if (through < best) {
+                            best = through;
+                            meet = w;
+                        }
+                    }
+                }
+            }
+            else {
+                int u = pb.poll();
+                if (bwd.isSettled(u)) continue;
+                bwd.settle(u);
+                nodeSearched.accept(points[u]);
+                double du = bwd.distance(u);
+                for (int i = inOffsets[u]; i < inOffsets[u + 1]; i++) {
+                    int w = sources[i];
+                    if (bwd.isSettled(w)) continue;
+                    double d = du + lengths[inEdges[i]];
+                    if (d < bwd.distance(w)) {
+                        bwd.update(w, d, inEdges[i]);
+                        pb.add(w, heuristic != null ? d - potential(heuristic, w, s, t) : d);
+                        double through = d + fwd.distance(w);
+                        if (through < best) {
+                            best = through;
+                            meet = w;
+                        }
+                    }
+                }
+            }
+        }
+        return meet;
+    }
+
+    // The average potential of bidirectional A*
+    private double potential(Heuristic heuristic, int v, int s, int t) {
+        return (heuristic.toGoal(v, t) - heuristic.fromStart(s, v)) / 2;
+    }
+
+    // Join the forward edges s..meet in ctx with the backward edges
+    // meet..t in ctx.backward()
+    private int[] pathEdges(SearchContext ctx, int s, int meet, int t) {
+        SearchContext bwd = ctx.backward();
+        int count = 0;
+        for (int v = meet; v != t; v = targets[bwd.parent(v)]) {
+            count++;
+        }
+        int[] forward = pathEdges(ctx, s, meet);
+        int[] edges = Arrays.copyOf(forward, forward.length + count);
+        int i = forward.length;
+        for (int v = meet; v != t; v = targets[bwd.parent(v)]) {
+            edges[i++] = bwd.parent(v);
+        }
+        return edges;
+    }
+
+    /**
+     * Run Dijkstra from s until every reachable vertex is settled, over the
+     * out edges, or over the in edges if backward is true (which gives the
+     * distances from every vertex to s).  The distances are left in ctx.
+     * @param heapType The priority queue to use
+     * @return The number of vertices settled
+     */
+    int distancesFrom(int s, SearchContext ctx, boolean backward, HeapType heapType) {
+        IntPriorityQueue pq = ctx.heap(heapType);
+        int[] offs = backward ? inOffsets : offsets;
+        int[] ends = backward ? sources : targets;
+        ctx.begin();
+        ctx.update(s, 0.0, -1);
+        pq.add(s, 0.0);
+        int visited = 0;
+        while (!pq.isEmpty()) {
+            int u = pq.poll();
+            if (ctx.isSettled(u)) continue;
+            ctx.settle(u);
+            visited++;
+            double du = ctx.distance(u);
+            for (int i = offs[u]; i < offs[u + 1]; i++) {
+                int w = ends[i];
+                if (ctx.isSettled(w)) continue;
+                int e = backward ? inEdges[i] : i;
+                double d = du + lengths[e];
+                if (d < ctx.distance(w)) {
+                    ctx.update(w, d, e);
+                    pq.add(w, d);
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * One to many search: run Dijkstra from s until every vertex in
+     * targets is settled (or the reachable part of the graph is used up).
+     * @param s The source vertex
+     * @param targets The target vertices; repeats are allowed
+     * @param ctx The search context to use
+     * @param heapType The priority queue to use
+     * @param row Receives the distance to targets[i] in row[i], or
+     *   infinity if it cannot be reached
+     * @return The number of vertices settled
+     */
+    int distancesTo(int s, int[] targets, SearchContext ctx, HeapType heapType, double[] row) {
+        IntPriorityQueue pq = ctx.heap(heapType);
+        ctx.begin();
+        int remaining = 0;
+        for (int t : targets) {
+            if (ctx.mark(t)) remaining++;
+        }
+        ctx.update(s, 0.0, -1);
+        pq.add(s, 0.0);
+        int visited = 0;
+        while (!pq.isEmpty() && remaining > 0) {
+            int u = pq.poll();
+            if (ctx.isSettled(u)) continue;
+            ctx.settle(u);
+            visited++;
+            if (ctx.isMarked(u)) remaining--;
+            double du = ctx.distance(u);
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int w = this.targets[e];
+                if (ctx.isSettled(w)) continue;
+                double d = du + lengths[e];
+                if (d < ctx.distance(w)) {
+                    ctx.update(w, d, e);
+                    pq.add(w, d);
+                }
+            }
+        }
+        for (int i = 0; i < targets.length; i++) {
+            row[i] = ctx.isSettled(targets[i]) ? ctx.distance(targets[i]) : Double.POSITIVE_INFINITY;
+        }
+        return visited;
+    }
+
+    /**
+     * Bounded search: run Dijkstra from s, settling every vertex whose
+     * distance is at most limit and nothing beyond it.
+     * @param s The source vertex
+     * @param limit The largest distance to settle
+     * @param ctx The search context; afterwards it holds the distances
+     * @param heapType The priority queue to use
+     * @param order Receives the settled vertices in the order they were
+     *   settled; must have room for every vertex
+     * @return The number of vertices settled
+     */
+    int settleWithin(int s, double limit, SearchContext ctx, HeapType heapType, int[] order) {
+        IntPriorityQueue pq = ctx.heap(heapType);
+        ctx.begin();
+        ctx.update(s, 0.0, -1);
+        pq.add(s, 0.0);
+        int visited = 0;
+        while (!pq.isEmpty() && pq.peekKey() <= limit) {
+            int u = pq.poll();
+            if (ctx.isSettled(u)) continue;
+            ctx.settle(u);
+            order[visited++] = u;
+            double du = ctx.distance(u);
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int w = targets[e];
+                if (ctx.isSettled(w)) continue;
+                double d = du + lengths[e];
+                if (d <= limit && d < ctx.distance(w)) {
+                    ctx.update(w, d, e);
+                    pq.add(w, d);
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Find every vertex within a road distance of maxKm from start
+     * @param start The vertex id of the origin
+     * @param maxKm The distance limit in km
+     * @return The vertices reached with their distances
+     */
+    public Isochrone reachableWithin(int start, double maxKm) {
+        return reachableWithin(start, maxKm, DEFAULT_HEAP);
+    }
+
+    /** Find every vertex within maxKm of start, using the given kind of
+     * priority queue */
+    public Isochrone reachableWithin(int start, double maxKm, HeapType heapType) {
+        SearchContext ctx = context();
+        int[] order = ctx.queue();
+        int count = settleWithin(start, maxKm, ctx, heapType, order);
+        int[] vertices = new int[count];
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        double[] distances = new double[count];
+        for (int i = 0; i < count; i++) {
+            int v = order[i];
+            vertices[i] = v;
+            latitudes[i] = lat[v];
+            longitudes[i] = lon[v];
+            distances[i] = ctx.distance(v);
+        }
+        return new Isochrone(points[start], maxKm, vertices, latitudes, longitudes, distances);
+    }
+
+    /**
+     * Route a batch of queries, passing each route to callback as soon as
+     * it is found.
+     *
+     * The queries are grouped by start vertex: a start with one goal gets
+     * one search with the heuristic, and a start with several goals gets
+     * one Dijkstra that runs until all of them are settled.  The starts
+     * are handled in the Hilbert order of their location, split into
+     * ranges that the pool works through, so the searches a thread runs
+     * one after another touch nearby parts of the graph.
+     * @param sources The start vertex of each query
+     * @param goals The goal vertex of each query
+     * @param heuristic The heuristic for single goal searches, or null
+     *   for Dijkstra
+     * @param heapType The priority queue for the searches
+     * @param pool The pool to search on
+     * @param callback Receives every query's route, or null if it has none
+     */
+    void routeBatch(int[] sources, int[] goals, Heuristic heuristic, HeapType heapType,
+                    ForkJoinPool pool, RouteCallback callback) {
+        int n = points.length;
+        // counting sort of the queries by start: those of start s are
+        // byStart[first[s]] .. byStart[first[s + 1] - 1]
+        int[] first = new int[n + 1];
+        for (int s : sources) {
+            first[s + 1]++;
+        }
+        int starts = 0;
+        for (int v = 0; v < n; v++) {
+            if (first[v + 1] > 0) starts++;
+            first[v + 1] += first[v];
+        }
+        int[] byStart = new int[sources.length];
+        int[] next = Arrays.copyOf(first, n);
+        for (int q = 0; q < sources.length; q++) {
+            byStart[next[sources[q]]++] = q;
+        }
+
+        // the starts in Hilbert order, as (curve position << 32 | vertex)
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            minLat = Math.min(minLat, lat[v]);
+            maxLat = Math.max(maxLat, lat[v]);
+            minLon = Math.min(minLon, lon[v]);
+            maxLon = Math.max(maxLon, lon[v]);
+        }
+        long[] order = new long[starts];
+        int i = 0;
+        for (int v = 0; v < n; v++) {
+            if (first[v + 1] == first[v]) continue;
+            long h = HilbertCurve.index(HILBERT_BITS, HilbertCurve.cell(lon[v], minLon, maxLon, HILBERT_BITS),
+                    HilbertCurve.cell(lat[v], minLat, maxLat, HILBERT_BITS));
+            order[i++] = h << 32 | v;
+        }
+        Arrays.sort(order);
+
+        if (starts == 0) return;
+        int grain = Math.max(1, starts / (pool.getParallelism() * 8));
+        pool.invoke(new BatchRange(0, starts, grain, (from, to) -> {
+            SearchContext ctx = context();
+            for (int k = from; k < to; k++) {
+                int s = (int) order[k];
+                routeFrom(s, goals, byStart, first[s], first[s + 1], ctx, heuristic, heapType, callback);
+            }
+        }));
+    }
+
+    // Answer the queries byStart[from] .. byStart[to - 1], which all start at s
+    private void routeFrom(int s, int[] goals, int[] byStart, int from, int to, SearchContext ctx,
+                           Heuristic heuristic, HeapType heapType, RouteCallback callback) {
+        if (to - from == 1) {
+            int q = byStart[from];
+            int t = goals[q];
+            shortestPath(s, t, (x) -> {}, ctx, heuristic, heapType);
+            callback.routeFound(q, ctx.isSettled(t) ? new Route(this, s, pathEdges(ctx, s, t)) : null);
+            return;
+        }
+        int[] targets = new int[to - from];
+        for (int k = from; k < to; k++) {
+            targets[k - from] = goals[byStart[k]];
+        }
+        distancesTo(s, targets, ctx, heapType, new double[targets.length]);
+        for (int k = from; k < to; k++) {
+            int q = byStart[k];
+            int t = goals[q];
+            callback.routeFound(q, ctx.isSettled(t) ? new Route(this, s, pathEdges(ctx, s, t)) : null);
+        }
+    }
+
+    // The work on a range of a batch
+    private interface RangeBody {
+        void run(int from, int to);
+    }
+
+    // Splits a range of a batch in halves until it is at most grain long
+    private static class BatchRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RangeBody body;
+
+        BatchRange(int from, int to, int grain, RangeBody body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchRange(from, mid, grain, body), new BatchRange(mid, to, grain, body));
+        }
+    }
+
+    // The intersections of the path from s to t left in ctx
+    List<GeographicPoint> reconstructPath(SearchContext ctx, int s, int t) {
+        return new Route(this, s, pathEdges(ctx, s, t)).getPath();
+    }
+
+    // Walk the parent edges back from t to s
+    private int[] pathEdges(SearchContext ctx, int s, int t) {
+        int count = 0;
+        for (int v = t; v != s; v = tails[ctx.parent(v)]) {
+            count++;
+        }
+        int[] edges = new int[count];
+        for (int v = t; v != s; v = tails[ctx.parent(v)]) {
+            edges[--count] = ctx.parent(v);
+        }
+        return edges;
+    }
+}
@@ -0,0 +1,504 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * A contraction hierarchy (CH) over a CompactGraph, for fast point to
+ * point queries on a map that does not change.
+ *
+ * Preprocessing contracts the vertices one at a time, cheapest first by
+ * edge difference (shortcuts added minus edges removed, plus the number of
+ * already contracted neighbours to spread contraction evenly).  Removing a
+ * vertex v adds a shortcut u-&gt;x for every pair of neighbours whose
+ * shortest path runs through v, unless a local witness search finds
+ * another path that is no longer.  The order of contraction is the rank of
+ * a vertex.
+ *
+ * A query is a bidirectional Dijkstra that only follows edges to higher
+ * ranked vertices, so both searches stay small.  Every shortcut remembers
+ * its middle vertex and the two edges it replaces, so the resulting path
+ * is unpacked back to the edges of the CompactGraph, as a Route.
+ *
+ * Like CompactGraph it is immutable after it is built, and each thread
+ * uses its own search contexts.
+ */
+public class ContractionHierarchy {
+    /** Witness searches give up after settling this many vertices */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    private final CompactGraph graph;
+    /** The position of each vertex in the contraction order */
+    private final int[] rank;
+
+    // All edges, the original ones first, then the shortcuts
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final double[] edgeWeight;
+    /** The two edges a shortcut replaces (its middle vertex is
+     *  edgeTo[edgeFirst[e]]), -1 for original edges */
+    private final int[] edgeFirst;
+    private final int[] edgeSecond;
+    /** The CompactGraph edge slot of each original edge */
+    private final int[] edgeSlot;
+    /** The number of original edges each edge unpacks to */
+    private final int[] edgeLength;
+    private final int numShortcuts;
+
+    /** Edges u-&gt;w with rank[w] &gt; rank[u], stored at u, for the forward search */
+    private final int[] upOffsets;
+    private final int[] upEdges;
+    /** Edges w-&gt;u with rank[w] &gt; rank[u], stored at u, for the backward search */
+    private final int[] downOffsets;
+    private final int[] downEdges;
+
+    private final ThreadLocal<SearchContext> contexts;
+
+    private ContractionHierarchy(CompactGraph graph, int[] rank, Builder b) {
+        this.graph = graph;
+        this.rank = rank;
+        int m = b.numEdges;
+        edgeFrom = Arrays.copyOf(b.from, m);
+        edgeTo = Arrays.copyOf(b.to, m);
+        edgeWeight = Arrays.copyOf(b.weight, m);
+        edgeFirst = Arrays.copyOf(b.first, m);
+        edgeSecond = Arrays.copyOf(b.second, m);
+        numShortcuts = m - b.numOriginal;
+        edgeSlot = Arrays.copyOf(b.slots.data, b.numOriginal);
+        // a shortcut is always added after the two edges it replaces
+        edgeLength = new int[m];
+        for (int e = 0; e < m; e++) {
+            edgeLength[e] = edgeFirst[e] < 0 ? 1 : edgeLength[edgeFirst[e]] + edgeLength[edgeSecond[e]];
+        }
+
+        int n = rank.length;
+        upOffsets = new int[n + 1];
+        downOffsets = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            if (rank[edgeTo[e]] > rank[edgeFrom[e]]) {
+                upOffsets[edgeFrom[e] + 1]++;
+            }
+            else {
+                downOffsets[edgeTo[e] + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] += upOffsets[v];
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        upEdges = new int[upOffsets[n]];
+        downEdges = new int[downOffsets[n]];
+        int[] nextUp = Arrays.copyOf(upOffsets, n);
+        int[] nextDown = Arrays.copyOf(downOffsets, n);
+        for (int e = 0; e < m; e++) {
+            if (rank[edgeTo[e]] > rank[edgeFrom[e]]) {
+                upEdges[nextUp[edgeFrom[e]]++] = e;
+            }
+            else {
+                downEdges[nextDown[edgeTo[e]]++] = e;
+            }
+        }
+        contexts = ThreadLocal.withInitial(() -> new SearchContext(n));
+    }
+
+    /**
+     * Contract every vertex of a graph.
+     * @param graph The graph to preprocess
+     * @return The contraction hierarchy of graph
+     */
+    public static ContractionHierarchy build(CompactGraph graph) {
+        Builder b = new Builder(graph);
+        int[] rank = b.contractAll();
+        return new ContractionHierarchy(graph, rank, b);
+    }
+
+    /** @return The graph this hierarchy was built from */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /** @return The number of shortcut edges added by preprocessing */
+    public int getNumShortcuts() {
+        return numShortcuts;
+    }
+
+    /** @return The rank (contraction order) of vertex v */
+    public int rank(int v) {
+        return rank[v];
+    }
+
+    /** Find the shortest route from start to goal
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched Hook for visualization, called for the vertices
+     *   settled by both upward searches
+     * @param heapType The priority queue of both searches
+     * @param stats If not null, receives the work done by the search
+     * @return The edges of the route, or null if there is none
+     */
+    public Route searchRoute(GeographicPoint start, GeographicPoint goal,
+                             Consumer<GeographicPoint> nodeSearched, HeapType heapType, SearchStats stats) {
+        int s = graph.indexOf(start);
+        int t = graph.indexOf(goal);
+        if (s < 0 || t < 0) return null;
+
+        if (stats != null) stats.start();
+        SearchContext ctx = contexts.get();
+        Route route = route(s, t, nodeSearched, ctx, heapType);
+        if (stats != null) {
+            SearchContext bwd = ctx.backward();
+            stats.add(ctx, ctx.lastHeap());
+            stats.add(bwd, bwd.lastHeap());
+            stats.stop(route != null);
+        }
+        return route;
+    }
+
+    /**
+     * Find the shortest path from vertex s to vertex t
+     * @return The intersections on the path, or null if there is none
+     */
+    List<GeographicPoint> path(int s, int t, Consumer<GeographicPoint> nodeSearched) {
+        Route route = route(s, t, nodeSearched, contexts.get(), CompactGraph.DEFAULT_HEAP);
+        return route == null ? null : route.getPath();
+    }
+
+    // Search, then unpack the edges from s up to meet and from meet down
+    // to t into the edge slots of the graph
+    private Route route(int s, int t, Consumer<GeographicPoint> nodeSearched,
+                        SearchContext ctx, HeapType heapType) {
+        int meet = query(s, t, nodeSearched, ctx, heapType);
+        if (meet < 0) return null;
+
+        SearchContext bwd = ctx.backward();
+        int count = 0;
+        for (int v = meet; v != s; v = edgeFrom[ctx.parent(v)]) {
+            count += edgeLength[ctx.parent(v)];
+        }
+        int up = count;
+        for (int v = meet; v != t; v = edgeTo[bwd.parent(v)]) {
+            count += edgeLength[bwd.parent(v)];
+        }
+        int[] slots = new int[count];
+        int end = up;
+        for (int v = meet; v != s; v = edgeFrom[ctx.parent(v)]) {
+            int e = ctx.parent(v);
+            end -= edgeLength[e];
+            unpack(e, slots, end);
+        }
+        int next = up;
+        for (int v = meet; v != t; v = edgeTo[bwd.parent(v)]) {
+            int e = bwd.parent(v);
+            next = unpack(e, slots, next);
+        }
+        return new Route(graph, s, slots);
+    }
+
+    /**
+     * The length of the shortest path from s to t.
+     * @return The distance in km, or infinity if t cannot be reached
+     */
+    public double distance(int s, int t) {
+        SearchContext ctx = contexts.get();
+        int meet = query(s, t, (x) -> {}, ctx, CompactGraph.DEFAULT_HEAP);
+        return meet < 0 ? Double.POSITIVE_INFINITY
+                : ctx.distance(meet) + ctx.backward().distance(meet);
+    }
+
+    /**
+     * Run the two upward searches.  The parent of a vertex in each
+     * context is the edge it was reached by.
+     * @return The highest vertex of the shortest path, or -1 if there is none
+     */
+    private int query(int s, int t, Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                      HeapType heapType) {
+        SearchContext fwd = ctx;
+        SearchContext bwd = ctx.backward();
+        IntPriorityQueue pf = fwd.heap(heapType);
+        IntPriorityQueue pb = bwd.heap(heapType);
+        fwd.begin();
+        bwd.begin();
+        fwd.update(s, 0.0, -1);
+        pf.add(s, 0.0);
+        bwd.update(t, 0.0, -1);
+        pb.add(t, 0.0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            // Unlike plain bidirectional Dijkstra, each side only stops once
+            // its own smallest key reaches the best path: the highest vertex
+            // of the path may be settled late by either search.
+            boolean forward = !pf.isEmpty() && pf.peekKey() < best;
+            boolean backward = !pb.isEmpty() && pb.peekKey() < best;
+            if (!forward && !backward) break;
+            if (forward && backward) {
+                forward = pf.peekKey() <= pb.peekKey();
+            }
+
+            SearchContext self = forward ? fwd : bwd;
+            SearchContext other = forward ? bwd : fwd;
+            IntPriorityQueue pq = forward ? pf : pb;
+            int u = pq.poll();
+            if (self.isSettled(u)) continue;
+            self.settle(u);
+            nodeSearched.accept(graph.getPoint(u));
+            double du = self.distance(u);
+            if (other.isReached(u) && du + other.distance(u) < best) {
+                best = du + other.distance(u);
+                meet = u;
+            }
+
+            int[] offsets = forward ? upOffsets : downOffsets;
+            int[] list = forward ? upEdges : downEdges;
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int e = list[i];
+                int w = forward ? edgeTo[e] : edgeFrom[e];
+                double d = du + edgeWeight[e];
+                if (d < self.distance(w)) {
+                    self.update(w, d, e);
+                    pq.add(w, d);
+                }
+            }
+        }
+        return meet;
+    }
+
+    // Write the edge slots edge e unpacks to into slots from position at,
+    // and return the position after them
+    private int unpack(int e, int[] slots, int at) {
+        if (edgeFirst[e] < 0) {
+            slots[at] = edgeSlot[e];
+            return at + 1;
+        }
+        return unpack(edgeSecond[e], slots, unpack(edgeFirst[e], slots, at));
+    }
+
+    /** Holds the growing edge set while the vertices are contracted */
+    private static class Builder {
+        final CompactGraph graph;
+        final int n;
+        int numOriginal;
+        int numEdges;
+        /** The CompactGraph edge slot of each original edge */
+        final IntList slots = new IntList();
+        int[] from = new int[16];
+        int[] to = new int[16];
+        double[] weight = new double[16];
+        int[] first = new int[16];
+        int[] second = new int[16];
+
+        /** Edge ids out of and into each vertex */
+        final IntList[] out;
+        final IntList[] in;
+        final boolean[] contracted;
+        final int[] contractedNeighbors;
+
+        /** Search state for witness searches */
+        final SearchContext witness;
+        /** Scratch list of the shortcuts a contraction needs: u, x, in edge, out edge */
+        IntList pending = new IntList();
+
+        Builder(CompactGraph graph) {
+            this.graph = graph;
+            n = graph.getNumVertices();
+            out = new IntList[n];
+            in = new IntList[n];
+            for (int v = 0; v < n; v++) {
+                out[v] = new IntList();
+                in[v] = new IntList();
+            }
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            witness = new SearchContext(n);
+            for (int u = 0; u < n; u++) {
+                for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                    if (graph.target(e) != u) {
+                        addEdge(u, graph.target(e), graph.length(e), -1, -1);
+                        slots.add(e);
+                    }
+                }
+            }
+            numOriginal = numEdges;
+        }
+
+        int[] contractAll() {
+            int[] rank = new int[n];
+            IntPriorityQueue order = new IndexedHeap(n, 2);
+            for (int v = 0; v < n; v++) {
+                order.add(v, priority(v));
+            }
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                // Lazy update: the priority may have gone up since it was queued
+                double p = priority(v);
+                if (!order.isEmpty() && p > order.peekKey()) {
+                    order.add(v, p);
+                    continue;
+                }
+                contract(v);
+                rank[v] = next++;
+            }
+            return rank;
+        }
+
+        // Edge difference plus contracted neighbours
+        double priority(int v) {
+            int shortcuts = findShortcuts(v);
+            int removed = 0;
+            for (int i = 0; i < in[v].size; i++) {
+                if (!contracted[from[in[v].get(i)]]) removed++;
+            }
+            for (int i = 0; i < out[v].size; i++) {
+                if (!contracted[to[out[v].get(i)]]) removed++;
+            }
+            return shortcuts - removed + contractedNeighbors[v];
+        }
+
+        void contract(int v) {
+            findShortcuts(v);
+            IntList shortcuts = pending;
+            pending = new IntList();
+            for (int i = 0; i < shortcuts.size; i += 4) {
+                int first = shortcuts.get(i + 2);
+                int second = shortcuts.get(i + 3);
+                addEdge(shortcuts.get(i), shortcuts.get(i + 1), weight[first] + weight[second],
+                        first, second);
+            }
+            contracted[v] = true;
+            for (int i = 0; i < in[v].size; i++) {
+                contractedNeighbors[from[in[v].get(i)]]++;
+            }
+            for (int i = 0; i < out[v].size; i++) {
+                contractedNeighbors[to[out[v].get(i)]]++;
+            }
+        }
+
+        /**
+         * Find the shortcuts that contracting v would need, and leave them
+         * in pending.
+         * @return The number of shortcuts
+         */
+        int findShortcuts(int v) {
+            pending.size = 0;
+            for (int i = 0; i < in[v].size; i++) {
+                int inEdge = in[v].get(i);
+                int u = from[inEdge];
+                if (contracted[u]) continue;
+
+                double maxDist = 0;
+                for (int j = 0; j < out[v].size; j++) {
+                    int outEdge = out[v].get(j);
+                    if (!contracted[to[outEdge]]) {
+                        maxDist = Math.max(maxDist, weight[inEdge] + weight[outEdge]);
+                    }
+                }
+                witnessSearch(u, v, maxDist);
+
+                for (int j = 0; j < out[v].size; j++) {
+                    int outEdge = out[v].get(j);
+                    int x = to[outEdge];
+                    if (contracted[x] || x == u) continue;
+                    if (witness.distance(x) > weight[inEdge] + weight[outEdge]) {
+                        if (!pendingBetter(u, x, weight[inEdge] + weight[outEdge])) {
+                            pending.add(u);
+                            pending.add(x);
+                            pending.add(inEdge);
+                            pending.add(outEdge);
+                        }
+                    }
+                }
+            }
+            return pending.size / 4;
+        }
+
+        // With parallel edges the same u-x pair may come up twice, keep the
+        // shorter shortcut only
+        boolean pendingBetter(int u, int x, double length) {
+            for (int i = 0; i < pending.size; i += 4) {
+                if (pending.get(i) == u && pending.get(i + 1) == x) {
+                    double other = weight[pending.get(i + 2)] + weight[pending.get(i + 3)];
+                    if (other <= length) return true;
+                    pending.set(i + 2, pending.get(pending.size - 2));
+                    pending.set(i + 3, pending.get(pending.size - 1));
+                    pending.set(i, pending.get(pending.size - 4));
+                    pending.set(i + 1, pending.get(pending.size - 3));
+                    pending.size -= 4;
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        // Dijkstra from u over the remaining graph without v, up to maxDist
+        void witnessSearch(int u, int v, double maxDist) {
+            IntPriorityQueue pq = witness.heap(HeapType.BINARY);
+            witness.begin();
+            witness.update(u, 0.0, -1);
+            pq.add(u, 0.0);
+            int settled = 0;
+            while (!pq.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                if (pq.peekKey() > maxDist) break;
+                int w = pq.poll();
+                witness.settle(w);
+                settled++;
+                double dw = witness.distance(w);
+                for (int i = 0; i < out[w].size; i++) {
+                    int e = out[w].get(i);
+                    int x = to[e];
+                    if (x == v || contracted[x] || witness.isSettled(x)) continue;
+                    double d = dw + weight[e];
+                    if (d < witness.distance(x)) {
+                        witness.update(x, d, w);
+                        pq.add(x, d);
+                    }
+                }
+            }
+        }
+
+        void addEdge(int u, int x, double w, int firstEdge, int secondEdge) {
+            if (numEdges == from.length) {
+                int size = numEdges * 2;
+                from = Arrays.copyOf(from, size);
+                to = Arrays.copyOf(to, size);
+                weight = Arrays.copyOf(weight, size);
+                first = Arrays.copyOf(first, size);
+                second = Arrays.copyOf(second, size);
+            }
+            int e = numEdges++;
+            from[e] = u;
+            to[e] = x;
+            weight[e] = w;
+            first[e] = firstEdge;
+            second[e] = secondEdge;
+            out[u].add(e);
+            in[x].add(e);
+        }
+    }
+
+    /** A minimal growable list of ints */
+    private static class IntList {
+        int[] data = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int get(int i) {
+            return data[i];
+        }
+
+        void set(int i, int value) {
+            data[i] = value;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package roadgraph;
+
+import java.util.List;
+
+import util.GraphLoader;
+import geography.*;
+
+/**
+ * Checks that routes through the contraction hierarchy are the same as
+ * the routes found by Dijkstra's algorithm, on the Module 4 grader maps.
+ */
+public class ContractionHierarchyGrader implements Runnable {
+    public String feedback;
+
+    public int correct;
+
+    private static final int TESTS = 8;
+
+    /** Format readable feedback */
+    public static String printOutput(double score, String feedback) {
+        return "Score: " + score + "\nFeedback: " + feedback;
+    }
+
+    /** Format test number and description */
+    public static String appendFeedback(int num, String test) {
+        return "\n** Test #" + num + ": " + test + "...";
+    }
+
+    public static void main(String[] args) {
+        ContractionHierarchyGrader grader = new ContractionHierarchyGrader();
+        grader.run();
+    }
+
+    /** Run the query of the Dijkstra grader, then compare every pair of vertices.
+     * @param i The graph number
+     * @param file The file to read from
+     * @param desc A description of the graph
+     * @param start The point to start from
+     * @param end The point to end at
+     */
+    public void runTest(int i, String file, String desc, GeographicPoint start, GeographicPoint end) {
+        MapGraph graph = new MapGraph();
+
+        feedback += "\n\n" + desc;
+
+        GraphLoader.loadRoadMap("data/graders/mod3/" + file, graph);
+        CorrectAnswer corr = new CorrectAnswer("data/graders/mod3/" + file + ".answer", false);
+
+        judge(i * 2 - 1, graph, corr, start, end);
+        judgeAllPairs(i * 2, graph);
+    }
+
+    /** Compare the hierarchy's route with the right answer. */
+    public void judge(int i, MapGraph result, CorrectAnswer corr, GeographicPoint start, GeographicPoint end) {
+        feedback += appendFeedback(i, "Routing with the contraction hierarchy from (" + start.getX() + ", " + start.getY() + ") to (" + end.getX() + ", " + end.getY() + ")");
+        List<GeographicPoint> path = result.contractionHierarchySearch(start, end);
+        if (path == null ? corr.path == null : path.equals(corr.path)) {
+            feedback += "PASSED.";
+            correct++;
+        } else {
+            feedback += "FAILED. Expected: \n" + corr.path + "\nGot: \n" + path;
+        }
+    }
+
+    /** Compare the hierarchy's route with Dijkstra's for every start and goal. */
+    public void judgeAllPairs(int i, MapGraph result) {
+        CompactGraph graph = result.freeze();
+        ContractionHierarchy ch = result.contractionHierarchy();
+        feedback += appendFeedback(i, "Comparing all " + graph.getNumVertices() * graph.getNumVertices()
+                + " routes with Dijkstra (" + ch.getNumShortcuts() + " shortcuts)");
+        SearchContext ctx = graph.context();
+        int n = graph.getNumVertices();
+        for (int s = 0; s < n; s++) {
+            for (int t = 0; t < n; t++) {
+                graph.shortestPath(s, t, (x) -> {}, ctx, null, CompactGraph.DEFAULT_HEAP);
+                List<GeographicPoint> expected = ctx.isSettled(t) ? graph.reconstructPath(ctx, s, t) : null;
+                List<GeographicPoint> path = ch.path(s, t, (x) -> {});
+                if (expected == null ? path != null : !expected.equals(path)) {
+                    feedback += "FAILED. From " + graph.getPoint(s) + " to " + graph.getPoint(t)
+                            + " expected: \n" + expected + "\nGot: \n" + path;
+                    return;
+                }
+            }
+        }
+        feedback += "PASSED.";
+        correct++;
+    }
+
+    /** Run the grader */
+    public void run() {
+        feedback = "";
+
+        correct = 0;
+
+        try {
+            runTest(1, "map1.txt", "MAP: Straight line (-3 <- -2 <- -1 <- 0 -> 1 -> 2-> 3 ->...)", new GeographicPoint(0, 0), new GeographicPoint(6, 6));
+
+            runTest(2, "map2.txt", "MAP: Example map from the writeup", new GeographicPoint(7, 3), new GeographicPoint(4, -1));
+
+            runTest(3, "map3.txt", "MAP: Right triangle (with a little detour)", new GeographicPoint(0, 0), new GeographicPoint(0, 4));
+
+            runTest(4, "ucsd.map", "UCSD MAP: Intersections around UCSD", new GeographicPoint(32.8709815, -117.2434254), new GeographicPoint(32.8742087, -117.2381344));
+
+            if (correct == TESTS)
+                feedback = "All tests passed. Great job!" + feedback;
+            else
+                feedback = "Some tests failed. Check your code for errors, then try again:" + feedback;
+
+        } catch (Exception e) {
+            feedback += "\nError during runtime: " + e;
+            e.printStackTrace();
+        }
+
+        System.out.println(printOutput((double)correct / TESTS, feedback));
+    }
+}
@@ -0,0 +1,201 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * The shape of every road in a graph: the points between the two
+ * intersections at the ends of each edge, packed into one byte array.
+ *
+ * Coordinates are stored as ints in units of 1e-7 degrees, which holds
+ * the 7 decimals of the .map files exactly.  Each edge's points are
+ * stored as the difference from the point before (the first point from
+ * the edge's tail), and each difference as a zigzag varint, so the few
+ * metres between neighbouring points of a road take one or two bytes.
+ * An edge's record is the number of points followed by the differences.
+ *
+ * Records are decoded only when a road is drawn.  Records are found
+ * through an array of offsets indexed by edge id; a CompactGraph and the
+ * MapGraph it was frozen from share the same bytes and only differ in
+ * how their edges are numbered.
+ */
+public class GeometryStore {
+    /** Fixed point units per degree */
+    private static final double SCALE = 1e7;
+
+    private final byte[] data;
+    private final int[] offsets;
+
+    private GeometryStore(byte[] data, int[] offsets) {
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    /** @return The number of edges with a record in this store */
+    public int size() {
+        return offsets.length;
+    }
+
+    /** @return The number of bytes used by the records and offsets */
+    public long byteSize() {
+        int used = 0;
+        for (int offset : offsets) {
+            used = Math.max(used, end(offset));
+        }
+        return used + 4L * offsets.length;
+    }
+
+    // The offset just past the record at offset
+    private int end(int offset) {
+        int[] pos = {offset};
+        int count = readVarint(pos);
+        for (int i = 0; i < 2 * count; i++) {
+            readVarint(pos);
+        }
+        return pos[0];
+    }
+
+    /**
+     * @param e An edge id
+     * @return The number of points between the ends of edge e
+     */
+    public int pointCount(int e) {
+        int[] pos = {offsets[e]};
+        return readVarint(pos);
+    }
+
+    /**
+     * @param e An edge id
+     * @param fromLat The latitude of the edge's tail
+     * @param fromLon The longitude of the edge's tail
+     * @return The points between the ends of edge e
+     */
+    public List<GeographicPoint> decode(int e, double fromLat, double fromLon) {
+        List<GeographicPoint> out = new ArrayList<GeographicPoint>(pointCount(e));
+        decode(e, fromLat, fromLon, out);
+        return out;
+    }
+
+    /**
+     * Decode the points between the ends of an edge
+     * @param e An edge id
+     * @param fromLat The latitude of the edge's tail
+     * @param fromLon The longitude of the edge's tail
+     * @param out Receives the points, in order from the tail
+     */
+    public void decode(int e, double fromLat, double fromLon, List<GeographicPoint> out) {
+        int[] pos = {offsets[e]};
+        int count = readVarint(pos);
+        int lat = fixed(fromLat);
+        int lon = fixed(fromLon);
+        for (int i = 0; i < count; i++) {
+            lat += unzigzag(readVarint(pos));
+            lon += unzigzag(readVarint(pos));
+            out.add(new GeographicPoint(lat / SCALE, lon / SCALE));
+        }
+    }
+
+    private int readVarint(int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int fixed(double degrees) {
+        return (int) Math.round(degrees * SCALE);
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Collects the geometry of edges as they are added to a graph, numbering
+     * them from 0 in the order they are added.
+     */
+    static class Builder {
+        private byte[] data = new byte[1024];
+        private int length;
+        private int[] offsets = new int[64];
+        private int count;
+
+        /**
+         * Add the geometry of the next edge
+         * @param from The tail of the edge
+         * @param points The points between the ends of the edge, or null
+         *   if the road is straight
+         * @return The id of the edge in this builder
+         */
+        int add(GeographicPoint from, List<GeographicPoint> points) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count] = length;
+            int n = points == null ? 0 : points.size();
+            // at most 5 bytes per varint
+            ensure(5 + 10 * n);
+            writeVarint(n);
+            if (n > 0) {
+                int lat = fixed(from.getX());
+                int lon = fixed(from.getY());
+                for (GeographicPoint p : points) {
+                    int nextLat = fixed(p.getX());
+                    int nextLon = fixed(p.getY());
+                    writeVarint(zigzag(nextLat - lat));
+                    writeVarint(zigzag(nextLon - lon));
+                    lat = nextLat;
+                    lon = nextLon;
+                }
+            }
+            return count++;
+        }
+
+        private void ensure(int bytes) {
+            if (length + bytes > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + bytes));
+            }
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7f) != 0) {
+                data[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        /** @return The number of edges added */
+        int size() {
+            return count;
+        }
+
+        /**
+         * Get a store over the edges added so far, numbered differently.
+         * The store shares this builder's bytes; edges added later are not
+         * in it.
+         * @param ids For each edge id of the store, the id the edge has in
+         *   this builder
+         * @return The store
+         */
+        GeometryStore build(int[] ids) {
+            int[] remapped = new int[ids.length];
+            for (int e = 0; e < ids.length; e++) {
+                remapped[e] = offsets[ids[e]];
+            }
+            return new GeometryStore(data, remapped);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package roadgraph;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import geography.GeographicPoint;
+
+import util.GraphLoader;
+
+/**
+ * Compares the priority queues a search can use (see HeapType) on the
+ * larger maps in data/maps.
+ *
+ * For each map it runs the same seeded random start/goal pairs with
+ * Dijkstra and A*, and reports per query: vertices settled, heap pushes,
+ * the largest heap size reached and the mean latency.
+ *
+ * The JDK rows are the search MapGraph had before the primitive heaps:
+ * nodes with a mutable distance in a java.util.PriorityQueue, ordered by a
+ * compareTo that boxes to Double, with duplicates pushed on every
+ * improvement and skipped through a visited HashSet, parents in a HashMap
+ * and every distance reset before each query.  It runs on a copy of the
+ * graph made of such nodes.  LAZY is the same lazy deletion on a
+ * primitive heap, so the two show what the boxing and hashing cost apart
+ * from the duplicate entries.
+ *
+ * Run from the project root:  java roadgraph.HeapBenchmark [queries]
+ */
+public class HeapBenchmark {
+    private static final String[] MAPS = {
+            "data/maps/san_diego.map",
+            "data/maps/hollywood_large.map",
+            "data/maps/randomCaliData.map",
+            "data/maps/new_york.map"
+    };
+
+    private static final long SEED = 2016;
+
+    public static void main(String[] args) {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        System.out.println("map,algorithm,heap,settled/query,pushes/query,maxHeap/query,us/query");
+        for (String file : MAPS) {
+            MapGraph map = new MapGraph();
+            GraphLoader.loadRoadMap(file, map);
+            CompactGraph graph = map.freeze();
+
+            int[][] pairs = randomPairs(graph.getNumVertices(), queries);
+            LegacyNode[] legacy = LegacyNode.copy(graph);
+            String name = file.substring(file.lastIndexOf('/') + 1);
+            for (boolean aStar : new boolean[] {false, true}) {
+                for (int i = 0; i < 5; i++) {
+                    runLegacy(legacy, pairs, aStar);
+                }
+                print(name, aStar, "JDK", runLegacy(legacy, pairs, aStar), queries);
+                for (HeapType type : HeapType.values()) {
+                    // warm up, then measure
+                    for (int i = 0; i < 5; i++) {
+                        run(graph, pairs, aStar, type);
+                    }
+                    print(name, aStar, type.name(), run(graph, pairs, aStar, type), queries);
+                }
+            }
+        }
+    }
+
+    private static void print(String name, boolean aStar, String heap, Result r, int queries) {
+        System.out.printf("%s,%s,%s,%.1f,%.1f,%.1f,%.2f%n", name,
+                aStar ? "astar" : "dijkstra", heap,
+                r.settled / (double) queries, r.pushes / (double) queries,
+                r.maxHeap / (double) queries, r.nanos / 1000.0 / queries);
+    }
+
+    private static int[][] randomPairs(int n, int queries) {
+        Random random = new Random(SEED);
+        int[][] pairs = new int[queries][];
+        for (int i = 0; i < queries; i++) {
+            pairs[i] = new int[] {random.nextInt(n), random.nextInt(n)};
+        }
+        return pairs;
+    }
+
+    private static Result run(CompactGraph graph, int[][] pairs, boolean aStar, HeapType type) {
+        SearchContext ctx = graph.context();
+        Result r = new Result();
+        long start = System.nanoTime();
+        for (int[] pair : pairs) {
+            r.settled += graph.shortestPath(pair[0], pair[1], (x) -> {}, ctx,
+                    aStar ? graph.greatCircle() : null, type);
+            IntPriorityQueue heap = ctx.lastHeap();
+            r.pushes += heap.pushes();
+            r.maxHeap += heap.maxSize();
+        }
+        r.nanos = System.nanoTime() - start;
+        return r;
+    }
+
+    // The searches of the old MapGraph.dijkstra and aStarSearch, without
+    // their printing
+    private static Result runLegacy(LegacyNode[] nodes, int[][] pairs, boolean aStar) {
+        Result r = new Result();
+        long start = System.nanoTime();
+        for (int[] pair : pairs) {
+            LegacyNode startNode = nodes[pair[0]];
+            LegacyNode endNode = nodes[pair[1]];
+            GeographicPoint goal = endNode.location;
+            HashSet<LegacyNode> visited = new HashSet<>();
+            HashMap<LegacyNode, LegacyNode> parentMap = new HashMap<>();
+            PriorityQueue<LegacyNode> pq = new PriorityQueue<>();
+            for (LegacyNode n : nodes) {
+                n.distance = Double.POSITIVE_INFINITY;
+                n.actualDistance = Double.POSITIVE_INFINITY;
+            }
+            startNode.distance = 0.0;
+            startNode.actualDistance = 0.0;
+            pq.add(startNode);
+            long pushes = 1;
+            int maxHeap = 1;
+            while (!pq.isEmpty()) {
+                LegacyNode currNode = pq.remove();
+                if (visited.contains(currNode)) continue;
+                visited.add(currNode);
+                if (currNode.equals(endNode)) break;
+                for (LegacyEdge edge : currNode.edges) {
+                    LegacyNode aNeighbor = edge.end;
+                    if (visited.contains(aNeighbor)) continue;
+                    double fromStart = currNode.actualDistance + edge.length;
+                    double priority = aStar ? fromStart + aNeighbor.location.distance(goal) : fromStart;
+                    if (priority < aNeighbor.distance) {
+                        aNeighbor.distance = priority;
+                        aNeighbor.actualDistance = fromStart;
+                        parentMap.put(aNeighbor, currNode);
+                        pq.add(aNeighbor);
+                        pushes++;
+                        maxHeap = Math.max(maxHeap, pq.size());
+                    }
+                }
+            }
+            r.settled += visited.size();
+            r.pushes += pushes;
+            r.maxHeap += maxHeap;
+        }
+        r.nanos = System.nanoTime() - start;
+        return r;
+    }
+
+    // A vertex as the old MapNode held it, with its search state
+    private static class LegacyNode implements Comparable<LegacyNode> {
+        final GeographicPoint location;
+        final Set<LegacyEdge> edges = new HashSet<>();
+        double actualDistance;
+        double distance;
+
+        LegacyNode(GeographicPoint location) {
+            this.location = location;
+        }
+
+        // The vertices and edges of graph as LegacyNodes, indexed by vertex id
+        static LegacyNode[] copy(CompactGraph graph) {
+            LegacyNode[] nodes = new LegacyNode[graph.getNumVertices()];
+            for (int v = 0; v < nodes.length; v++) {
+                nodes[v] = new LegacyNode(graph.getPoint(v));
+            }
+            for (int v = 0; v < nodes.length; v++) {
+                for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                    nodes[v].edges.add(new LegacyEdge(nodes[graph.target(e)], graph.length(e)));
+                }
+            }
+            return nodes;
+        }
+
+        @Override
+        public int compareTo(LegacyNode other) {
+            return ((Double) distance).compareTo(other.distance);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LegacyNode && ((LegacyNode) o).location.equals(location);
+        }
+
+        @Override
+        public int hashCode() {
+            return location.hashCode();
+        }
+    }
+
+    private static class LegacyEdge {
+        final LegacyNode end;
+        final double length;
+
+        LegacyEdge(LegacyNode end, double length) {
+            this.end = end;
+            this.length = length;
+        }
+    }
+
+    private static class Result {
+        long settled;
+        long pushes;
+        long maxHeap;
+        long nanos;
+    }
+}
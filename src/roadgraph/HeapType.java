@@ -0,0 +1,29 @@
+package roadgraph;
+
+/**
+ * The priority queue implementations a search can use.
+ */
+public enum HeapType {
+    /** Indexed binary heap with decrease-key */
+    BINARY,
+    /** Indexed 4-ary heap with decrease-key: shallower, and the children of a node share a cache line */
+    QUATERNARY,
+    /** Binary heap without decrease-key: improved paths are pushed again and stale entries skipped */
+    LAZY;
+
+    /**
+     * Create a queue of this type
+     * @param n The number of vertices in the graph
+     * @return A new, empty queue
+     */
+    IntPriorityQueue create(int n) {
+        switch (this) {
+            case BINARY:
+                return new IndexedHeap(n, 2);
+            case QUATERNARY:
+                return new IndexedHeap(n, 4);
+            default:
+                return new LazyHeap();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package roadgraph;
+
+/**
+ * A lower bound on shortest path distances in a CompactGraph, used to
+ * guide A* searches.  Estimates must never be more than the real
+ * distance, and must be consistent (obey the triangle inequality along
+ * every edge) so that a vertex is final when it is settled.
+ */
+public interface Heuristic {
+
+    /**
+     * @param v A vertex
+     * @param goal The goal of the search
+     * @return A lower bound on the distance from v to goal, in km
+     */
+    double toGoal(int v, int goal);
+
+    /**
+     * Used by the backward half of bidirectional A*.
+     * @param start The start of the search
+     * @param v A vertex
+     * @return A lower bound on the distance from start to v, in km
+     */
+    double fromStart(int start, int v);
+}
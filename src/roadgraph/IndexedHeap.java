@@ -0,0 +1,145 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * An indexed d-ary min heap of vertex ids with true decrease-key.
+ *
+ * Every vertex is in the heap at most once; position[v] tracks where, so
+ * lowering the key of a vertex just sifts it up instead of adding a
+ * duplicate.  Keys and vertices live in parallel primitive arrays, so
+ * comparisons never box.
+ *
+ * clear() only touches the vertices still in the heap, so the position
+ * array never needs an O(V) reset between searches.
+ */
+class IndexedHeap implements IntPriorityQueue {
+    private final int arity;
+    private int[] heap;
+    private double[] keys;
+    /** Index of each vertex in heap, or -1 if it is not in the heap */
+    private final int[] position;
+    private int size;
+
+    private long pushes;
+    private long pops;
+    private int maxSize;
+
+    /**
+     * @param n The number of vertices in the graph
+     * @param arity The number of children of each heap node (2 or more)
+     */
+    IndexedHeap(int n, int arity) {
+        if (arity < 2) throw new IllegalArgumentException("arity must be at least 2: " + arity);
+        this.arity = arity;
+        heap = new int[16];
+        keys = new double[16];
+        position = new int[n];
+        Arrays.fill(position, -1);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(int v, double key) {
+        int i = position[v];
+        if (i < 0) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            i = size++;
+            pushes++;
+            if (size > maxSize) maxSize = size;
+        }
+        else if (key >= keys[i]) {
+            return;
+        }
+        siftUp(i, v, key);
+    }
+
+    @Override
+    public int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        pops++;
+        size--;
+        if (size > 0) {
+            siftDown(0, heap[size], keys[size]);
+        }
+        return top;
+    }
+
+    @Override
+    public double peekKey() {
+        return keys[0];
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+        pushes = 0;
+        pops = 0;
+        maxSize = 0;
+    }
+
+    @Override
+    public long pushes() {
+        return pushes;
+    }
+
+    @Override
+    public long pops() {
+        return pops;
+    }
+
+    @Override
+    public int maxSize() {
+        return maxSize;
+    }
+
+    // Move the hole at i up until (v, key) fits there
+    private void siftUp(int i, int v, double key) {
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            if (keys[parent] <= key) break;
+            place(i, heap[parent], keys[parent]);
+            i = parent;
+        }
+        place(i, v, key);
+    }
+
+    // Move the hole at i down until (v, key) fits there
+    private void siftDown(int i, int v, double key) {
+        while (true) {
+            int first = i * arity + 1;
+            if (first >= size) break;
+            int last = Math.min(first + arity, size);
+            int min = first;
+            for (int c = first + 1; c < last; c++) {
+                if (keys[c] < keys[min]) min = c;
+            }
+            if (keys[min] >= key) break;
+            place(i, heap[min], keys[min]);
+            i = min;
+        }
+        place(i, v, key);
+    }
+
+    private void place(int i, int v, double key) {
+        heap[i] = v;
+        keys[i] = key;
+        position[v] = i;
+    }
+}
@@ -0,0 +1,48 @@
+package roadgraph;
+
+/**
+ * A min priority queue of vertex ids with double keys, used by the
+ * shortest path searches on a CompactGraph.
+ *
+ * Implementations keep counters of their work so searches can be
+ * compared; the counters are reset by clear().
+ */
+public interface IntPriorityQueue {
+
+    /** @return true if there are no entries left */
+    boolean isEmpty();
+
+    /** @return The number of entries in the queue */
+    int size();
+
+    /**
+     * Add v with the given key, or lower the key of v if it is already
+     * in the queue.  Callers only ever lower keys.
+     * @param v The vertex
+     * @param key The new key of v
+     */
+    void add(int v, double key);
+
+    /**
+     * Remove the entry with the smallest key.  A queue that does not
+     * support decrease-key may return a vertex that was already removed
+     * (with an older key); searches skip such stale entries.
+     * @return The vertex with the smallest key
+     */
+    int poll();
+
+    /** @return The smallest key in the queue */
+    double peekKey();
+
+    /** Remove all entries and reset the counters */
+    void clear();
+
+    /** @return The number of add calls that inserted an entry */
+    long pushes();
+
+    /** @return The number of poll calls */
+    long pops();
+
+    /** @return The largest size the queue reached */
+    int maxSize();
+}
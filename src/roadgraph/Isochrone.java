@@ -0,0 +1,109 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * The result of a reachability query: every intersection whose shortest
+ * path distance from an origin is at most some limit.
+ *
+ * The intersections are kept in parallel primitive arrays, in the order
+ * the search settled them (so by increasing distance), which keeps even
+ * very large results cheap to hold and to iterate over.
+ */
+public class Isochrone {
+    private final GeographicPoint origin;
+    private final double maxDistance;
+    private final int[] vertices;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] distances;
+
+    Isochrone(GeographicPoint origin, double maxDistance, int[] vertices,
+              double[] latitudes, double[] longitudes, double[] distances) {
+        this.origin = origin;
+        this.maxDistance = maxDistance;
+        this.vertices = vertices;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.distances = distances;
+    }
+
+    /** @return The location the distances are measured from */
+    public GeographicPoint getOrigin() {
+        return origin;
+    }
+
+    /** @return The distance limit of the query, in km */
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /** @return The number of intersections reached */
+    public int size() {
+        return vertices.length;
+    }
+
+    /** @return The vertex ids (in the frozen graph) of the intersections reached */
+    public int[] getVertices() {
+        return vertices;
+    }
+
+    /** @return The latitude of every intersection reached */
+    public double[] getLatitudes() {
+        return latitudes;
+    }
+
+    /** @return The longitude of every intersection reached */
+    public double[] getLongitudes() {
+        return longitudes;
+    }
+
+    /** @return The distance in km from the origin to every intersection reached */
+    public double[] getDistances() {
+        return distances;
+    }
+
+    /**
+     * An outline of the reached area that can be drawn as one polygon.
+     * The plane around the origin is cut into equal angular sectors and the
+     * intersection farthest from the origin in each sector becomes a corner,
+     * so the outline follows the road network in and out instead of being
+     * a convex hull.
+     * @param sectors The number of sectors, e.g. 72 for one every 5 degrees
+     * @return The corners of the outline, in counter clockwise order
+     */
+    public List<GeographicPoint> boundary(int sectors) {
+        double lat0 = origin.getX();
+        double lon0 = origin.getY();
+        // flatten the map around the origin, so angles are not skewed
+        double scale = Math.cos(Math.toRadians(lat0));
+        int[] corner = new int[sectors];
+        double[] reach = new double[sectors];
+        for (int s = 0; s < sectors; s++) {
+            corner[s] = -1;
+        }
+        for (int i = 0; i < vertices.length; i++) {
+            double dx = (longitudes[i] - lon0) * scale;
+            double dy = latitudes[i] - lat0;
+            double r = dx * dx + dy * dy;
+            if (r == 0) continue;
+            int s = (int) ((Math.atan2(dy, dx) + Math.PI) / (2 * Math.PI) * sectors);
+            if (s == sectors) s = 0;
+            if (corner[s] < 0 || r > reach[s]) {
+                corner[s] = i;
+                reach[s] = r;
+            }
+        }
+
+        List<GeographicPoint> outline = new ArrayList<GeographicPoint>();
+        for (int s = 0; s < sectors; s++) {
+            if (corner[s] >= 0) {
+                outline.add(new GeographicPoint(latitudes[corner[s]], longitudes[corner[s]]));
+            }
+        }
+        return outline;
+    }
+}
@@ -0,0 +1,219 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Yen's algorithm for the k shortest loopless paths between two vertices.
+ *
+ * Each new path is found by deviating from a path already found: for every
+ * vertex on it (the spur vertex) the path up to that vertex is kept (the
+ * root), the vertices of the root and the edges other paths took out of the
+ * spur vertex are banned, and the rest is a fresh shortest path search.
+ *
+ * Two things keep the many spur searches cheap.  A backward Dijkstra
+ * from the goal, in ctx.backward(), gives the exact distance to the goal
+ * in the unmodified graph of every vertex it settles.  It only runs until
+ * the start is settled, and between rounds of Yen's algorithm it grows to
+ * the length of the path just found, which no later path is shorter than,
+ * so it never goes past the k-th path.  The A* heuristic of a spur search
+ * is that distance where it is known, and elsewhere the radius the
+ * backward search has reached, which no vertex it has not settled is
+ * closer to the goal than.  Banning vertices and edges can only make
+ * distances longer, so this stays a consistent heuristic for every spur
+ * search, which then settles little more than the vertices on its own
+ * path.  And every spur search runs in the same SearchContext, with the
+ * banned vertices and edges marked in it, so nothing is cleared or
+ * allocated between spurs, nor between calls on the same thread.
+ */
+class KShortestPaths {
+    private final CompactGraph graph;
+    private final SearchContext ctx;
+    private final int goal;
+    /** The backward search from the goal, over the in edges */
+    private final SearchContext backward;
+    private final IntPriorityQueue backwardQueue;
+    /** Vertices the backward search has not settled are at least this far from the goal */
+    private double radius;
+
+    /** A path as its edge ids, with its length */
+    private static class Path implements Comparable<Path> {
+        final int[] edges;
+        final double length;
+
+        Path(int[] edges, double length) {
+            this.edges = edges;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(Path other) {
+            return Double.compare(length, other.length);
+        }
+    }
+
+    private KShortestPaths(CompactGraph graph, int goal, SearchContext ctx) {
+        this.graph = graph;
+        this.ctx = ctx;
+        this.goal = goal;
+        this.backward = ctx.backward();
+        this.backwardQueue = backward.heap(CompactGraph.DEFAULT_HEAP);
+        backward.begin();
+        backward.update(goal, 0.0, -1);
+        backwardQueue.add(goal, 0.0);
+    }
+
+    // Run the backward search until v is settled or its queue holds
+    // nothing closer to the goal than limit
+    private void growBackward(int v, double limit) {
+        IntPriorityQueue pq = backwardQueue;
+        while (!pq.isEmpty() && (!backward.isSettled(v) || pq.peekKey() <= limit)) {
+            int u = pq.poll();
+            if (backward.isSettled(u)) continue;
+            backward.settle(u);
+            double du = backward.distance(u);
+            for (int i = graph.firstInEdge(u); i < graph.endInEdge(u); i++) {
+                int w = graph.source(i);
+                if (backward.isSettled(w)) continue;
+                double d = du + graph.length(graph.inEdge(i));
+                if (d < backward.distance(w)) {
+                    backward.update(w, d, graph.inEdge(i));
+                    pq.add(w, d);
+                }
+            }
+        }
+        radius = pq.isEmpty() ? Double.POSITIVE_INFINITY : pq.peekKey();
+    }
+
+    // A lower bound on the distance from v to the goal, exact where the
+    // backward search has settled v and infinite if the goal cannot be
+    // reached from v
+    private double toGoal(int v) {
+        return backward.isSettled(v) ? backward.distance(v) : radius;
+    }
+
+    /**
+     * Find up to k shortest loopless paths from s to t, shortest first.
+     * @param graph The graph
+     * @param s The start vertex
+     * @param t The goal vertex
+     * @param k The number of paths wanted
+     * @param ctx The search context to use
+     * @return The paths as lists of edge ids; fewer than k if there are
+     *   no more, and none if t cannot be reached
+     */
+    static List<int[]> find(CompactGraph graph, int s, int t, int k, SearchContext ctx) {
+        List<int[]> result = new ArrayList<int[]>();
+        if (k <= 0) return result;
+        KShortestPaths yen = new KShortestPaths(graph, t, ctx);
+        yen.growBackward(s, 0.0);
+        if (!yen.backward.isSettled(s)) return result;
+
+        List<Path> found = new ArrayList<Path>();
+        found.add(yen.spurPath(s, new int[0], 0.0, found));
+        PriorityQueue<Path> candidates = new PriorityQueue<Path>();
+        HashSet<List<Integer>> seen = new HashSet<List<Integer>>();
+        seen.add(asList(found.get(0).edges));
+
+        while (found.size() < k) {
+            Path newest = found.get(found.size() - 1);
+            // every later path is at least as long as the newest one, so
+            // the heuristic is exact on the vertices they are likely to use
+            yen.growBackward(s, newest.length);
+            int[] last = newest.edges;
+            int spurNode = s;
+            double rootLength = 0.0;
+            for (int j = 0; j < last.length; j++) {
+                int[] root = Arrays.copyOf(last, j);
+                Path path = yen.spurPath(spurNode, root, rootLength, found);
+                if (path != null && seen.add(asList(path.edges))) {
+                    candidates.add(path);
+                }
+                rootLength += graph.length(last[j]);
+                spurNode = graph.target(last[j]);
+            }
+            if (candidates.isEmpty()) break;
+            found.add(candidates.poll());
+        }
+
+        for (Path p : found) {
+            result.add(p.edges);
+        }
+        return result;
+    }
+
+    // A* from spurNode to the goal that avoids the vertices of the root
+    // path, and the edges out of spurNode taken by the paths found that
+    // share the root.  Returns the root followed by the spur path, or null
+    // if the goal cannot be reached.
+    private Path spurPath(int spurNode, int[] root, double rootLength, List<Path> found) {
+        IntPriorityQueue pq = ctx.heap(CompactGraph.DEFAULT_HEAP);
+        ctx.begin();
+        int v = spurNode;
+        for (int i = root.length - 1; i >= 0; i--) {
+            v = graph.tail(root[i]);
+            ctx.mark(v);
+        }
+        for (Path p : found) {
+            if (p.edges.length > root.length && startsWith(p.edges, root)) {
+                ctx.markEdge(p.edges[root.length]);
+            }
+        }
+
+        // the parent of a vertex is the edge id it was reached by
+        ctx.update(spurNode, 0.0, -1);
+        pq.add(spurNode, toGoal(spurNode));
+        boolean reached = false;
+        while (!pq.isEmpty()) {
+            int u = pq.poll();
+            if (ctx.isSettled(u)) continue;
+            ctx.settle(u);
+            if (u == goal) {
+                reached = true;
+                break;
+            }
+            double du = ctx.distance(u);
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int w = graph.target(e);
+                if (ctx.isSettled(w) || ctx.isMarked(w) || ctx.isEdgeMarked(e)) continue;
+                double h = toGoal(w);
+                if (h == Double.POSITIVE_INFINITY) continue;
+                double d = du + graph.length(e);
+                if (d < ctx.distance(w)) {
+                    ctx.update(w, d, e);
+                    pq.add(w, d + h);
+                }
+            }
+        }
+        if (!reached) return null;
+
+        int count = 0;
+        for (int u = goal; u != spurNode; u = graph.tail(ctx.parent(u))) {
+            count++;
+        }
+        int[] edges = Arrays.copyOf(root, root.length + count);
+        int i = edges.length;
+        for (int u = goal; u != spurNode; u = graph.tail(ctx.parent(u))) {
+            edges[--i] = ctx.parent(u);
+        }
+        return new Path(edges, rootLength + ctx.distance(goal));
+    }
+
+    private static boolean startsWith(int[] edges, int[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (edges[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static List<Integer> asList(int[] edges) {
+        List<Integer> list = new ArrayList<Integer>(edges.length);
+        for (int e : edges) {
+            list.add(e);
+        }
+        return list;
+    }
+}
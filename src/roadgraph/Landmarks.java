@@ -0,0 +1,246 @@
+package roadgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The ALT heuristic (A*, Landmarks and the Triangle inequality).
+ *
+ * A few landmark vertices are chosen and the distances from every landmark
+ * to every vertex, and from every vertex to every landmark, are computed
+ * once.  For any landmark L the triangle inequality gives two lower bounds
+ * on the distance from v to t:
+ *
+ *     d(v,t) &gt;= d(L,t) - d(L,v)     and     d(v,t) &gt;= d(v,L) - d(t,L)
+ *
+ * The estimate is the largest of these bounds over all landmarks (and the
+ * great circle distance), which follows the road network much more closely
+ * than a straight line.  The tables are plain double arrays, indexed by
+ * landmark * n + vertex, and can be saved next to the map file so they are
+ * only computed once.
+ */
+public class Landmarks implements Heuristic {
+    /** "ALT1" */
+    private static final int MAGIC = 0x414c5431;
+    private static final int VERSION = 1;
+
+    private final CompactGraph graph;
+    private final int n;
+    private final int[] landmarks;
+    /** fromLandmark[i * n + v] is the distance from landmark i to v */
+    private final double[] fromLandmark;
+    /** toLandmark[i * n + v] is the distance from v to landmark i */
+    private final double[] toLandmark;
+
+    private Landmarks(CompactGraph graph, int[] landmarks, double[] fromLandmark, double[] toLandmark) {
+        this.graph = graph;
+        this.n = graph.getNumVertices();
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+    }
+
+    /**
+     * Choose k landmarks by farthest selection and compute their distance
+     * tables.  The first landmark is the vertex farthest from vertex 0;
+     * each next one is the vertex whose distance to the nearest landmark
+     * chosen so far is largest, which spreads them around the edge of
+     * the map.
+     * @param graph The graph
+     * @param k The number of landmarks
+     * @return The landmark tables for graph
+     */
+    public static Landmarks compute(CompactGraph graph, int k) {
+        return compute(graph, k, CompactGraph.DEFAULT_HEAP);
+    }
+
+    /**
+     * Compute k landmarks, running their searches with the given kind of
+     * priority queue
+     * @param graph The graph
+     * @param k The number of landmarks
+     * @param heapType The priority queue to use
+     * @return The landmark tables for graph
+     */
+    public static Landmarks compute(CompactGraph graph, int k, HeapType heapType) {
+        int n = graph.getNumVertices();
+        k = Math.min(k, n);
+        int[] landmarks = new int[k];
+        double[] fromLandmark = new double[k * n];
+        double[] toLandmark = new double[k * n];
+        SearchContext ctx = new SearchContext(n);
+
+        // distance from each vertex to the closest landmark so far
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        if (n > 0) {
+            graph.distancesFrom(0, ctx, false, heapType);
+        }
+        int next = farthest(ctx, n, null);
+        for (int i = 0; i < k; i++) {
+            landmarks[i] = next;
+            graph.distancesFrom(next, ctx, false, heapType);
+            for (int v = 0; v < n; v++) {
+                double d = ctx.distance(v);
+                fromLandmark[i * n + v] = d;
+                nearest[v] = Math.min(nearest[v], d);
+            }
+            graph.distancesFrom(next, ctx, true, heapType);
+            for (int v = 0; v < n; v++) {
+                toLandmark[i * n + v] = ctx.distance(v);
+            }
+            next = farthest(null, n, nearest);
+        }
+        return new Landmarks(graph, landmarks, fromLandmark, toLandmark);
+    }
+
+    // The vertex with the largest finite distance, read from ctx or from
+    // the given array.  Unreachable vertices are ignored, so landmarks are
+    // not wasted on tiny disconnected pieces of the map.
+    private static int farthest(SearchContext ctx, int n, double[] dist) {
+        int best = 0;
+        double bestDist = -1;
+        for (int v = 0; v < n; v++) {
+            double d = ctx != null ? ctx.distance(v) : dist[v];
+            if (d != Double.POSITIVE_INFINITY && d > bestDist) {
+                best = v;
+                bestDist = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Load the landmarks saved for a graph, or compute and save them if
+     * the file is missing, unreadable or was made for a different graph.
+     * @param graph The graph
+     * @param k The number of landmarks to compute if they are not loaded
+     * @param filename The landmark file, usually the map file name with
+     *   ".landmarks" appended
+     * @return The landmark tables for graph
+     */
+    public static Landmarks loadOrCompute(CompactGraph graph, int k, String filename) {
+        Landmarks result = null;
+        if (new File(filename).exists()) {
+            try {
+                result = load(graph, filename);
+            } catch (IOException e) {
+                System.err.println("Problem loading landmark file: " + filename);
+                e.printStackTrace();
+            }
+        }
+        if (result == null || result.getNumLandmarks() != Math.min(k, graph.getNumVertices())) {
+            result = compute(graph, k);
+            try {
+                result.save(filename);
+            } catch (IOException e) {
+                System.err.println("Problem saving landmark file: " + filename);
+                e.printStackTrace();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read landmark tables written by save().
+     * @param graph The graph the tables are for
+     * @param filename The landmark file
+     * @return The landmarks, or null if the file was saved for another graph
+     * @throws IOException If the file cannot be read or is not a landmark file
+     */
+    public static Landmarks load(CompactGraph graph, String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filename)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a landmark file: " + filename);
+            }
+            if (in.readInt() != VERSION || in.readLong() != graph.fingerprint()) {
+                return null;
+            }
+            int n = graph.getNumVertices();
+            int k = in.readInt();
+            int[] landmarks = new int[k];
+            for (int i = 0; i < k; i++) {
+                landmarks[i] = in.readInt();
+            }
+            double[] fromLandmark = new double[k * n];
+            double[] toLandmark = new double[k * n];
+            for (int i = 0; i < fromLandmark.length; i++) {
+                fromLandmark[i] = in.readDouble();
+            }
+            for (int i = 0; i < toLandmark.length; i++) {
+                toLandmark[i] = in.readDouble();
+            }
+            return new Landmarks(graph, landmarks, fromLandmark, toLandmark);
+        }
+    }
+
+    /**
+     * Write the landmark tables, tagged with the fingerprint of the graph
+     * @param filename The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void save(String filename) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(filename)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(graph.fingerprint());
+            out.writeInt(landmarks.length);
+            for (int landmark : landmarks) {
+                out.writeInt(landmark);
+            }
+            for (double d : fromLandmark) {
+                out.writeDouble(d);
+            }
+            for (double d : toLandmark) {
+                out.writeDouble(d);
+            }
+        }
+    }
+
+    /** @return The graph these landmarks were computed for */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /** @return The number of landmarks */
+    public int getNumLandmarks() {
+        return landmarks.length;
+    }
+
+    /** @return The vertex id of landmark i */
+    public int getLandmark(int i) {
+        return landmarks[i];
+    }
+
+    @Override
+    public double toGoal(int v, int goal) {
+        return bound(v, goal);
+    }
+
+    @Override
+    public double fromStart(int start, int v) {
+        return bound(start, v);
+    }
+
+    // The largest lower bound on d(v,t).  A bound that involves an
+    // unreachable landmark is skipped.
+    private double bound(int v, int t) {
+        double best = graph.distance(v, t);
+        for (int i = 0, base = 0; i < landmarks.length; i++, base += n) {
+            double b = fromLandmark[base + t] - fromLandmark[base + v];
+            if (b > best && b != Double.POSITIVE_INFINITY) best = b;
+            b = toLandmark[base + v] - toLandmark[base + t];
+            if (b > best && b != Double.POSITIVE_INFINITY) best = b;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,103 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of vertex ids without decrease-key.
+ *
+ * This is the lazy deletion strategy of the original searches: when a
+ * shorter path to a vertex is found it is simply added again, and the
+ * search skips the old entry when it is polled.  It is kept as a baseline
+ * for the indexed heaps, but stores primitives rather than objects.
+ */
+class LazyHeap implements IntPriorityQueue {
+    private int[] heap = new int[16];
+    private double[] keys = new double[16];
+    private int size;
+
+    private long pushes;
+    private long pops;
+    private int maxSize;
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(int v, double key) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size++;
+        pushes++;
+        if (size > maxSize) maxSize = size;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) break;
+            heap[i] = heap[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        heap[i] = v;
+        keys[i] = key;
+    }
+
+    @Override
+    public int poll() {
+        int top = heap[0];
+        pops++;
+        size--;
+        if (size > 0) {
+            int v = heap[size];
+            double key = keys[size];
+            int i = 0;
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= size) break;
+                if (c + 1 < size && keys[c + 1] < keys[c]) c++;
+                if (keys[c] >= key) break;
+                heap[i] = heap[c];
+                keys[i] = keys[c];
+                i = c;
+            }
+            heap[i] = v;
+            keys[i] = key;
+        }
+        return top;
+    }
+
+    @Override
+    public double peekKey() {
+        return keys[0];
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        pushes = 0;
+        pops = 0;
+        maxSize = 0;
+    }
+
+    @Override
+    public long pushes() {
+        return pushes;
+    }
+
+    @Override
+    public long pops() {
+        return pops;
+    }
+
+    @Override
+    public int maxSize() {
+        return maxSize;
+    }
+}
@@ -4,6 +4,8 @@
 package roadgraph;
 
 import geography.GeographicPoint;
+import geography.RoadClass;
+import geography.RoadNames;
 
 /**
  * @author UCSD Intermediate Programming MOOC team
@@ -12,11 +14,9 @@ import geography.GeographicPoint;
  */
 class MapEdge
 {
-    /** The name of the road */
-    private String roadName;
-
-    /** The type of the road */
-    private String roadType;
+    /** The name and type of the road, as a label of names */
+    private final RoadNames names;
+    private final int label;
 
     /** The two endpoints of the edge */
     private MapNode start;
@@ -26,34 +26,45 @@ class MapEdge
     /** The length of the road segment, in km */
     private double length;
 
+    /** The index of this edge in its graph, which is where its geometry is */
+    private final int id;
+
     static final double DEFAULT_LENGTH = 0.01;
 
 
     /** Create a new MapEdge object
      *
+     * @param names The road names of the graph
      * @param roadName
      * @param n1  The point at one end of the segment
      * @param n2  The point at the other end of the segment
+     * @param id  The index of the edge in its graph
      *
      */
-    MapEdge(String roadName, MapNode n1, MapNode n2)
+    MapEdge(RoadNames names, String roadName, MapNode n1, MapNode n2, int id)
     {
-        this(roadName, "", n1, n2, DEFAULT_LENGTH);
+        this(names, roadName, "", n1, n2, DEFAULT_LENGTH, id);
     }
 
-    MapEdge(String roadName, String roadType, MapNode n1, MapNode n2)
+    MapEdge(RoadNames names, String roadName, String roadType, MapNode n1, MapNode n2, int id)
     {
-        this(roadName, roadType, n1, n2, DEFAULT_LENGTH);
+        this(names, roadName, roadType, n1, n2, DEFAULT_LENGTH, id);
     }
 
-    MapEdge(String roadName, String roadType,
-            MapNode n1, MapNode n2, double length)
+    MapEdge(RoadNames names, String roadName, String roadType,
+            MapNode n1, MapNode n2, double length, int id)
     {
-        this.roadName = roadName;
+        this.names = names;
+        this.label = names.label(roadName, roadType);
         start = n1;
         end = n2;
-        this.roadType = roadType;
         this.length = length;
+        this.id = id;
+    }
+
+    // return the MapNode for the start point
+    MapNode getStartNode() {
+        return start;
     }
 
     // return the MapNode for the end point
@@ -79,12 +90,30 @@ class MapEdge
         return length;
     }
 
+    // return the index of this edge in its graph
+    int getId()
+    {
+        return id;
+    }
+
 
 
     // return road name
     public String getRoadName()
     {
-        return roadName;
+        return names.name(label);
+    }
+
+    // return road type
+    public String getRoadType()
+    {
+        return names.type(label);
+    }
+
+    // return the class of the road type
+    RoadClass getRoadClass()
+    {
+        return names.roadClass(label);
     }
 
     // given one node in an edge, return the other node
@@ -104,7 +133,7 @@ class MapEdge
         String toReturn = "[EDGE between ";
         toReturn += "\n\t" + start.getLocation();
         toReturn += "\n\t" + end.getLocation();
-        toReturn += "\nRoad name: " + roadName + " Road type: " + roadType +
+        toReturn += "\nRoad name: " + getRoadName() + " Road type: " + getRoadType() +
                 " Segment length: " + String.format("%.3g", length) + "km";
 
         return toReturn;
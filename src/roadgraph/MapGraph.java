@@ -9,9 +9,14 @@ package roadgraph;
 
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 import geography.GeographicPoint;
+import geography.PointIndex;
+import geography.RoadNames;
 import util.GraphLoader;
 
 /**
@@ -25,16 +30,61 @@ public class MapGraph {
     // Maintain both nodes and edges as you will need to
     // be able to look up nodes by lat/lon or by roads
     // that contain those nodes.
-    private HashMap<GeographicPoint,MapNode> pointNodeMap; //geo point takes a long/lat as key, and the value is node
-    private HashSet<MapEdge> edges;
+    // the intersections in the order they were added, and the index of
+    // each one in that list by its location
+    private ArrayList<MapNode> nodes;
+    private PointIndex nodeIds;
+    // getVertices() view of the locations of the nodes
+    private final Set<GeographicPoint> vertices = new AbstractSet<GeographicPoint>() {
+        @Override
+        public Iterator<GeographicPoint> iterator() {
+            Iterator<MapNode> it = nodes.iterator();
+            return new Iterator<GeographicPoint>() {
+                public boolean hasNext() { return it.hasNext(); }
+                public GeographicPoint next() { return it.next().getLocation(); }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof GeographicPoint && nodeIds.contains((GeographicPoint) o);
+        }
+
+        @Override
+        public int size() {
+            return nodes.size();
+        }
+    };
+    // the edges in the order they were added; an edge's index in this
+    // list is its id, and the id of its shape in geometry
+    private ArrayList<MapEdge> edges;
+    private GeometryStore.Builder geometry;
+    // the road names and types of the edges
+    private final RoadNames roadNames = new RoadNames();
+    // CSR snapshot of this graph, built on demand by freeze()
+    private volatile CompactGraph frozen;
+    // contraction hierarchy of the frozen graph, built on first use
+    private volatile ContractionHierarchy hierarchy;
+    // landmark heuristic for the A* searches, null to use straight line distance
+    private volatile Landmarks landmarks;
+    // the priority queue used by the searches
+    private HeapType heapType = CompactGraph.DEFAULT_HEAP;
+    // where every search is recorded, or null to not measure searches
+    private volatile SearchMetrics metrics;
+    // answers repeated findRoute queries; null for no caching
+    private volatile RouteCache routeCache;
+    // the order freeze() numbers the vertices in
+    private VertexOrder vertexOrder = VertexOrder.HILBERT;
 
     /**
      * Create a new empty MapGraph
      */
     public MapGraph()
     {
-        pointNodeMap = new HashMap<>();
-        edges = new HashSet<>();
+        nodes = new ArrayList<>();
+        nodeIds = new PointIndex();
+        edges = new ArrayList<>();
+        geometry = new GeometryStore.Builder();
     }
 
     /**
@@ -43,16 +93,17 @@ public class MapGraph {
      */
     public int getNumVertices()
     {
-        return pointNodeMap.values().size();
+        return nodes.size();
     }
 
     /**
      * Return the intersections, which are the vertices in this graph.
-     * @return The vertices in this graph as GeographicPoints
+     * @return The vertices in this graph as GeographicPoints, in the order
+     *   they were added (a read only view)
      */
     public Set<GeographicPoint> getVertices()
     {
-        return pointNodeMap.keySet();
+        return vertices;
     }
 
     /**
@@ -78,10 +129,12 @@ public class MapGraph {
         if (location == null) {
             return false;
         }
-        MapNode n = pointNodeMap.get(location);
-        if (n == null) {
-            n = new MapNode(location);
-            pointNodeMap.put(location, n);
+        if (nodeIds.get(location) < 0) {
+            nodeIds.put(location, nodes.size());
+            nodes.add(new MapNode(location));
+            frozen = null;
+            hierarchy = null;
+            clearRouteCache();
             return true;
         }
         else {
@@ -103,9 +156,31 @@ public class MapGraph {
      */
     public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
                         String roadType, double length) throws IllegalArgumentException {
+        addEdge(from, to, roadName, roadType, length, null);
+    }
 
-        MapNode n1 = pointNodeMap.get(from);
-        MapNode n2 = pointNodeMap.get(to);
+    /**
+     * Adds a directed edge to the graph from pt1 to pt2, with the shape of
+     * the road between them.  The shape is packed into the graph's
+     * GeometryStore, so the list can be reused by the caller.
+     * Precondition: Both GeographicPoints have already been added to the graph
+     * @param from The starting point of the edge
+     * @param to The ending point of the edge
+     * @param roadName The name of the road
+     * @param roadType The type of the road
+     * @param length The length of the road, in km
+     * @param geometry The points on the road between from and to, or null
+     *   if it is straight
+     * @throws IllegalArgumentException If the points have not already been
+     *   added as nodes to the graph, if any of the arguments is null,
+     *   or if the length is less than 0.
+     */
+    public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+                        String roadType, double length, List<GeographicPoint> geometry)
+            throws IllegalArgumentException {
+
+        MapNode n1 = node(from);
+        MapNode n2 = node(to);
 
         // check nodes are valid
         if (n1 == null)
@@ -113,20 +188,164 @@ public class MapGraph {
         if (n2 == null)
             throw new NullPointerException("addEdge: pt2:"+to+"is not in graph");
 
-        MapEdge edge = new MapEdge(roadName, roadType, n1, n2, length);
+        MapEdge edge = new MapEdge(roadNames, roadName, roadType, n1, n2, length, edges.size());
+        this.geometry.add(from, geometry);
         edges.add(edge);
         n1.addEdge(edge);
+        frozen = null;
+        hierarchy = null;
+        clearRouteCache();
+    }
+
+    // Drop the cached routes, which are of the graph before the change
+    private void clearRouteCache()
+    {
+        RouteCache cache = routeCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    // The node at a location, or null if there is none
+    private MapNode node(GeographicPoint location)
+    {
+        if (location == null) {
+            return null;
+        }
+        int id = nodeIds.get(location);
+        return id < 0 ? null : nodes.get(id);
+    }
+
+    /**
+     * Get an immutable, array based copy of this graph that the search
+     * algorithms can run on without touching any MapNode or MapEdge.
+     * The copy is built on the first call and reused until the graph
+     * is changed with addVertex or addEdge.
+     * Safe to call from many threads at once, as long as no thread is
+     * changing the graph at the same time.
+     * @return The compressed sparse row form of this graph
+     */
+    public CompactGraph freeze()
+    {
+        CompactGraph result = frozen;
+        if (result == null) {
+            synchronized (this) {
+                result = frozen;
+                if (result == null) {
+                    result = CompactGraph.freeze(vertexOrder.arrange(nodes), geometry);
+                    frozen = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Choose the order freeze() numbers the vertices in.  Searches find
+     * routes of the same length in any order, but vertex ids change, and
+     * so do the fingerprint and the saved data that depends on it.
+     * @param vertexOrder The order; HILBERT unless set
+     */
+    public void setVertexOrder(VertexOrder vertexOrder)
+    {
+        if (vertexOrder == null)
+            throw new NullPointerException("vertexOrder");
+        synchronized (this) {
+            this.vertexOrder = vertexOrder;
+            frozen = null;
+            hierarchy = null;
+        }
+        clearRouteCache();
+    }
+
+    /**
+     * Get the contraction hierarchy of this graph, preprocessing it on the
+     * first call.  Like freeze(), the result is reused until the graph
+     * changes.
+     * @return The contraction hierarchy of this graph
+     */
+    public ContractionHierarchy contractionHierarchy()
+    {
+        ContractionHierarchy result = hierarchy;
+        if (result == null) {
+            synchronized (this) {
+                result = hierarchy;
+                if (result == null) {
+                    result = ContractionHierarchy.build(freeze());
+                    hierarchy = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Make aStarSearch and bidirectionalAStar use the ALT heuristic.  The
+     * landmarks must have been computed for the current freeze() of this
+     * graph; once the graph changes they are ignored.
+     * @param landmarks The landmark tables, or null to go back to the
+     *   straight line heuristic
+     */
+    public void useLandmarks(Landmarks landmarks)
+    {
+        this.landmarks = landmarks;
+    }
 
+    // The heuristic the A* searches use on the given frozen graph
+    private Heuristic heuristic(CompactGraph graph)
+    {
+        Landmarks alt = landmarks;
+        if (alt != null && alt.getGraph() == graph) {
+            return alt;
+        }
+        return graph.greatCircle();
+    }
+
+    /**
+     * Choose the priority queue used by the searches: findRoute, routeBatch,
+     * distanceMatrix, reachableWithin and routes between road snaps
+     * @param heapType The kind of priority queue
+     */
+    public void setHeapType(HeapType heapType)
+    {
+        this.heapType = heapType;
     }
 
     /**
-     * Get a set of neighbor nodes from a mapNode
-     * @param node  The node to get the neighbors from
-     * @return A set containing the MapNode objects that are the neighbors
-     * 	of node
+     * Measure every search run through findRoute (and so through bfs,
+     * dijkstra, aStarSearch and the bidirectional searches) and add its
+     * SearchStats to metrics
+     * @param metrics Where to record the searches, or null to stop
+     *   measuring them
      */
-    private Set<MapNode> getNeighbors(MapNode node) {
-        return node.getNeighbors();
+    public void setSearchMetrics(SearchMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /** @return Where searches are recorded, or null if they are not */
+    public SearchMetrics getSearchMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Cache the routes found through findRoute (and so through bfs,
+     * dijkstra, aStarSearch, the bidirectional searches and the contraction
+     * hierarchy) and fastestRoute, so a repeated query is answered without
+     * searching.  The cache is cleared whenever
+     * a vertex or edge is added.
+     * @param cache The cache to use, or null to stop caching
+     */
+    public void setRouteCache(RouteCache cache)
+    {
+        this.routeCache = cache;
+    }
+
+    /** @return The route cache, or null if routes are not cached */
+    public RouteCache getRouteCache()
+    {
+        return routeCache;
     }
 
     /** Find the path from start to goal using breadth first search
@@ -145,46 +364,19 @@ public class MapGraph {
     public List<GeographicPoint> bfs(GeographicPoint start,
                                      GeographicPoint goal,
                                      Consumer<GeographicPoint> nodeSearched) {
-        if (!checkPoints(start, goal) ) return null;
-        //initialize everything we will use, we begin by creating start/goal nodes
-        MapNode startNode = pointNodeMap.get(start);
-        MapNode endNode = pointNodeMap.get(goal);
-
-        // setup to begin BFS
-        HashMap<MapNode,MapNode> parentMap = new HashMap<>();
-        Queue<MapNode> toExplore = new LinkedList<>();
-        HashSet<MapNode> visited = new HashSet<>();
-
-        toExplore.add(startNode);
-        MapNode currNode = null;
-
-        while (!toExplore.isEmpty()) {
-            currNode = toExplore.remove();
-
-            // hook for visualization
-            nodeSearched.accept(currNode.getLocation());
-
-            if (currNode.equals(endNode)) break; //we found goal!
-            Set<MapNode> neighbors = getNeighbors(currNode);
-            for (MapNode neighbor : neighbors) {
-                if (!visited.contains(neighbor)) {
-                    visited.add(neighbor);          //add to visited list
-                    parentMap.put(neighbor, currNode);  //the value is the currNode, the neighbor is the key
-                                                    //because guess what, its a parentMap, so we should have the value of the key be a parent of the key.
-                                                    //in the context of the map, since neighbor is being looked at, neighbor's value in parentMap must be
-                                                    //the previous node from hence it came. This concept is whats been taking me so fucking long to understand
-                                                    //but I think now I finally understand it
-                    toExplore.add(neighbor);        //queue up the neighbors of the currNode!
-                }
-            }
-        }
-        if (!currNode.equals(endNode)) {
-            System.out.println("No path found from " +start+ " to " + goal);
-            return null;
-        }
-        // Reconstruct the parent path
-        return  reconstructPath(parentMap, startNode, endNode);
+        return pathOf(bfsRoute(start, goal, nodeSearched));
+    }
 
+    /** Find the path from start to goal using breadth first search, as
+     * the edges it follows, for drawing it with the shape of its roads
+     * @return The route, or null if there is none */
+    public Route bfsRoute(GeographicPoint start, GeographicPoint goal,
+                          Consumer<GeographicPoint> nodeSearched) {
+        return findRoute(start, goal, SearchAlgorithm.BFS, nodeSearched, null);
+    }
+
+    private static List<GeographicPoint> pathOf(Route route) {
+        return route == null ? null : route.getPath();
     }
 
 
@@ -203,67 +395,20 @@ public class MapGraph {
     }
 
 
+    // The search itself runs on the frozen graph with the calling thread's
+    // SearchContext, so no MapNode is modified and there is nothing to reset
+    // between queries.  Any number of threads may route at the same time.
     public List<GeographicPoint> dijkstra(GeographicPoint start,
                                           GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return pathOf(dijkstraRoute(start, goal, nodeSearched));
+    }
 
-        if (!checkPoints(start, goal)) return null;
-        //initialize everything we will use, we begin by creating start/goal nodes
-        MapNode startNode = pointNodeMap.get(start);
-        MapNode endNode = pointNodeMap.get(goal);
-
-        HashSet<MapNode> visited = new HashSet<>(); //track already visited
-        HashMap<MapNode, MapNode> parentMap = new HashMap<>(); //track each nodes parent
-        Queue<MapNode> pq = new PriorityQueue<>(); //this queue implements comparator
-
-        //so we can re-initialize if needed
-        for (MapNode n : pointNodeMap.values()){
-            n.setDistance(Double.POSITIVE_INFINITY);
-            n.setActualDistance(Double.POSITIVE_INFINITY);
-        }
-
-        startNode.setActualDistance(0.0); //initialize our start with 0 weight
-        startNode.setDistance(0.0);
-        pq.add(startNode); // we want to add our start to the queue, this is when compareTo() is called
-        MapNode currNode = null;
-        while(!pq.isEmpty()) {
-            //because MapNode implements comparator, and this is a priority queue,
-            //we know that it removes the node with the smallest distance
-            currNode = pq.remove(); //take off queue, this takes the top element off, and puts the bottom element in the heap at top, and bubbles it down
-            nodeSearched.accept(currNode.getLocation()); //for visualization
-
-            if(!visited.contains(currNode)) {
-                visited.add(currNode);
-
-                if(currNode.equals(endNode))
-                    break;
-                Set<MapEdge> currNodeEdges = currNode.getEdges(); //
-
-                for (MapEdge edge : currNodeEdges) { //for each neighbor in neighbors of currNode
-                    MapNode aNeighbor = edge.getOtherNode(currNode); //use this edge, and currNode to get the neighbor at other end of the edge
-                    //if this neighbor has not been visited
-                    if (!visited.contains(aNeighbor)) {
-                        //update aNeighbor's distance:
-                        //with the currNode's weighted distance, and the edge's length to the neighbor being looked at
-                        double newDistance = currNode.getDistance() + edge.getLength();
-                        //if this distance is less than the neighbor's, we update iaNeighbor's distance, and add it to parent map
-                        //so we can reach it, and add aNeighbor to the queue
-                        if (newDistance < aNeighbor.getDistance()) {
-                            aNeighbor.setDistance(newDistance);
-                            aNeighbor.setActualDistance(newDistance);
-                            parentMap.put(aNeighbor, currNode);
-                            pq.add(aNeighbor); //arbitrary added to queue data structure
-                        }
-                    }
-                }
-            }
-        }
-        if (!currNode.equals(endNode)) {
-            System.out.println("No path found from " +start+ " to " + goal);
-            return null;
-        }
-        System.out.println("Nodes Visited Dijkstra: "+visited.size());
-        //return the reconstructed path
-        return reconstructPath(parentMap, startNode, endNode);
+    /** Find the path from start to goal using Dijkstra's algorithm, as the
+     * edges it follows
+     * @return The route, or null if there is none */
+    public Route dijkstraRoute(GeographicPoint start, GeographicPoint goal,
+                               Consumer<GeographicPoint> nodeSearched) {
+        return findRoute(start, goal, SearchAlgorithm.DIJKSTRA, nodeSearched, null);
     }
 
     /** Find the path from start to goal using A-Star search
@@ -282,94 +427,385 @@ public class MapGraph {
 
     public List<GeographicPoint> aStarSearch(GeographicPoint start,
                                              GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return pathOf(aStarRoute(start, goal, nodeSearched));
+    }
+
+    /** Find the path from start to goal using A-Star search, as the edges
+     * it follows
+     * @return The route, or null if there is none */
+    public Route aStarRoute(GeographicPoint start, GeographicPoint goal,
+                            Consumer<GeographicPoint> nodeSearched) {
+        return findRoute(start, goal, SearchAlgorithm.A_STAR, nodeSearched, null);
+    }
+
+
+    /** Find the path from start to goal by searching forward from start
+     * and backward from goal at the same time, using Dijkstra's algorithm
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return bidirectionalDijkstra(start, goal, temp);
+    }
+
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start,
+                                                       GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return pathOf(bidirectionalDijkstraRoute(start, goal, nodeSearched));
+    }
+
+    /** Find the path from start to goal using bidirectional Dijkstra, as
+     * the edges it follows
+     * @return The route, or null if there is none */
+    public Route bidirectionalDijkstraRoute(GeographicPoint start, GeographicPoint goal,
+                                            Consumer<GeographicPoint> nodeSearched) {
+        return findRoute(start, goal, SearchAlgorithm.BIDIRECTIONAL_DIJKSTRA, nodeSearched, null);
+    }
+
+    /** Find the path from start to goal by searching forward from start
+     * and backward from goal at the same time, using A-Star search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalAStar(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return bidirectionalAStar(start, goal, temp);
+    }
+
+    public List<GeographicPoint> bidirectionalAStar(GeographicPoint start,
+                                                    GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return pathOf(bidirectionalAStarRoute(start, goal, nodeSearched));
+    }
+
+    /** Find the path from start to goal using bidirectional A-Star search,
+     * as the edges it follows
+     * @return The route, or null if there is none */
+    public Route bidirectionalAStarRoute(GeographicPoint start, GeographicPoint goal,
+                                         Consumer<GeographicPoint> nodeSearched) {
+        return findRoute(start, goal, SearchAlgorithm.BIDIRECTIONAL_A_STAR, nodeSearched, null);
+    }
+
+    /** Find the path from start to goal with any of the searches, as the
+     * edges it follows
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param algorithm The search to run
+     * @param nodeSearched Hook for visualization
+     * @param stats If not null, receives the work done by the search.
+     *   Searches are also measured, whether or not stats is given, while
+     *   a SearchMetrics is set.
+     * @return The route, or null if there is none
+     *
+     * While a RouteCache is set, a query it has the answer to runs no
+     * search: nodeSearched is not called, stats shows no work and the
+     * SearchMetrics are not updated.
+     */
+    public Route findRoute(GeographicPoint start, GeographicPoint goal, SearchAlgorithm algorithm,
+                           Consumer<GeographicPoint> nodeSearched, SearchStats stats)
+    {
         if (!checkPoints(start, goal)) return null; //send to our check function
-        //check went through, lets make our MapNodes out of our geo points so we can traverse from the s -> g
-        MapNode startNode = pointNodeMap.get(start);
-        MapNode endNode =pointNodeMap.get(goal);
-        //initialize data structures'
-        PriorityQueue<MapNode> pq = new PriorityQueue<>(); //implemented as a min-heap, the compareTo method is called with each addition
-        HashMap<MapNode,MapNode> parentMap = new HashMap<>();
-        HashSet<MapNode> visited = new HashSet<>();
-        //so we can re-initialize if needed, all nodes in a weighted graph using Dikstra and A* must start at infinity
-        for (MapNode nodeToInitialize : pointNodeMap.values()){
-            nodeToInitialize.setDistance(Double.POSITIVE_INFINITY);
-            nodeToInitialize.setActualDistance(Double.POSITIVE_INFINITY);
+        CompactGraph graph = freeze();
+        RouteCache cache = routeCache;
+        if (cache == null) {
+            return search(graph, start, goal, algorithm, nodeSearched, stats);
         }
-        //initialize start of our procedure
-        startNode.setActualDistance(0.0);//remember the start has no weight!
-        startNode.setDistance(0.0);
-        pq.add(startNode); //we want to add the start  to queue to begin algorithm
-        MapNode currNode = null; //establish a node that will be used for traversing the graph
-        //while there are nodesi n queue
-        while(!pq.isEmpty()) {
-            currNode = pq.remove();
-            nodeSearched.accept(currNode.getLocation()); //for visualization
-            //if it has not been visited
-            if(!visited.contains(currNode)) {
-                visited.add(currNode);
-                //if it is the end, break out and reconstruct the path, otherwise continue to creating set
-                if (currNode.equals(endNode)) //to stop the while loop
-                    break; //done, leave function
-                visitAStar(visited, currNode, goal, parentMap, pq);
-            }
+        boolean[] searched = new boolean[1];
+        Route route = cache.get(graph, graph.indexOf(start), graph.indexOf(goal), algorithm, () -> {
+            searched[0] = true;
+            return search(graph, start, goal, algorithm, nodeSearched, stats);
+        });
+        if (stats != null && !searched[0]) {
+            stats.start();
+            stats.stop(route != null);
         }
-        if (!currNode.equals(endNode)) {
-            System.out.println("No path found from " +start+ " to " + goal);
-            return null;
+        return route;
+    }
+
+    // Run a search of findRoute, recording it in the SearchMetrics
+    private Route search(CompactGraph graph, GeographicPoint start, GeographicPoint goal,
+                         SearchAlgorithm algorithm, Consumer<GeographicPoint> nodeSearched, SearchStats stats)
+    {
+        SearchMetrics recorder = metrics;
+        if (stats == null && recorder != null) {
+            stats = new SearchStats();
         }
-        System.out.println("Nodes Visited A Star: "+visited.size());
-        //return the reconstructed path
-        return reconstructPath(parentMap, startNode, endNode);
-    }
-
-    //Refactoring a big piece of a function into this smaller function:
-    // Steps
-    // 1. copy paste code, give it a function name of meaning
-    // 2. Enter function parameters as needed to satisfy errors
-    // 3. Call the new function in the old function. Done
-    public void visitAStar(HashSet<MapNode> visited, MapNode currNode, GeographicPoint goal,
-                           HashMap<MapNode, MapNode> parentMap, PriorityQueue<MapNode> pq){
-        //now we make our edge list
-        Set<MapEdge> currNodeEdges = currNode.getEdges();
-        //for each edge connected to the currNode
-        for (MapEdge edge : currNodeEdges) {
-            //get the neighbor at other end of edge
-            MapNode aNeighbor = edge.getOtherNode(currNode);
-            //if the neighbor has not bee visited, calculate distances
-            if (!visited.contains(aNeighbor)){
-                //this is where A* may be different
-                //update aNeighbor's distance:
-                //with the currNode's weighted distance, and the edge's length to the neighbor being looked at
-                double neighborDistFromCurr = currNode.getActualDistance() + edge.getLength() ;
-                //distance from aNeighbor to the goal, this is give by the .distance() method
-                double neighborToGoal = aNeighbor.getLocation().distance(goal);
-                //the formal distance + the heuristic distance calculated by neighborToGoal
-                //if this distance is less than the neighbor's, we update aNeighbor's distance, and add it to parent map
-                //so we can reach it, and add aNeighbor to the queue
-                if (neighborToGoal+neighborDistFromCurr < aNeighbor.getDistance()) {
-                    aNeighbor.setDistance(neighborToGoal+neighborDistFromCurr);
-                    aNeighbor.setActualDistance(neighborDistFromCurr);
-                    parentMap.put(aNeighbor, currNode);
-                    pq.add(aNeighbor); //arbitrary added to queue data structure
-                }
-            }
+        SearchContext ctx = graph.context();
+        Route route;
+        switch (algorithm) {
+            case BFS:
+                route = graph.bfsRoute(start, goal, nodeSearched, ctx, stats);
+                break;
+            case DIJKSTRA:
+                route = graph.searchRoute(start, goal, nodeSearched, ctx, heapType, null, stats);
+                break;
+            case A_STAR:
+                route = graph.searchRoute(start, goal, nodeSearched, ctx, heapType, heuristic(graph), stats);
+                break;
+            case BIDIRECTIONAL_DIJKSTRA:
+                route = graph.bidirectionalRoute(start, goal, nodeSearched, ctx, null, heapType, stats);
+                break;
+            case CONTRACTION_HIERARCHY:
+                route = contractionHierarchy().searchRoute(start, goal, nodeSearched, heapType, stats);
+                break;
+            default:
+                route = graph.bidirectionalRoute(start, goal, nodeSearched, ctx, heuristic(graph), heapType, stats);
+                break;
+        }
+        if (recorder != null) {
+            recorder.record(algorithm, stats);
+        }
+        return route;
+    }
+
+    /** Find the fastest route from start to goal with A* search, driving
+     * each road at the speed the profile gives its road class at the time
+     * of day it is reached.  Profiles can be switched from one call to the
+     * next; the frozen graph keeps the edge times of each.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param profile The speeds of the roads
+     * @param departureSeconds The time of departure, in seconds from
+     *   midnight; profile.travelSeconds(route, departureSeconds) gives the
+     *   travel time of the route found.  While a RouteCache is set, a
+     *   time dependent route is shared by the departures in the same
+     *   RouteCache.DEPARTURE_BUCKET
+     * @param nodeSearched Hook for visualization
+     * @return The route, or null if there is none
+     */
+    public Route fastestRoute(GeographicPoint start, GeographicPoint goal, WeightProfile profile,
+                              double departureSeconds, Consumer<GeographicPoint> nodeSearched)
+    {
+        if (profile == null)
+            throw new NullPointerException("profile");
+        if (!checkPoints(start, goal)) return null;
+        CompactGraph graph = freeze();
+        RouteCache cache = routeCache;
+        if (cache == null) {
+            return graph.fastestRoute(start, goal, profile, departureSeconds, nodeSearched, graph.context(), heapType);
+        }
+        return cache.get(graph, graph.indexOf(start), graph.indexOf(goal), SearchAlgorithm.A_STAR, profile,
+                departureSeconds, () -> graph.fastestRoute(start, goal, profile, departureSeconds, nodeSearched,
+                        graph.context(), heapType));
+    }
+
+    /** Find the fastest route from start to goal, leaving at midnight
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param profile The speeds of the roads
+     * @return The route, or null if there is none
+     */
+    public Route fastestRoute(GeographicPoint start, GeographicPoint goal, WeightProfile profile)
+    {
+        return fastestRoute(start, goal, profile, 0, (x) -> {});
+    }
+
+    /** Find up to k shortest loopless paths from start to goal, to offer
+     * alternative routes.  The first path is the shortest path.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param k The number of paths wanted
+     * @return The paths, shortest first, each a list of intersections
+     *   including start and goal; null if start or goal is not in the
+     *   graph, and empty if there is no path
+     */
+    public List<List<GeographicPoint>> kShortestPaths(GeographicPoint start, GeographicPoint goal, int k) {
+        if (!checkPoints(start, goal)) return null;
+        return freeze().kShortestPaths(start, goal, k);
+    }
+
+    /** Find up to k shortest loopless paths from start to goal, as the
+     * edges they follow
+     * @return The routes, shortest first; null if start or goal is not in
+     *   the graph, and empty if there is no path */
+    public List<Route> kShortestRoutes(GeographicPoint start, GeographicPoint goal, int k) {
+        if (!checkPoints(start, goal)) return null;
+        return freeze().kShortestRoutes(start, goal, k);
+    }
+
+    /** Find the path from start to goal using the contraction hierarchy
+     * of this graph.  The first call preprocesses the graph, later calls
+     * only search a small part of it.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> contractionHierarchySearch(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return contractionHierarchySearch(start, goal, temp);
+    }
+
+    public List<GeographicPoint> contractionHierarchySearch(GeographicPoint start,
+                                                            GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return pathOf(findRoute(start, goal, SearchAlgorithm.CONTRACTION_HIERARCHY, nodeSearched, null));
+    }
+
+    /** Find the intersection closest to a location, for example to snap
+     * a raw latitude/longitude from a request onto the graph.
+     *
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @return The closest intersection, or null if the graph is empty
+     */
+    public GeographicPoint nearestVertex(double lat, double lon)
+    {
+        CompactGraph graph = freeze();
+        int v = graph.spatialIndex().nearestVertex(lat, lon);
+        return v < 0 ? null : graph.getPoint(v);
+    }
+
+    /** Snap a location onto the closest point of any road.  The result can
+     * be passed to route() to start or end a route mid-block.
+     *
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @return The closest point on a road, or null if the graph has no roads
+     */
+    public RoadSnap nearestSegment(double lat, double lon)
+    {
+        return freeze().spatialIndex().nearestSegment(lat, lon);
+    }
+
+    /** Find the shortest route between two points snapped onto roads
+     *
+     * @param from Where the route starts, from nearestSegment()
+     * @param to Where the route ends, from nearestSegment()
+     * @return The snapped start, the intersections passed and the snapped
+     *   end, or null if there is no route
+     * @throws IllegalArgumentException If a snap was made before the graph
+     *   last changed
+     */
+    public List<GeographicPoint> route(RoadSnap from, RoadSnap to)
+    {
+        if (from == null || to == null)
+            throw new NullPointerException("Cannot find route from or to null location");
+        return freeze().route(from, to, heapType);
+    }
+
+    /** Find every intersection whose road distance from origin is at most
+     * maxKm, for example to draw the area a depot can cover.
+     *
+     * @param origin The location to measure from
+     * @param maxKm The distance limit in km
+     * @return The intersections reached, with their distances
+     * @throws IllegalArgumentException If origin is not in the graph
+     */
+    public Isochrone reachableWithin(GeographicPoint origin, double maxKm)
+    {
+        CompactGraph graph = freeze();
+        int start = graph.indexOf(origin);
+        if (start < 0) {
+            throw new IllegalArgumentException("Point " + origin + " is not in graph");
         }
+        return graph.reachableWithin(start, maxKm, heapType);
     }
 
+    /** Compute the length of the shortest path from every source to every
+     * target, with one search per source that stops as soon as all the
+     * targets are settled.  The searches run in parallel on the common
+     * ForkJoinPool.
+     *
+     * @param sources The starting locations
+     * @param targets The goal locations
+     * @return matrix[i][j] is the distance in km from sources.get(i) to
+     *   targets.get(j), or infinity if there is no path
+     * @throws IllegalArgumentException If any point is not in the graph
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets)
+    {
+        return distanceMatrix(sources, targets, ForkJoinPool.commonPool());
+    }
 
-    //refactored out
-    private List<GeographicPoint> reconstructPath(HashMap<MapNode,
-            MapNode> parentMap, MapNode start, MapNode goal) {
-        LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
-        MapNode current = goal;
+    /** Compute a distance matrix, running the searches on the given executor.
+     *
+     * @param sources The starting locations
+     * @param targets The goal locations
+     * @param executor Runs one search task per source
+     * @return matrix[i][j] is the distance in km from sources.get(i) to
+     *   targets.get(j), or infinity if there is no path
+     * @throws IllegalArgumentException If any point is not in the graph
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets,
+                                     Executor executor)
+    {
+        CompactGraph graph = freeze();
+        int[] sourceIds = vertexIds(graph, sources);
+        int[] targetIds = vertexIds(graph, targets);
+        double[][] matrix = new double[sourceIds.length][targetIds.length];
+        HeapType heap = heapType; // the same queue for every row
+
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[sourceIds.length];
+        for (int i = 0; i < sourceIds.length; i++) {
+            final int row = i;
+            // each worker thread searches with its own SearchContext
+            tasks[i] = CompletableFuture.runAsync(() -> graph.distancesTo(sourceIds[row], targetIds,
+                    graph.context(), heap, matrix[row]), executor);
+        }
+        CompletableFuture.allOf(tasks).join();
+        return matrix;
+    }
+
+    /** Find the shortest routes of many start/goal pairs, for batch jobs.
+     * The pairs with the same start share one search, and the starts are
+     * searched in an order that keeps nearby ones together.  The searches
+     * run in parallel on the common ForkJoinPool.
+     *
+     * @param pairs The queries, each a start and a goal location
+     * @param callback Receives the route of each pair as soon as it is
+     *   found, from the searching threads, in no particular order.  The
+     *   routes are not kept, so any number of pairs can be routed.
+     * @throws IllegalArgumentException If any point is not in the graph
+     */
+    public void routeBatch(List<GeographicPoint[]> pairs, RouteCallback callback)
+    {
+        routeBatch(pairs, callback, ForkJoinPool.commonPool());
+    }
+
+    /** Find the shortest routes of many start/goal pairs on the given pool.
+     *
+     * @param pairs The queries, each a start and a goal location
+     * @param callback Receives the route of each pair, or null if it has
+     *   none, with the position of the pair in pairs
+     * @param pool The pool to search on
+     * @throws IllegalArgumentException If any point is not in the graph
+     */
+    public void routeBatch(List<GeographicPoint[]> pairs, RouteCallback callback, ForkJoinPool pool)
+    {
+        CompactGraph graph = freeze();
+        List<GeographicPoint> starts = new ArrayList<>(pairs.size());
+        List<GeographicPoint> goals = new ArrayList<>(pairs.size());
+        for (GeographicPoint[] pair : pairs) {
+            starts.add(pair[0]);
+            goals.add(pair[1]);
+        }
+        graph.routeBatch(vertexIds(graph, starts), vertexIds(graph, goals), heuristic(graph), heapType,
+                pool, callback);
+    }
 
-        while (!current.equals(start)) {
-            path.addFirst(current.getLocation());
-            current = parentMap.get(current);
+    // Look up the vertex id of every point
+    private static int[] vertexIds(CompactGraph graph, List<GeographicPoint> points)
+    {
+        int[] ids = new int[points.size()];
+        int i = 0;
+        for (GeographicPoint p : points) {
+            ids[i] = graph.indexOf(p);
+            if (ids[i] < 0) {
+                throw new IllegalArgumentException("Point " + p + " is not in graph");
+            }
+            i++;
         }
-        // add start
-        path.addFirst(start.getLocation());
-        return path;
+        return ids;
     }
 
     //refactored out function for dijkstra algorithm
@@ -377,13 +813,11 @@ public class MapGraph {
         // Setup - check validity of inputs
         if (start == null || goal == null)
             throw new NullPointerException("Cannot find route from or to null node");
-        MapNode startNode = pointNodeMap.get(start);
-        MapNode endNode = pointNodeMap.get(goal);
-        if (startNode == null) {
+        if (nodeIds.get(start) < 0) {
             System.err.println("Start node " + start + " does not exist");
             return false;
         }
-        if (endNode == null) {
+        if (nodeIds.get(goal) < 0) {
             System.err.println("End node " + goal + " does not exist");
             return false;
         }
@@ -401,33 +835,80 @@ public class MapGraph {
         GeographicPoint testEnd = new GeographicPoint(8.0, -1.0);
 
         System.out.println("Test 1 using simpletest: Dijkstra should be 9 and AStar should be 5");
-        List<GeographicPoint> testroute = simpleTestMap.dijkstra(testStart,testEnd);
-        List<GeographicPoint> testroute2 = simpleTestMap.aStarSearch(testStart,testEnd);
+        List<GeographicPoint> testroute = visit(simpleTestMap, testStart, testEnd, SearchAlgorithm.DIJKSTRA);
+        List<GeographicPoint> testroute2 = visit(simpleTestMap, testStart, testEnd, SearchAlgorithm.A_STAR);
 
 
         MapGraph testMap = new MapGraph();
         GraphLoader.loadRoadMap("data/maps/utc.map", testMap);
+        testMap.setSearchMetrics(new SearchMetrics());
 
         // A very simple test using real data
         testStart = new GeographicPoint(32.869423, -117.220917);
         testEnd = new GeographicPoint(32.869255, -117.216927);
         System.out.println("Test 2 using utc: Dijkstra should be 13 and AStar should be 5");
-        testroute = testMap.dijkstra(testStart,testEnd);
-        testroute2 = testMap.aStarSearch(testStart,testEnd);
+        testroute = visit(testMap, testStart, testEnd, SearchAlgorithm.DIJKSTRA);
+        testroute2 = visit(testMap, testStart, testEnd, SearchAlgorithm.A_STAR);
 
 
         // A slightly more complex test using real data
         testStart = new GeographicPoint(32.8674388, -117.2190213);
         testEnd = new GeographicPoint(32.8697828, -117.2244506);
         System.out.println("Test 3 using utc: Dijkstra should be 37 and AStar should be 10");
-        testroute = testMap.dijkstra(testStart,testEnd);
-        testroute2 = testMap.aStarSearch(testStart,testEnd);
-
-
-
-
-
+        testroute = visit(testMap, testStart, testEnd, SearchAlgorithm.DIJKSTRA);
+        testroute2 = visit(testMap, testStart, testEnd, SearchAlgorithm.A_STAR);
+
+        // Test 3 again with the ALT heuristic: A* with 8 landmarks should
+        // visit fewer nodes than with straight line distance
+        System.out.println("Test 4 using utc and 8 landmarks: AStar should be at most 10");
+        testMap.useLandmarks(Landmarks.compute(testMap.freeze(), 8));
+        testroute2 = visit(testMap, testStart, testEnd, SearchAlgorithm.A_STAR);
+        testMap.useLandmarks(null);
+
+        // Many threads routing on the same graph at once
+        System.out.println("Test 5 using utc: 8 threads repeating test 3 should all get the same route");
+        final MapGraph sharedMap = testMap;
+        final GeographicPoint from = testStart;
+        final GeographicPoint to = testEnd;
+        final List<GeographicPoint> expected = testroute;
+        Thread[] threads = new Thread[8];
+        final boolean[] same = new boolean[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int id = i;
+            threads[i] = new Thread(() -> {
+                CompactGraph compact = sharedMap.freeze();
+                SearchContext ctx = compact.context();
+                int s = compact.indexOf(from);
+                int t = compact.indexOf(to);
+                boolean ok = true;
+                for (int q = 0; q < 1000; q++) {
+                    compact.shortestPath(s, t, (x) -> {}, ctx, null, CompactGraph.DEFAULT_HEAP);
+                    ok &= expected.equals(compact.reconstructPath(ctx, s, t));
+                }
+                same[id] = ok;
+            });
+        }
+        try {
+            for (Thread t : threads) t.start();
+            for (Thread t : threads) t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean allSame = true;
+        for (boolean ok : same) allSame &= ok;
+        System.out.println("All threads got the same route: " + allSame);
 
+        System.out.println("Searches on utc:");
+        System.out.print(testMap.getSearchMetrics().toCsv());
     }
 
+    // Run a search for main() and print the number of vertices it settled
+    private static List<GeographicPoint> visit(MapGraph map, GeographicPoint start,
+                                               GeographicPoint goal, SearchAlgorithm algorithm)
+    {
+        SearchStats stats = new SearchStats();
+        Route route = map.findRoute(start, goal, algorithm, (x) -> {}, stats);
+        System.out.println("Nodes Visited " + algorithm + ": " + stats.getSettled());
+        return route == null ? null : route.getPath();
+    }
 }
\ No newline at end of file
@@ -4,38 +4,26 @@
 package roadgraph;
 
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import geography.GeographicPoint;
 
-import static java.lang.Double.*;
-
 /**
  * @author UCSD MOOC development team
  *
  * Class representing a vertex (or node) in our MapGraph
  *
  */
-class MapNode implements Comparable<MapNode> //when implementing comparable, your comparing an object against another
-{                                                                                //of the same kind
-    /** The list of edges out of this node */
-    private HashSet<MapEdge> edges;
+class MapNode
+{
+    /** The edges out of this node, in the order they were added, so a graph
+     *  loaded from the same file is always frozen the same way */
+    private LinkedHashSet<MapEdge> edges;
 
     /** the latitude and longitude of this node */
     private GeographicPoint location;
 
-    private double actualDistance; //starts at infinity.
-
-    private double predictedDistance;
-
-    public double getDistance() {
-        return predictedDistance;
-    }
-
-    public void setDistance(double predictedDistance) {
-        this.predictedDistance = predictedDistance;
-    }
-
     /**
      * Create a new MapNode at a given Geographic location
      * @param loc the location of this node
@@ -43,10 +31,7 @@ class MapNode implements Comparable<MapNode> //when implementing comparable, you
     MapNode(GeographicPoint loc)
     {
         this.location = loc;
-        this.edges = new HashSet<>();
-        //we need this
-        this.actualDistance = 0.0;//init infinity, dumb this makes no sense
-        this.predictedDistance = 0.0;
+        this.edges = new LinkedHashSet<>();
     }
 
     /**
@@ -89,23 +74,6 @@ class MapNode implements Comparable<MapNode> //when implementing comparable, you
         return edges;
     }
 
-    public Double getActualDistance() {
-        return actualDistance;
-    }
-
-    public void setActualDistance(Double actualDistance) {
-        this.actualDistance = actualDistance;
-    }
-
-    @Override
-    //DEFAULT COMPARETO METHOD IN JAVA IS IMPLEMENTED AS MIN HEAP!!!!
-    //if a negative value is returned, it knows to bubble up the value until it is inserted
-    //in a position where it is smaller than all of its children, but  larger than all of its parents.
-    public int compareTo(MapNode otherNode) {
-        //you need to cast it as a double so you can treat this as the expected type Double when comparing
-        return ((Double)this.getDistance()).compareTo(otherNode.getDistance());
-    }
-
 
     @Override
     public boolean equals(Object o)
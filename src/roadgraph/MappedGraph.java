@@ -0,0 +1,228 @@
+package roadgraph;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+import geography.PointIndex;
+
+/**
+ * A road graph searched in place in a memory mapped GraphSnapshot, so a
+ * map can be routed on without loading it onto the heap first.
+ *
+ * The intersections, the roads and the search index of the snapshot are
+ * read straight from the mapped buffer on every visit: the roads out of
+ * each intersection are stored together, so they are a CSR adjacency
+ * already, with the index giving the first road of each.  Locations are
+ * looked up by binary search of the index's table of PointIndex keys.
+ * The only heap a search uses is the SearchContext of its thread, the
+ * same as on a CompactGraph, and the path it returns.
+ *
+ * The vertices and edges are numbered in the order of the snapshot, which
+ * is the order GraphLoader adds them to a MapGraph, not the order of the
+ * MapGraph's CompactGraph.  Any number of threads may search at once.
+ *
+ * @see util.GraphSnapshot#mapRoadMap(String)
+ */
+public class MappedGraph {
+    /** Bytes in a (long key, int vertex) record of the location table */
+    private static final int KEY = 12;
+
+    private final ByteBuffer buffer;
+    private final int vertices;
+    private final int edges;
+    /** Where the (double lat, double lon) of each vertex starts */
+    private final int pointsAt;
+    /** Where the road records start, and their size */
+    private final int roadsAt;
+    private final int roadBytes;
+    /** Where the int offset of the first road of each vertex starts, and one more */
+    private final int offsetsAt;
+    /** Where the location table starts, sorted by key */
+    private final int keysAt;
+
+    private final ThreadLocal<SearchContext> contexts;
+
+    /**
+     * View a snapshot's sections as a graph.  Called by GraphSnapshot, which
+     * knows the layout.
+     * @param buffer The mapped snapshot; it is not changed
+     * @param vertices The number of intersections
+     * @param pointsAt The position of their locations
+     * @param edges The number of roads
+     * @param roadsAt The position of the road records, each of which starts
+     *   with int from, int to, double length
+     * @param roadBytes The size of a road record
+     * @param offsetsAt The position of the int index of each vertex's first road
+     * @param keysAt The position of the location table
+     */
+    public MappedGraph(ByteBuffer buffer, int vertices, int pointsAt, int edges, int roadsAt,
+                       int roadBytes, int offsetsAt, int keysAt) {
+        this.buffer = buffer;
+        this.vertices = vertices;
+        this.pointsAt = pointsAt;
+        this.edges = edges;
+        this.roadsAt = roadsAt;
+        this.roadBytes = roadBytes;
+        this.offsetsAt = offsetsAt;
+        this.keysAt = keysAt;
+        this.contexts = ThreadLocal.withInitial(() -> new SearchContext(vertices));
+    }
+
+    /** @return The number of vertices */
+    public int getNumVertices() {
+        return vertices;
+    }
+
+    /** @return The number of edges */
+    public int getNumEdges() {
+        return edges;
+    }
+
+    /**
+     * @param v A vertex id
+     * @return The location of vertex v
+     */
+    public GeographicPoint getPoint(int v) {
+        return new GeographicPoint(lat(v), lon(v));
+    }
+
+    /**
+     * @param location A location
+     * @return The vertex at that location, or -1 if there is none
+     */
+    public int indexOf(GeographicPoint location) {
+        double lat = location.getX();
+        double lon = location.getY();
+        long key = PointIndex.key(lat, lon);
+        // the first record with this key
+        int lo = 0;
+        int hi = vertices;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buffer.getLong(keysAt + mid * KEY) < key) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        // locations closer than the key's resolution share it
+        for (int i = lo; i < vertices && buffer.getLong(keysAt + i * KEY) == key; i++) {
+            int v = buffer.getInt(keysAt + i * KEY + 8);
+            if (Double.doubleToLongBits(lat(v)) == Double.doubleToLongBits(lat)
+                    && Double.doubleToLongBits(lon(v)) == Double.doubleToLongBits(lon)) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /** Find the shortest path from start to goal using Dijkstra's algorithm
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched Hook for visualization, or null
+     * @return The intersections of the path, including start and goal, or
+     *   null if either is not in the graph or there is no path
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal,
+                                          Consumer<GeographicPoint> nodeSearched) {
+        return search(start, goal, nodeSearched, false);
+    }
+
+    /** Find the shortest path from start to goal using A* search, with the
+     * straight line distance to the goal as the heuristic
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched Hook for visualization, or null
+     * @return The intersections of the path, including start and goal, or
+     *   null if either is not in the graph or there is no path
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched) {
+        return search(start, goal, nodeSearched, true);
+    }
+
+    private List<GeographicPoint> search(GeographicPoint start, GeographicPoint goal,
+                                         Consumer<GeographicPoint> nodeSearched, boolean aStar) {
+        int s = indexOf(start);
+        int t = indexOf(goal);
+        if (s < 0 || t < 0) return null;
+        SearchContext ctx = contexts.get();
+        shortestPath(s, t, nodeSearched, ctx, aStar, CompactGraph.DEFAULT_HEAP);
+        return ctx.isSettled(t) ? path(ctx, s, t) : null;
+    }
+
+    /**
+     * Run Dijkstra, or A* with the straight line heuristic, from s until t
+     * is settled or nothing more is reachable.  The distances and parent
+     * edges are left in ctx.
+     * @return The number of vertices settled
+     */
+    int shortestPath(int s, int t, Consumer<GeographicPoint> nodeSearched, SearchContext ctx,
+                     boolean aStar, HeapType heapType) {
+        IntPriorityQueue pq = ctx.heap(heapType);
+        double goalLat = lat(t);
+        double goalLon = lon(t);
+
+        ctx.begin();
+        ctx.update(s, 0.0, -1);
+        pq.add(s, 0.0);
+        int visited = 0;
+        while (!pq.isEmpty()) {
+            int u = pq.poll();
+            if (ctx.isSettled(u)) continue; // stale entry of a lazy queue
+            ctx.settle(u);
+            visited++;
+            if (nodeSearched != null) nodeSearched.accept(getPoint(u));
+            if (u == t) break;
+            double du = ctx.distance(u);
+            int end = offset(u + 1);
+            for (int e = offset(u); e < end; e++) {
+                int road = roadsAt + e * roadBytes;
+                int w = buffer.getInt(road + 4);
+                if (ctx.isSettled(w)) continue;
+                double d = du + buffer.getDouble(road + 8);
+                if (d < ctx.distance(w)) {
+                    ctx.update(w, d, e);
+                    pq.add(w, aStar ? d + GeographicPoint.distance(lat(w), lon(w), goalLat, goalLon) : d);
+                }
+            }
+        }
+        return visited;
+    }
+
+    // The intersections from s to t, following the parent edges in ctx
+    private List<GeographicPoint> path(SearchContext ctx, int s, int t) {
+        int count = 1;
+        for (int v = t; v != s; v = source(ctx.parent(v))) {
+            count++;
+        }
+        GeographicPoint[] path = new GeographicPoint[count];
+        for (int v = t; ; v = source(ctx.parent(v))) {
+            path[--count] = getPoint(v);
+            if (v == s) break;
+        }
+        return Arrays.asList(path);
+    }
+
+    private double lat(int v) {
+        return buffer.getDouble(pointsAt + 16 * v);
+    }
+
+    private double lon(int v) {
+        return buffer.getDouble(pointsAt + 16 * v + 8);
+    }
+
+    private int offset(int v) {
+        return buffer.getInt(offsetsAt + 4 * v);
+    }
+
+    private int source(int e) {
+        return buffer.getInt(roadsAt + e * roadBytes);
+    }
+}
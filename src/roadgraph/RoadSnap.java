@@ -0,0 +1,69 @@
+package roadgraph;
+
+import geography.GeographicPoint;
+
+/**
+ * A location snapped onto the road network: the point on an edge of a
+ * CompactGraph that is closest to some query location.
+ *
+ * A snap acts as a virtual intersection in the middle of the edge, so a
+ * route can start or end mid-block (see CompactGraph.route).
+ */
+public class RoadSnap {
+    private final CompactGraph graph;
+    private final int edge;
+    private final double fraction;
+    private final double latitude;
+    private final double longitude;
+    private final double distance;
+
+    RoadSnap(CompactGraph graph, int edge, double fraction,
+             double latitude, double longitude, double distance) {
+        this.graph = graph;
+        this.edge = edge;
+        this.fraction = fraction;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.distance = distance;
+    }
+
+    /** @return The graph the edge id refers to */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /** @return The id of the edge the location was snapped to */
+    public int getEdge() {
+        return edge;
+    }
+
+    /** @return How far along the edge the snapped point is, from 0 (its start) to 1 (its end) */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /** @return The intersection the edge starts from */
+    public GeographicPoint getFrom() {
+        return graph.getPoint(graph.tail(edge));
+    }
+
+    /** @return The intersection the edge leads to */
+    public GeographicPoint getTo() {
+        return graph.getPoint(graph.target(edge));
+    }
+
+    /** @return The snapped point on the edge */
+    public GeographicPoint getLocation() {
+        return new GeographicPoint(latitude, longitude);
+    }
+
+    /** @return The distance in km from the query location to the snapped point */
+    public double getDistance() {
+        return distance;
+    }
+
+    @Override
+    public String toString() {
+        return "RoadSnap[" + getFrom() + " -> " + getTo() + " at " + fraction + "]";
+    }
+}
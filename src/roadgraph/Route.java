@@ -0,0 +1,122 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * A path found by a search on a CompactGraph, held as the edges it follows.
+ *
+ * Knowing the edges, and not only the intersections, means the shape of
+ * each road can be decoded straight from the graph's GeometryStore when the
+ * route is drawn, with no lookups, and where several roads join the same
+ * two intersections the one drawn is the one the search took.
+ */
+public class Route {
+    private final CompactGraph graph;
+    private final int start;
+    private final int[] edges;
+    private final double length;
+
+    /**
+     * @param graph The graph the edges belong to
+     * @param start The vertex the route starts from
+     * @param edges The edge slots followed, in order from start
+     */
+    Route(CompactGraph graph, int start, int[] edges) {
+        this.graph = graph;
+        this.start = start;
+        this.edges = edges;
+        double total = 0;
+        for (int e : edges) {
+            total += graph.length(e);
+        }
+        this.length = total;
+    }
+
+    /** @return The graph this route is on */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /** @return The location the route starts from */
+    public GeographicPoint getStart() {
+        return graph.getPoint(start);
+    }
+
+    /** @return The location the route ends at */
+    public GeographicPoint getGoal() {
+        return edges.length == 0 ? getStart() : graph.getPoint(graph.target(edges[edges.length - 1]));
+    }
+
+    /** @return The number of edges followed */
+    public int getNumEdges() {
+        return edges.length;
+    }
+
+    /**
+     * @param i The position of an edge on the route, from 0
+     * @return The edge slot in the graph
+     */
+    public int getEdge(int i) {
+        return edges[i];
+    }
+
+    /** @return The edge slots followed, in order */
+    public int[] getEdges() {
+        return edges.clone();
+    }
+
+    /** @return The length of the route in km */
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * @return The intersections of the route, including the start and
+     *   the goal, as the searches of MapGraph return them
+     */
+    public List<GeographicPoint> getPath() {
+        List<GeographicPoint> path = new ArrayList<>(edges.length + 1);
+        path.add(graph.getPoint(start));
+        for (int e : edges) {
+            path.add(graph.getPoint(graph.target(e)));
+        }
+        return path;
+    }
+
+    /**
+     * Get every point along the route, for drawing it: the intersections
+     * with the shape of the road between each two of them.
+     * @return The points, in order from the start
+     */
+    public List<GeographicPoint> getGeometry() {
+        GeometryStore geometry = graph.geometry();
+        int count = edges.length + 1;
+        for (int e : edges) {
+            count += geometry.pointCount(e);
+        }
+        List<GeographicPoint> points = new ArrayList<>(count);
+        points.add(graph.getPoint(start));
+        for (int e : edges) {
+            int u = graph.tail(e);
+            geometry.decode(e, graph.getLatitude(u), graph.getLongitude(u), points);
+            points.add(graph.getPoint(graph.target(e)));
+        }
+        return points;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Route)) return false;
+        Route other = (Route) o;
+        return graph == other.graph && start == other.start && Arrays.equals(edges, other.edges);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * start + Arrays.hashCode(edges);
+    }
+}
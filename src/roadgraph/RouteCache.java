@@ -0,0 +1,237 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A size-bounded cache of the routes MapGraph.findRoute has found, for
+ * workloads where a few start/goal pairs make up much of the traffic.
+ *
+ * A route is cached under its start and goal vertex, the search that found
+ * it and the CompactGraph it was found on, so once the graph changes no
+ * old route can be returned.  Fastest routes are also keyed by their
+ * WeightProfile, and for a time dependent profile by the DEPARTURE_BUCKET
+ * of the day they leave in: queries leaving within the same bucket share
+ * the route found for the first of them.  "No route" answers are cached too, since
+ * they cost a search of everything reachable.  MapGraph also clears its
+ * cache whenever a vertex or edge is added.
+ *
+ * Hits take no lock.  The routes are held in a ConcurrentHashMap, and the
+ * recency of an entry is an approximate LRU stamp: a clock that only
+ * misses advance, copied into the entry when a hit finds it older.  So
+ * threads hitting the same hot pair only read shared memory, instead of
+ * taking turns to move it to the end of an access ordered list.
+ *
+ * When a miss takes the cache over its limit, one thread at a time drops
+ * the least recently stamped EVICT_FRACTION of the entries, so the cost
+ * of finding them is shared among many misses.  Entries stamped at the
+ * same clock tick are equally recent.  The searches for misses run
+ * outside any lock; two threads missing the same key at once both
+ * search, and the second result replaces the first.
+ */
+public class RouteCache {
+    /** Each eviction drops this fraction of the entries (1/8) */
+    private static final int EVICT_SHIFT = 3;
+    /** Time dependent routes leaving within this many seconds of the day share an entry */
+    public static final int DEPARTURE_BUCKET = 5 * 60;
+
+    private final ConcurrentHashMap<Key, Entry> entries;
+    private final int maxEntries;
+    /** Advanced by every miss; the stamp of an entry is its value when last used */
+    private final AtomicLong clock = new AtomicLong();
+    /** Held while evicting, so only one thread scans the entries */
+    private final ReentrantLock evicting = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // The key of a cached route
+    private static final class Key {
+        final CompactGraph graph;
+        final int start;
+        final int goal;
+        final SearchAlgorithm algorithm;
+        final WeightProfile profile;
+        final int departure;
+
+        Key(CompactGraph graph, int start, int goal, SearchAlgorithm algorithm, WeightProfile profile,
+            int departure) {
+            this.graph = graph;
+            this.start = start;
+            this.goal = goal;
+            this.algorithm = algorithm;
+            this.profile = profile;
+            this.departure = departure;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return graph == other.graph && start == other.start && goal == other.goal
+                    && algorithm == other.algorithm && profile == other.profile
+                    && departure == other.departure;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = System.identityHashCode(graph);
+            h = 31 * h + start;
+            h = 31 * h + goal;
+            h = 31 * h + algorithm.ordinal();
+            h = 31 * h + System.identityHashCode(profile);
+            return 31 * h + departure;
+        }
+    }
+
+    // A cached route, null for "no route", and when it was last used
+    private static final class Entry {
+        final Route route;
+        volatile long stamp;
+
+        Entry(Route route, long stamp) {
+            this.route = route;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Create an empty cache
+     * @param maxEntries The most routes to keep
+     */
+    public RouteCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new ConcurrentHashMap<>(Math.min(maxEntries, 1 << 16));
+    }
+
+    /**
+     * Get a route from the cache, or search for it and cache it
+     * @param graph The graph of the route
+     * @param start The start vertex
+     * @param goal The goal vertex
+     * @param algorithm The search
+     * @param search Finds the route on a miss; may return null
+     * @return The route, or null if there is none
+     */
+    Route get(CompactGraph graph, int start, int goal, SearchAlgorithm algorithm, Supplier<Route> search) {
+        return get(new Key(graph, start, goal, algorithm, null, 0), search);
+    }
+
+    /**
+     * Get a fastest route from the cache, or search for it and cache it
+     * @param graph The graph of the route
+     * @param start The start vertex
+     * @param goal The goal vertex
+     * @param algorithm The search
+     * @param profile The speeds the route was found with
+     * @param departure The time of departure, in seconds from midnight;
+     *   only its bucket counts, and only if the profile is time dependent
+     * @param search Finds the route on a miss; may return null
+     * @return The route, or null if there is none
+     */
+    Route get(CompactGraph graph, int start, int goal, SearchAlgorithm algorithm, WeightProfile profile,
+              double departure, Supplier<Route> search) {
+        int bucket = profile.isTimeDependent() ? departureBucket(departure) : 0;
+        return get(new Key(graph, start, goal, algorithm, profile, bucket), search);
+    }
+
+    // The bucket of the day a departure time falls in
+    private static int departureBucket(double departure) {
+        double t = departure % SpeedFunction.DAY;
+        if (t < 0) t += SpeedFunction.DAY;
+        return (int) (t / DEPARTURE_BUCKET);
+    }
+
+    private Route get(Key key, Supplier<Route> search) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.increment();
+            long now = clock.get();
+            if (entry.stamp != now) {
+                entry.stamp = now; // only written once per tick, so hot entries stay read-only
+            }
+            return entry.route;
+        }
+        misses.increment();
+        Route route = search.get();
+        entries.put(key, new Entry(route, clock.incrementAndGet()));
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+        return route;
+    }
+
+    // Drop the least recently used entries until an eighth of the room is free
+    private void evict() {
+        evicting.lock();
+        try {
+            int size = entries.size();
+            if (size <= maxEntries) return; // another thread made room
+            int drop = size - maxEntries + (maxEntries >> EVICT_SHIFT);
+            long[] stamps = new long[size];
+            int n = 0;
+            for (Entry entry : entries.values()) {
+                if (n == stamps.length) break;
+                stamps[n++] = entry.stamp;
+            }
+            Arrays.sort(stamps, 0, n);
+            long cutoff = stamps[Math.min(drop, n) - 1];
+            int dropped = 0;
+            for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+                if (dropped == drop) break;
+                Entry entry = e.getValue();
+                if (entry.stamp <= cutoff && entries.remove(e.getKey(), entry)) {
+                    dropped++;
+                }
+            }
+            evictions.add(dropped);
+        }
+        finally {
+            evicting.unlock();
+        }
+    }
+
+    /** Drop every route */
+    public void clear() {
+        entries.clear();
+    }
+
+    /** @return The number of routes cached */
+    public int size() {
+        return entries.size();
+    }
+
+    /** @return The most routes the cache keeps */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** @return The number of lookups answered from the cache */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return The number of lookups that had to search */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return The number of routes dropped to make room for newer ones */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RouteCache " + size() + "/" + maxEntries + ", hits " + getHits() + ", misses "
+                + getMisses() + ", evictions " + getEvictions();
+    }
+}
@@ -0,0 +1,15 @@
+package roadgraph;
+
+/**
+ * Receives the routes of a batch of queries as they are found (see
+ * MapGraph.routeBatch).  It is called from the threads doing the searches,
+ * possibly several at once, and in no particular order.
+ */
+public interface RouteCallback {
+
+    /**
+     * @param query The position of the query in the batch
+     * @param route The shortest route for it, or null if there is none
+     */
+    void routeFound(int query, Route route);
+}
@@ -0,0 +1,206 @@
+package roadgraph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+import util.LatencyHistogram;
+
+/**
+ * Benchmarks the routing engines on every map in data/maps, so a change to
+ * a search can be checked for regressions against an earlier commit.
+ *
+ * It follows the method of a JMH throughput benchmark, without needing
+ * JMH on the class path.  For each map it picks a seeded random set of
+ * start/goal pairs from getVertices(), keeping only pairs with a route, so
+ * every run of every commit asks the same questions.  Each engine then
+ * runs WARMUP iterations to let the JIT settle, and ITERATIONS measured
+ * ones, where an iteration answers the pairs over and over until
+ * ITERATION_MILLIS have passed.  The throughput is the mean over the
+ * measured iterations with a 99.9% confidence interval (Student's t, as
+ * JMH reports its error); the latency percentiles are over every measured
+ * query.  The vertices settled per query are counted through the
+ * nodeSearched hook, so they are the same on every machine.
+ *
+ * The engines are the searches of MapGraph.findRoute, A* with landmarks
+ * and the contraction hierarchy.
+ *
+ * Run from the project root:
+ *   java roadgraph.RoutingBenchmark [queries] [baseline.csv]
+ * and save the output as a CSV file.  Given the CSV of an earlier run as
+ * baseline, it also prints a line to standard error for every result whose
+ * settled count changed or whose throughput interval lies wholly below
+ * the baseline's.
+ */
+public class RoutingBenchmark {
+    private static final String MAP_DIR = "data/maps";
+    private static final long SEED = 2016;
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 5;
+    private static final long ITERATION_MILLIS = 300;
+    /** Student's t for a two sided 99.9% interval with ITERATIONS - 1 degrees of freedom */
+    private static final double T_999 = 8.610;
+    private static final int LANDMARKS = 8;
+
+    // One way of answering a query
+    private interface Engine {
+        Object route(GeographicPoint start, GeographicPoint goal, Consumer<GeographicPoint> nodeSearched);
+    }
+
+    // Sink for the routes found, so the JIT cannot drop the searches
+    private static int sink;
+
+    public static void main(String[] args) throws IOException {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Map<String, String[]> baseline = args.length > 1 ? readCsv(args[1]) : null;
+
+        File[] files = new File(MAP_DIR).listFiles((dir, name) -> name.endsWith(".map"));
+        if (files == null) {
+            System.err.println("Run from the project root, " + MAP_DIR + " not found");
+            return;
+        }
+        Arrays.sort(files);
+
+        System.out.println("map,engine,queries,ops/s,ops/s error,p50 us,p90 us,p99 us,max us,settled/query");
+        for (File file : files) {
+            MapGraph map = new MapGraph();
+            GraphLoader.loadRoadMap(file.getPath(), map);
+            if (map.getNumVertices() < 2) continue;
+            List<GeographicPoint[]> pairs = randomPairs(map, queries);
+            if (pairs.isEmpty()) continue;
+            Landmarks landmarks = Landmarks.compute(map.freeze(), LANDMARKS);
+            map.contractionHierarchy();
+
+            for (SearchAlgorithm algorithm : SearchAlgorithm.values()) {
+                report(file.getName(), algorithm.toString(), pairs, baseline,
+                        (s, t, c) -> map.findRoute(s, t, algorithm, c, null));
+            }
+            map.useLandmarks(landmarks);
+            report(file.getName(), "A_STAR_LANDMARKS", pairs, baseline,
+                    (s, t, c) -> map.findRoute(s, t, SearchAlgorithm.A_STAR, c, null));
+            map.useLandmarks(null);
+        }
+        if (sink == 42) System.out.println();
+    }
+
+    // Seeded random pairs of vertices with a route between them
+    private static List<GeographicPoint[]> randomPairs(MapGraph map, int queries) {
+        List<GeographicPoint> vertices = new ArrayList<>(map.getVertices());
+        CompactGraph graph = map.freeze();
+        SearchContext ctx = graph.context();
+        Random random = new Random(SEED);
+        List<GeographicPoint[]> pairs = new ArrayList<>(queries);
+        for (int tries = 0; pairs.size() < queries && tries < 10 * queries; tries++) {
+            GeographicPoint start = vertices.get(random.nextInt(vertices.size()));
+            GeographicPoint goal = vertices.get(random.nextInt(vertices.size()));
+            int t = graph.indexOf(goal);
+            graph.shortestPath(graph.indexOf(start), t, (x) -> {}, ctx, null, CompactGraph.DEFAULT_HEAP);
+            if (ctx.isSettled(t)) {
+                pairs.add(new GeographicPoint[] {start, goal});
+            }
+        }
+        return pairs;
+    }
+
+    private static void report(String mapName, String engineName, List<GeographicPoint[]> pairs,
+                               Map<String, String[]> baseline, Engine engine) {
+        long[] settled = new long[1];
+        Consumer<GeographicPoint> counter = (x) -> settled[0]++;
+        for (int i = 0; i < WARMUP; i++) {
+            iteration(engine, pairs, counter, null);
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        double[] throughput = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            throughput[i] = iteration(engine, pairs, counter, latency);
+        }
+        double mean = 0;
+        for (double x : throughput) mean += x;
+        mean /= ITERATIONS;
+        double variance = 0;
+        for (double x : throughput) variance += (x - mean) * (x - mean);
+        double error = T_999 * Math.sqrt(variance / (ITERATIONS - 1) / ITERATIONS);
+
+        // one pass over every pair, so the count does not depend on how
+        // many queries fit in the measured time
+        settled[0] = 0;
+        for (GeographicPoint[] pair : pairs) {
+            engine.route(pair[0], pair[1], counter);
+        }
+        double settledPerQuery = settled[0] / (double) pairs.size();
+
+        System.out.println(String.format(Locale.ROOT, "%s,%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.2f",
+                mapName, engineName, pairs.size(), mean, error, latency.getPercentile(50) / 1000.0,
+                latency.getPercentile(90) / 1000.0, latency.getPercentile(99) / 1000.0,
+                latency.getMax() / 1000.0, settledPerQuery));
+        if (baseline != null) {
+            compare(mapName + "," + engineName, baseline.get(mapName + "," + engineName),
+                    mean, error, settledPerQuery);
+        }
+    }
+
+    // Answer the pairs in turn, starting over at the end, until the time of
+    // an iteration is up, recording each query's latency if latency is not
+    // null.  Returns the queries answered per second.
+    private static double iteration(Engine engine, List<GeographicPoint[]> pairs,
+                                    Consumer<GeographicPoint> counter, LatencyHistogram latency) {
+        long start = System.nanoTime();
+        long end = start + ITERATION_MILLIS * 1000000;
+        long now = start;
+        long count = 0;
+        while (now < end) {
+            GeographicPoint[] pair = pairs.get((int) (count % pairs.size()));
+            Object route = engine.route(pair[0], pair[1], counter);
+            long after = System.nanoTime();
+            if (latency != null) {
+                latency.record(after - now);
+            }
+            sink += route == null ? 0 : 1;
+            count++;
+            now = after;
+        }
+        return count / ((now - start) / 1e9);
+    }
+
+    private static void compare(String key, String[] old, double mean, double error, double settledPerQuery) {
+        if (old == null) return;
+        double oldMean = Double.parseDouble(old[3]);
+        double oldError = Double.parseDouble(old[4]);
+        double oldSettled = Double.parseDouble(old[9]);
+        if (Math.abs(settledPerQuery - oldSettled) > 0.005) {
+            System.err.println(String.format(Locale.ROOT, "CHANGED %s: settled/query %.2f, was %.2f",
+                    key, settledPerQuery, oldSettled));
+        }
+        if (mean + error < oldMean - oldError) {
+            System.err.println(String.format(Locale.ROOT, "SLOWER %s: %.1f ops/s, was %.1f (%.1f%%)",
+                    key, mean, oldMean, 100 * (mean - oldMean) / oldMean));
+        }
+    }
+
+    // The lines of a CSV written by this benchmark, by map and engine
+    private static Map<String, String[]> readCsv(String filename) throws IOException {
+        Map<String, String[]> rows = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line = reader.readLine(); // header
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields.length >= 10) {
+                    rows.put(fields[0] + "," + fields[1], fields);
+                }
+            }
+        }
+        return rows;
+    }
+}
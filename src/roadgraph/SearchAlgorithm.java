@@ -0,0 +1,22 @@
+package roadgraph;
+
+/**
+ * The searches MapGraph.findRoute can run.
+ */
+public enum SearchAlgorithm {
+    /** Breadth first search: fewest intersections, not shortest distance */
+    BFS,
+    /** Dijkstra's algorithm */
+    DIJKSTRA,
+    /** A* with the graph's heuristic (straight line distance or landmarks) */
+    A_STAR,
+    /** Dijkstra forward from the start and backward from the goal at once */
+    BIDIRECTIONAL_DIJKSTRA,
+    /** A* forward from the start and backward from the goal at once */
+    BIDIRECTIONAL_A_STAR,
+    /**
+     * Bidirectional upward search of the graph's contraction hierarchy,
+     * which is built by the first query
+     */
+    CONTRACTION_HIERARCHY
+}
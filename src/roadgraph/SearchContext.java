@@ -0,0 +1,218 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * The per-query state of a search on a CompactGraph: the tentative
+ * distance and parent of every vertex, and whether it has been settled.
+ *
+ * Instead of resetting every array before a query, each write is tagged
+ * with the version of the query that made it.  Starting a new query just
+ * increments the version, which makes every old entry stale at once, so
+ * the cost of a query only depends on the vertices it actually touches.
+ *
+ * A SearchContext is not thread safe.  Each thread uses its own context
+ * (see CompactGraph.context()), which lets any number of threads search
+ * the same CompactGraph at the same time without locking.
+ */
+public class SearchContext {
+    private final double[] dist;
+    private final int[] parent;
+    /** The version in which dist and parent of a vertex were last written */
+    private final int[] reachedIn;
+    /** The version in which a vertex was settled */
+    private final int[] settledIn;
+    /** The version in which a vertex was marked, e.g. as a target */
+    private int[] markedIn;
+    /** The version in which an edge was marked, e.g. as banned; grown on demand */
+    private int[] edgeMarkedIn;
+    private int version;
+    /** Counters of the current query */
+    private int settledCount;
+    private int relaxedCount;
+
+    /** Scratch queue used by breadth first search */
+    private int[] queue;
+    /** Priority queues, created on first use and indexed by HeapType */
+    private final IntPriorityQueue[] heaps = new IntPriorityQueue[HeapType.values().length];
+    /** The queue handed out by the last call to heap() */
+    private IntPriorityQueue lastHeap;
+    /** Companion context for the backward half of bidirectional searches */
+    private SearchContext backward;
+
+    /**
+     * Create a context for searches on a graph with n vertices
+     * @param n The number of vertices in the graph
+     */
+    public SearchContext(int n) {
+        dist = new double[n];
+        parent = new int[n];
+        reachedIn = new int[n];
+        settledIn = new int[n];
+        version = 0;
+    }
+
+    /** @return The number of vertices this context can hold */
+    public int size() {
+        return dist.length;
+    }
+
+    /**
+     * Start a new query.  All distances become infinite and no vertex is
+     * reached or settled.
+     */
+    void begin() {
+        version++;
+        settledCount = 0;
+        relaxedCount = 0;
+        if (version == Integer.MAX_VALUE) {
+            // Only happens once every 2^31 queries, so the O(V) clear is cheap
+            Arrays.fill(reachedIn, 0);
+            Arrays.fill(settledIn, 0);
+            if (markedIn != null) {
+                Arrays.fill(markedIn, 0);
+            }
+            if (edgeMarkedIn != null) {
+                Arrays.fill(edgeMarkedIn, 0);
+            }
+            version = 1;
+        }
+    }
+
+    /** @return true if v has been given a distance in this query */
+    boolean isReached(int v) {
+        return reachedIn[v] == version;
+    }
+
+    /** @return The tentative distance of v, or infinity if it was not reached */
+    double distance(int v) {
+        return reachedIn[v] == version ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return The parent of v on the search tree, or -1 if v was not
+     *   reached.  Searches on a CompactGraph record the edge v was reached
+     *   by, with -1 for the vertices a search starts from.
+     */
+    int parent(int v) {
+        return reachedIn[v] == version ? parent[v] : -1;
+    }
+
+    /**
+     * Record a (better) path to v
+     * @param v The vertex reached
+     * @param d The length of the path to v
+     * @param from The edge (or, for some searches, the vertex) before v on
+     *   that path
+     */
+    void update(int v, double d, int from) {
+        dist[v] = d;
+        parent[v] = from;
+        reachedIn[v] = version;
+        if (from >= 0) relaxedCount++;
+    }
+
+    /** @return true if v has been settled in this query */
+    boolean isSettled(int v) {
+        return settledIn[v] == version;
+    }
+
+    /** Mark v as settled: its distance is final */
+    void settle(int v) {
+        settledIn[v] = version;
+        settledCount++;
+    }
+
+    /** @return The number of vertices settled in the current query */
+    int settledCount() {
+        return settledCount;
+    }
+
+    /** @return The number of times the current query found a shorter
+     * path to a vertex, not counting the vertices it started from */
+    int relaxedCount() {
+        return relaxedCount;
+    }
+
+    /**
+     * Mark v for the current query (for example as one of several targets)
+     * @return true if v was not marked yet
+     */
+    boolean mark(int v) {
+        if (markedIn == null) {
+            markedIn = new int[dist.length];
+        }
+        if (markedIn[v] == version) return false;
+        markedIn[v] = version;
+        return true;
+    }
+
+    /** @return true if v was marked in the current query */
+    boolean isMarked(int v) {
+        return markedIn != null && markedIn[v] == version;
+    }
+
+    /**
+     * Mark edge e for the current query (for example as banned)
+     * @param e The edge slot
+     */
+    void markEdge(int e) {
+        if (edgeMarkedIn == null || e >= edgeMarkedIn.length) {
+            int size = edgeMarkedIn == null ? 2 * dist.length : 2 * edgeMarkedIn.length;
+            edgeMarkedIn = edgeMarkedIn == null ? new int[Math.max(size, e + 1)]
+                    : Arrays.copyOf(edgeMarkedIn, Math.max(size, e + 1));
+        }
+        edgeMarkedIn[e] = version;
+    }
+
+    /** @return true if edge e was marked in the current query */
+    boolean isEdgeMarked(int e) {
+        return edgeMarkedIn != null && e < edgeMarkedIn.length && edgeMarkedIn[e] == version;
+    }
+
+    /** @return A scratch int array with room for every vertex */
+    int[] queue() {
+        if (queue == null) {
+            queue = new int[dist.length];
+        }
+        return queue;
+    }
+
+    /**
+     * Get this context's priority queue of the given type, emptied
+     * and with its counters reset.
+     * @param type The kind of queue
+     * @return An empty queue
+     */
+    IntPriorityQueue heap(HeapType type) {
+        IntPriorityQueue heap = heaps[type.ordinal()];
+        if (heap == null) {
+            heap = type.create(dist.length);
+            heaps[type.ordinal()] = heap;
+        }
+        heap.clear();
+        lastHeap = heap;
+        return heap;
+    }
+
+    /**
+     * Get the context that holds the backward search of a bidirectional
+     * query run with this context.  It is created on first use and is
+     * owned by the same thread as this context.
+     * @return The backward context
+     */
+    SearchContext backward() {
+        if (backward == null) {
+            backward = new SearchContext(dist.length);
+        }
+        return backward;
+    }
+
+    /**
+     * @return The queue used by the most recent search with this context,
+     *   with its counters intact, or null if there was none
+     */
+    IntPriorityQueue lastHeap() {
+        return lastHeap;
+    }
+}
@@ -0,0 +1,182 @@
+package roadgraph;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import util.LatencyHistogram;
+
+/**
+ * The SearchStats of many searches, added up per algorithm, with a
+ * histogram of their latencies, for capacity planning.  Any number of
+ * threads can record into the same SearchMetrics.
+ *
+ * The totals can be written as CSV (one summary line per algorithm, or
+ * one line per histogram bucket) or as JSON (both).  Latencies are in
+ * microseconds in the summaries and in nanoseconds in the histograms.
+ */
+public class SearchMetrics {
+    // The totals of one algorithm
+    private static class Totals {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder settled = new LongAdder();
+        final LongAdder relaxed = new LongAdder();
+        final LongAdder pushes = new LongAdder();
+        final LongAdder pops = new LongAdder();
+        final LongAccumulator maxHeapSize = new LongAccumulator(Math::max, 0);
+        final LongAdder allocated = new LongAdder();
+        /** The searches whose allocation was known */
+        final LongAdder allocatedQueries = new LongAdder();
+        /** The searches that found no route */
+        final LongAdder unreachable = new LongAdder();
+    }
+
+    /** Filled for every algorithm up front and never changed after */
+    private final EnumMap<SearchAlgorithm, Totals> totals = new EnumMap<>(SearchAlgorithm.class);
+
+    public SearchMetrics() {
+        for (SearchAlgorithm algorithm : SearchAlgorithm.values()) {
+            totals.put(algorithm, new Totals());
+        }
+    }
+
+    /**
+     * Add a search
+     * @param algorithm The algorithm of the search
+     * @param stats What the search did
+     */
+    public void record(SearchAlgorithm algorithm, SearchStats stats) {
+        Totals t = totals.get(algorithm);
+        t.latency.record(stats.getNanos());
+        t.settled.add(stats.getSettled());
+        t.relaxed.add(stats.getRelaxed());
+        t.pushes.add(stats.getHeapPushes());
+        t.pops.add(stats.getHeapPops());
+        t.maxHeapSize.accumulate(stats.getMaxHeapSize());
+        if (stats.getAllocatedBytes() >= 0) {
+            t.allocated.add(stats.getAllocatedBytes());
+            t.allocatedQueries.increment();
+        }
+        if (!stats.isFound()) {
+            t.unreachable.increment();
+        }
+    }
+
+    /**
+     * @param algorithm An algorithm
+     * @return The latencies of its searches, in nanoseconds
+     */
+    public LatencyHistogram getLatency(SearchAlgorithm algorithm) {
+        return totals.get(algorithm).latency;
+    }
+
+    /**
+     * @param algorithm An algorithm
+     * @return The number of its searches recorded
+     */
+    public long getQueries(SearchAlgorithm algorithm) {
+        return totals.get(algorithm).latency.getCount();
+    }
+
+    /**
+     * @param algorithm An algorithm
+     * @return The number of its searches that found no route
+     */
+    public long getUnreachable(SearchAlgorithm algorithm) {
+        return totals.get(algorithm).unreachable.sum();
+    }
+
+    /**
+     * @return A header line, then for each algorithm with searches
+     *   recorded: the number of searches, the mean, median, 90th, 99th and
+     *   99.9th percentile and largest latency in microseconds, the mean
+     *   number of vertices settled, relaxations, heap pushes and pops, the
+     *   largest heap, the mean bytes allocated, and the number of searches
+     *   that found no route
+     */
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder("algorithm,queries,mean us,p50 us,p90 us,p99 us,p99.9 us,max us,"
+                + "settled/query,relaxed/query,pushes/query,pops/query,max heap,bytes/query,unreachable\n");
+        for (SearchAlgorithm algorithm : SearchAlgorithm.values()) {
+            Totals t = totals.get(algorithm);
+            long n = t.latency.getCount();
+            if (n == 0) continue;
+            csv.append(String.format(Locale.ROOT, "%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%.0f,%d%n",
+                    algorithm, n, t.latency.getMean() / 1000, micros(t.latency.getPercentile(50)),
+                    micros(t.latency.getPercentile(90)), micros(t.latency.getPercentile(99)),
+                    micros(t.latency.getPercentile(99.9)), micros(t.latency.getMax()),
+                    t.settled.sum() / (double) n, t.relaxed.sum() / (double) n,
+                    t.pushes.sum() / (double) n, t.pops.sum() / (double) n, t.maxHeapSize.get(),
+                    bytesPerQuery(t), t.unreachable.sum()));
+        }
+        return csv.toString();
+    }
+
+    /**
+     * @return A header line, then one line for each bucket of each
+     *   algorithm's latency histogram that has searches in it: the
+     *   algorithm, the bucket's range in nanoseconds and its count
+     */
+    public String histogramCsv() {
+        StringBuilder csv = new StringBuilder("algorithm,from ns,to ns,count\n");
+        for (SearchAlgorithm algorithm : SearchAlgorithm.values()) {
+            LatencyHistogram latency = totals.get(algorithm).latency;
+            for (int i = 0; i < LatencyHistogram.getNumBuckets(); i++) {
+                long count = latency.getBucketCount(i);
+                if (count == 0) continue;
+                csv.append(algorithm).append(',').append(LatencyHistogram.bucketFrom(i)).append(',')
+                        .append(LatencyHistogram.bucketTo(i)).append(',').append(count).append('\n');
+            }
+        }
+        return csv.toString();
+    }
+
+    /**
+     * @return A JSON object with a member for each algorithm with searches
+     *   recorded, holding the summary of toCsv() and the non-empty buckets
+     *   of histogramCsv()
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (SearchAlgorithm algorithm : SearchAlgorithm.values()) {
+            Totals t = totals.get(algorithm);
+            LatencyHistogram latency = t.latency;
+            long n = latency.getCount();
+            if (n == 0) continue;
+            if (json.length() > 1) json.append(',');
+            json.append(String.format(Locale.ROOT, "%n  \"%s\": {\"queries\": %d, \"meanUs\": %.1f, "
+                    + "\"p50Us\": %.1f, \"p90Us\": %.1f, \"p99Us\": %.1f, \"p999Us\": %.1f, \"maxUs\": %.1f, "
+                    + "\"settledPerQuery\": %.1f, \"relaxedPerQuery\": %.1f, \"pushesPerQuery\": %.1f, "
+                    + "\"popsPerQuery\": %.1f, \"maxHeap\": %d, \"bytesPerQuery\": %.0f, \"unreachable\": %d,%n    \"histogram\": [",
+                    algorithm, n, latency.getMean() / 1000, micros(latency.getPercentile(50)),
+                    micros(latency.getPercentile(90)), micros(latency.getPercentile(99)),
+                    micros(latency.getPercentile(99.9)), micros(latency.getMax()),
+                    t.settled.sum() / (double) n, t.relaxed.sum() / (double) n,
+                    t.pushes.sum() / (double) n, t.pops.sum() / (double) n, t.maxHeapSize.get(),
+                    bytesPerQuery(t), t.unreachable.sum()));
+            boolean first = true;
+            for (int i = 0; i < LatencyHistogram.getNumBuckets(); i++) {
+                long count = latency.getBucketCount(i);
+                if (count == 0) continue;
+                if (!first) json.append(", ");
+                first = false;
+                json.append("{\"fromNs\": ").append(LatencyHistogram.bucketFrom(i))
+                        .append(", \"toNs\": ").append(LatencyHistogram.bucketTo(i))
+                        .append(", \"count\": ").append(count).append('}');
+            }
+            json.append("]}");
+        }
+        return json.append(String.format("%n}%n")).toString();
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    // The mean bytes allocated, or -1 if no search knew its allocation
+    private static double bytesPerQuery(Totals t) {
+        long n = t.allocatedQueries.sum();
+        return n == 0 ? -1 : t.allocated.sum() / (double) n;
+    }
+}
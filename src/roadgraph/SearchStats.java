@@ -0,0 +1,129 @@
+package roadgraph;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The work done by one search: how many vertices it settled, how many
+ * times it found a shorter path to a vertex, what its priority queue did,
+ * how long it took, how much it allocated and whether it found a route.
+ *
+ * Pass a SearchStats to a search to have it measured, or null to skip the
+ * measuring.  The time and allocation cover the whole query, including
+ * building the route found.  A SearchStats can be reused; each search
+ * overwrites it.
+ */
+public class SearchStats {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private int settled;
+    private long relaxed;
+    private long pushes;
+    private long pops;
+    private int maxHeapSize;
+    private long nanos;
+    private long allocatedBytes;
+    private boolean found;
+
+    private long startNanos;
+    private long startBytes;
+
+    /** Reset the counters and start the clock */
+    void start() {
+        settled = 0;
+        relaxed = 0;
+        pushes = 0;
+        pops = 0;
+        maxHeapSize = 0;
+        startBytes = allocatedByThread();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Add the counters of a search, or of one half of a bidirectional search
+     * @param ctx The context the search ran in
+     * @param heap The queue it used, or null if it used none
+     */
+    void add(SearchContext ctx, IntPriorityQueue heap) {
+        settled += ctx.settledCount();
+        relaxed += ctx.relaxedCount();
+        if (heap != null) {
+            pushes += heap.pushes();
+            pops += heap.pops();
+            maxHeapSize = Math.max(maxHeapSize, heap.maxSize());
+        }
+    }
+
+    /**
+     * Stop the clock
+     * @param found Whether the search found a route
+     */
+    void stop(boolean found) {
+        this.found = found;
+        nanos = System.nanoTime() - startNanos;
+        long bytes = allocatedByThread();
+        allocatedBytes = startBytes < 0 || bytes < 0 ? -1 : bytes - startBytes;
+    }
+
+    // The bytes allocated by this thread so far, or -1 if the JVM cannot
+    // tell
+    private static long allocatedByThread() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /** @return The number of vertices settled */
+    public int getSettled() {
+        return settled;
+    }
+
+    /** @return The number of times a shorter path to a vertex was found */
+    public long getRelaxed() {
+        return relaxed;
+    }
+
+    /** @return The number of entries added to the priority queue; 0 for
+     *   breadth first search, which uses a plain queue */
+    public long getHeapPushes() {
+        return pushes;
+    }
+
+    /** @return The number of entries taken from the priority queue */
+    public long getHeapPops() {
+        return pops;
+    }
+
+    /** @return The largest size a priority queue of the search reached */
+    public int getMaxHeapSize() {
+        return maxHeapSize;
+    }
+
+    /** @return The time the search took, in nanoseconds */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /** @return The bytes the search allocated on the heap, or -1 if the
+     *   JVM does not count allocation per thread */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /** @return Whether the search found a route; false when the goal is
+     *   unreachable from the start */
+    public boolean isFound() {
+        return found;
+    }
+
+    @Override
+    public String toString() {
+        return "settled " + settled + ", relaxed " + relaxed + ", heap pushes " + pushes
+                + ", pops " + pops + ", max " + maxHeapSize + ", " + nanos / 1000 + " us, "
+                + allocatedBytes + " bytes" + (found ? "" : ", no route");
+    }
+}
@@ -0,0 +1,235 @@
+package roadgraph;
+
+import geography.GeographicPoint;
+
+/**
+ * A uniform grid over the intersections and edges of a CompactGraph, for
+ * finding the intersection or road closest to a raw latitude/longitude.
+ *
+ * Locations are projected onto a plane (longitude scaled by the cosine of
+ * the map's middle latitude), which is accurate at city scale.  The grid is
+ * sized so a cell holds about two intersections.  Each edge is listed in
+ * every cell its bounding box touches.  Both lists are stored like the
+ * graph itself: one offsets array per grid and one flat array of ids.
+ *
+ * A query looks at rings of cells around the cell of the query location,
+ * stopping as soon as the next ring cannot hold anything closer than the
+ * best match so far.
+ */
+public class SpatialIndex {
+    private final CompactGraph graph;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final double scale;
+    private final int cols;
+    private final int rows;
+
+    /** Vertices in cell c are vertexCells[vertexStart[c]] to vertexCells[vertexStart[c+1]-1] */
+    private final int[] vertexStart;
+    private final int[] vertexCells;
+    /** Edges touching cell c are edgeCells[edgeStart[c]] to edgeCells[edgeStart[c+1]-1] */
+    private final int[] edgeStart;
+    private final int[] edgeCells;
+
+    SpatialIndex(CompactGraph graph) {
+        this.graph = graph;
+        int n = graph.getNumVertices();
+        int m = graph.getNumEdges();
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            minLat = Math.min(minLat, graph.getLatitude(v));
+            maxLat = Math.max(maxLat, graph.getLatitude(v));
+            minLon = Math.min(minLon, graph.getLongitude(v));
+            maxLon = Math.max(maxLon, graph.getLongitude(v));
+        }
+        if (n == 0) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+        scale = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        minX = minLon * scale;
+        minY = minLat;
+        double width = (maxLon - minLon) * scale;
+        double height = maxLat - minLat;
+        double area = Math.max(width * height, 1e-12);
+        double size = Math.sqrt(area / Math.max(1, n / 2));
+        // a very thin map still needs a sensible number of cells
+        size = Math.max(size, Math.max(width, height) / Math.max(1, n));
+        cellSize = size > 0 ? size : 1e-6;
+        cols = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+
+        // counting sort of the vertices into cells
+        int cells = cols * rows;
+        vertexStart = new int[cells + 1];
+        int[] cellOf = new int[n];
+        for (int v = 0; v < n; v++) {
+            cellOf[v] = cell(col(graph.getLongitude(v) * scale), row(graph.getLatitude(v)));
+            vertexStart[cellOf[v] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            vertexStart[c + 1] += vertexStart[c];
+        }
+        vertexCells = new int[n];
+        int[] next = vertexStart.clone();
+        for (int v = 0; v < n; v++) {
+            vertexCells[next[cellOf[v]]++] = v;
+        }
+
+        // the same for the edges, over the cells of their bounding boxes
+        edgeStart = new int[cells + 1];
+        int[] box = new int[4];
+        for (int e = 0; e < m; e++) {
+            edgeBox(e, box);
+            for (int r = box[2]; r <= box[3]; r++) {
+                for (int c = box[0]; c <= box[1]; c++) {
+                    edgeStart[cell(c, r) + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < cells; c++) {
+            edgeStart[c + 1] += edgeStart[c];
+        }
+        edgeCells = new int[edgeStart[cells]];
+        next = edgeStart.clone();
+        for (int e = 0; e < m; e++) {
+            edgeBox(e, box);
+            for (int r = box[2]; r <= box[3]; r++) {
+                for (int c = box[0]; c <= box[1]; c++) {
+                    edgeCells[next[cell(c, r)]++] = e;
+                }
+            }
+        }
+    }
+
+    // The first and last column and row of the cells that the bounding
+    // box of edge e covers
+    private void edgeBox(int e, int[] box) {
+        int a = graph.tail(e);
+        int b = graph.target(e);
+        box[0] = col(Math.min(graph.getLongitude(a), graph.getLongitude(b)) * scale);
+        box[1] = col(Math.max(graph.getLongitude(a), graph.getLongitude(b)) * scale);
+        box[2] = row(Math.min(graph.getLatitude(a), graph.getLatitude(b)));
+        box[3] = row(Math.max(graph.getLatitude(a), graph.getLatitude(b)));
+    }
+
+    private int col(double x) {
+        int c = (int) ((x - minX) / cellSize);
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    private int row(double y) {
+        int r = (int) ((y - minY) / cellSize);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    private int cell(int c, int r) {
+        return r * cols + c;
+    }
+
+    /** @return The graph this index covers */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Find the intersection closest to a location
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @return The vertex id of the closest intersection, or -1 if the
+     *   graph has no vertices
+     */
+    public int nearestVertex(double lat, double lon) {
+        double x = lon * scale;
+        int qc = col(x);
+        int qr = row(lat);
+        int best = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        int maxRing = Math.max(cols, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // nothing in this ring or beyond can be closer
+            double bound = (ring - 1) * cellSize;
+            if (best >= 0 && bound > 0 && bound * bound >= bestDist) break;
+            for (int r = qr - ring; r <= qr + ring; r++) {
+                if (r < 0 || r >= rows) continue;
+                boolean edgeRow = r == qr - ring || r == qr + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = qc - ring; c <= qc + ring; c += Math.max(step, 1)) {
+                    if (c < 0 || c >= cols) continue;
+                    int cell = cell(c, r);
+                    for (int i = vertexStart[cell]; i < vertexStart[cell + 1]; i++) {
+                        int v = vertexCells[i];
+                        double dx = graph.getLongitude(v) * scale - x;
+                        double dy = graph.getLatitude(v) - lat;
+                        double d = dx * dx + dy * dy;
+                        if (d < bestDist) {
+                            bestDist = d;
+                            best = v;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Snap a location onto the closest point of any road
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @return The closest point on an edge, or null if the graph has no edges
+     */
+    public RoadSnap nearestSegment(double lat, double lon) {
+        double x = lon * scale;
+        int qc = col(x);
+        int qr = row(lat);
+        int best = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        double bestFraction = 0;
+        int maxRing = Math.max(cols, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            double bound = (ring - 1) * cellSize;
+            if (best >= 0 && bound > 0 && bound * bound >= bestDist) break;
+            for (int r = qr - ring; r <= qr + ring; r++) {
+                if (r < 0 || r >= rows) continue;
+                boolean edgeRow = r == qr - ring || r == qr + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = qc - ring; c <= qc + ring; c += Math.max(step, 1)) {
+                    if (c < 0 || c >= cols) continue;
+                    int cell = cell(c, r);
+                    for (int i = edgeStart[cell]; i < edgeStart[cell + 1]; i++) {
+                        int e = edgeCells[i];
+                        int a = graph.tail(e);
+                        int b = graph.target(e);
+                        double ax = graph.getLongitude(a) * scale;
+                        double ay = graph.getLatitude(a);
+                        double bx = graph.getLongitude(b) * scale - ax;
+                        double by = graph.getLatitude(b) - ay;
+                        double len = bx * bx + by * by;
+                        double t = len > 0 ? ((x - ax) * bx + (lat - ay) * by) / len : 0;
+                        t = Math.max(0, Math.min(1, t));
+                        double dx = ax + t * bx - x;
+                        double dy = ay + t * by - lat;
+                        double d = dx * dx + dy * dy;
+                        if (d < bestDist) {
+                            bestDist = d;
+                            best = e;
+                            bestFraction = t;
+                        }
+                    }
+                }
+            }
+        }
+        if (best < 0) return null;
+
+        int a = graph.tail(best);
+        int b = graph.target(best);
+        double snapLat = graph.getLatitude(a) + bestFraction * (graph.getLatitude(b) - graph.getLatitude(a));
+        double snapLon = graph.getLongitude(a) + bestFraction * (graph.getLongitude(b) - graph.getLongitude(a));
+        return new RoadSnap(graph, best, bestFraction, snapLat, snapLon,
+                GeographicPoint.distance(lat, lon, snapLat, snapLon));
+    }
+}
@@ -0,0 +1,142 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * A speed that changes with the time of day, for travel time routing.
+ *
+ * The speed is given at a few times of the day and is linear between
+ * them, wrapping around from the last time of the day to the first time
+ * of the next.  Times are in seconds; any time is taken modulo DAY, so a
+ * search can run past midnight.
+ *
+ * The time to drive a distance is found by following the speed as it
+ * changes on the way, not by taking the speed at the time of departure.
+ * So leaving later never means arriving earlier (the FIFO property), which
+ * is what lets a time-dependent Dijkstra settle each vertex once.
+ */
+public class SpeedFunction {
+    /** Seconds in an hour */
+    public static final double HOUR = 3600;
+    /** Seconds in a day */
+    public static final double DAY = 24 * HOUR;
+
+    /** The times of day the speed is given at, increasing, in seconds */
+    private final double[] times;
+    /** The speed at each time, in km/h */
+    private final double[] kmh;
+    private final double maxKmh;
+
+    /**
+     * @param times The times of day the speeds are given at, in seconds
+     *   from midnight, increasing and less than DAY
+     * @param kmh The speed at each time, in km/h
+     * @throws IllegalArgumentException If the arrays differ in length or
+     *   are empty, a time is out of order, or a speed is not positive
+     */
+    public SpeedFunction(double[] times, double[] kmh) {
+        if (times.length != kmh.length || times.length == 0) {
+            throw new IllegalArgumentException("Need the same number of times and speeds, at least one");
+        }
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] < 0 || times[i] >= DAY || (i > 0 && times[i] <= times[i - 1])) {
+                throw new IllegalArgumentException("Times must increase within a day: " + Arrays.toString(times));
+            }
+            if (!(kmh[i] > 0)) {
+                throw new IllegalArgumentException("Speeds must be positive: " + Arrays.toString(kmh));
+            }
+        }
+        this.times = times.clone();
+        this.kmh = kmh.clone();
+        double max = 0;
+        for (double v : kmh) {
+            max = Math.max(max, v);
+        }
+        this.maxKmh = max;
+    }
+
+    /**
+     * @param kmh The speed, in km/h
+     * @return A speed that is the same all day
+     */
+    public static SpeedFunction constant(double kmh) {
+        return new SpeedFunction(new double[] {0}, new double[] {kmh});
+    }
+
+    /** @return The highest speed of the day, in km/h */
+    public double getMaxSpeed() {
+        return maxKmh;
+    }
+
+    /**
+     * @param time A time, in seconds from midnight of the first day
+     * @return The speed at that time, in km/h
+     */
+    public double speedAt(double time) {
+        double t = timeOfDay(time);
+        int i = segment(t);
+        return speedIn(i, t);
+    }
+
+    /**
+     * The time it takes to drive a distance
+     * @param departure The time of departure, in seconds
+     * @param km The distance, in km
+     * @return The driving time, in seconds
+     */
+    public double travelSeconds(double departure, double km) {
+        if (times.length == 1) {
+            return km / kmh[0] * HOUR;
+        }
+        double t = timeOfDay(departure);
+        int i = segment(t);
+        if (t < times[i]) {
+            t += DAY; // in the wrapped segment, after midnight
+        }
+        // km * HOUR still to go, so that a speed in km/h times seconds
+        // takes from it directly
+        double remaining = km * HOUR;
+        double elapsed = 0;
+        while (true) {
+            double end = i + 1 < times.length ? times[i + 1] : times[0] + DAY;
+            double endSpeed = kmh[(i + 1) % kmh.length];
+            double v = speedIn(i, t);
+            double span = end - t;
+            double reach = (v + endSpeed) / 2 * span;
+            if (remaining <= reach) {
+                // solve v x + slope x^2 / 2 = remaining, in a form that is
+                // stable when the slope is near 0
+                double slope = (endSpeed - v) / span;
+                return elapsed + 2 * remaining / (v + Math.sqrt(v * v + 2 * slope * remaining));
+            }
+            remaining -= reach;
+            elapsed += span;
+            i = (i + 1) % times.length;
+            t = times[i];
+        }
+    }
+
+    // The speed at time of day t, in segment i (which starts at times[i])
+    private double speedIn(int i, double t) {
+        double end = i + 1 < times.length ? times[i + 1] : times[0] + DAY;
+        double endSpeed = kmh[(i + 1) % kmh.length];
+        if (t < times[i]) {
+            t += DAY; // in the wrapped segment, after midnight
+        }
+        return kmh[i] + (endSpeed - kmh[i]) * (t - times[i]) / (end - times[i]);
+    }
+
+    // The segment a time of day falls in: the last time at or before it,
+    // or the last time of the day if it is before the first
+    private int segment(double t) {
+        int i = Arrays.binarySearch(times, t);
+        if (i >= 0) return i;
+        int before = -i - 2;
+        return before < 0 ? times.length - 1 : before;
+    }
+
+    private static double timeOfDay(double time) {
+        double t = time % DAY;
+        return t < 0 ? t + DAY : t;
+    }
+}
@@ -0,0 +1,155 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import geography.GeographicPoint;
+import geography.HilbertCurve;
+
+/**
+ * The order MapGraph.freeze() numbers the vertices of a CompactGraph in.
+ *
+ * A search reads the distance, parent and version of each vertex it
+ * reaches from arrays indexed by vertex id, and the edges of a vertex are
+ * stored in vertex order too.  When intersections that are close on the
+ * map get close ids, the vertices a search touches one after another
+ * share cache lines and pages, instead of being spread over the whole
+ * of every array.
+ */
+public enum VertexOrder {
+    /** The order the vertices were added to the MapGraph in */
+    INSERTION,
+    /** Along a Hilbert curve over the latitude and longitude */
+    HILBERT,
+    /**
+     * Cuthill-McKee: breadth first from a vertex of least degree, visiting
+     * the neighbours of each vertex in order of degree, which keeps the
+     * ids at the two ends of each edge close
+     */
+    BFS;
+
+    /** The grid of the Hilbert order is 2^HILBERT_BITS on a side */
+    private static final int HILBERT_BITS = 15;
+
+    /**
+     * Put nodes in this order
+     * @param nodes The nodes in the order they were added
+     * @return The nodes in this order
+     */
+    List<MapNode> arrange(List<MapNode> nodes) {
+        switch (this) {
+            case HILBERT:
+                return hilbert(nodes);
+            case BFS:
+                return cuthillMcKee(nodes);
+            default:
+                return nodes;
+        }
+    }
+
+    private static List<MapNode> hilbert(List<MapNode> nodes) {
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (MapNode node : nodes) {
+            GeographicPoint p = node.getLocation();
+            minLat = Math.min(minLat, p.getX());
+            maxLat = Math.max(maxLat, p.getX());
+            minLon = Math.min(minLon, p.getY());
+            maxLon = Math.max(maxLon, p.getY());
+        }
+        // (curve position << 32 | position in nodes), so ties keep their order
+        long[] keys = new long[nodes.size()];
+        for (int i = 0; i < keys.length; i++) {
+            GeographicPoint p = nodes.get(i).getLocation();
+            long h = HilbertCurve.index(HILBERT_BITS, HilbertCurve.cell(p.getY(), minLon, maxLon, HILBERT_BITS),
+                    HilbertCurve.cell(p.getX(), minLat, maxLat, HILBERT_BITS));
+            keys[i] = h << 32 | i;
+        }
+        Arrays.sort(keys);
+        List<MapNode> ordered = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            ordered.add(nodes.get((int) key));
+        }
+        return ordered;
+    }
+
+    private static List<MapNode> cuthillMcKee(List<MapNode> nodes) {
+        int n = nodes.size();
+        Map<MapNode, Integer> ids = new IdentityHashMap<>(n);
+        for (int i = 0; i < n; i++) {
+            ids.put(nodes.get(i), i);
+        }
+        // the neighbours of each node either way, as in a road network most
+        // roads can be driven both ways but not all
+        int[] degree = new int[n];
+        for (MapNode node : nodes) {
+            for (MapEdge edge : node.getEdges()) {
+                degree[ids.get(node)]++;
+                degree[ids.get(edge.getOtherNode(node))]++;
+            }
+        }
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + degree[v];
+        }
+        int[] neighbours = new int[offsets[n]];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int u = 0; u < n; u++) {
+            for (MapEdge edge : nodes.get(u).getEdges()) {
+                int w = ids.get(edge.getOtherNode(nodes.get(u)));
+                neighbours[next[u]++] = w;
+                neighbours[next[w]++] = u;
+            }
+        }
+
+        // start each component from its unvisited vertex of least degree
+        Integer[] byDegree = new Integer[n];
+        for (int v = 0; v < n; v++) {
+            byDegree[v] = v;
+        }
+        Arrays.sort(byDegree, (a, b) -> degree[a] != degree[b] ? degree[a] - degree[b] : a - b);
+
+        boolean[] visited = new boolean[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int start : byDegree) {
+            if (visited[start]) continue;
+            visited[start] = true;
+            queue[tail++] = start;
+            while (head < tail) {
+                int u = queue[head++];
+                int from = tail;
+                for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                    int w = neighbours[i];
+                    if (!visited[w]) {
+                        visited[w] = true;
+                        queue[tail++] = w;
+                    }
+                }
+                sortByDegree(queue, from, tail, degree);
+            }
+        }
+        List<MapNode> ordered = new ArrayList<>(n);
+        for (int v : queue) {
+            ordered.add(nodes.get(v));
+        }
+        return ordered;
+    }
+
+    // Insertion sort of a[from..to) by degree; a vertex has few neighbours
+    private static void sortByDegree(int[] a, int from, int to, int[] degree) {
+        for (int i = from + 1; i < to; i++) {
+            int v = a[i];
+            int j = i - 1;
+            while (j >= from && degree[a[j]] > degree[v]) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+}
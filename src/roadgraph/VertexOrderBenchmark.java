@@ -0,0 +1,116 @@
+package roadgraph;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Compares the vertex orders of VertexOrder on the maps in data/maps: how
+ * close together the two ends of each edge are numbered, and how fast
+ * Dijkstra and A* run on the same queries.
+ *
+ * For each map, a Dijkstra rank workload is made once, as locations, and
+ * run on the graph frozen in each order, WARMUP times to warm up and
+ * PASSES times measured.  The orders take turns for ROUNDS rounds, so no
+ * order gets a colder JIT than the others, and the time of a query is the
+ * mean over the passes of its best round.
+ *
+ * The locality columns are the mean difference of the ids at the ends of
+ * an edge, and the share of edges whose ends are in the same 64 byte
+ * cache line of a double array indexed by vertex.
+ *
+ * Cache misses are best counted by the hardware.  Run one order at a time
+ * under perf, from the project root:
+ *   perf stat -e cache-references,cache-misses java roadgraph.VertexOrderBenchmark HILBERT
+ * Without an argument every order is run.
+ */
+public class VertexOrderBenchmark {
+    private static final String MAP_DIR = "data/maps";
+    private static final int QUERIES = 2000;
+    private static final int WARMUP = 5;
+    private static final int PASSES = 10;
+    private static final int ROUNDS = 3;
+    /** Doubles in a 64 byte cache line */
+    private static final int LINE = 8;
+
+    // Sink for the routes found, so the JIT cannot drop the searches
+    private static double sink;
+
+    public static void main(String[] args) {
+        VertexOrder[] orders = args.length > 0 ? new VertexOrder[] {VertexOrder.valueOf(args[0])}
+                : VertexOrder.values();
+        File[] files = new File(MAP_DIR).listFiles((dir, name) -> name.endsWith(".map"));
+        if (files == null) {
+            System.err.println("Run from the project root, " + MAP_DIR + " not found");
+            return;
+        }
+        Arrays.sort(files);
+
+        System.out.println("map,order,vertices,edge span,same line %,dijkstra us,a* us");
+        for (File file : files) {
+            MapGraph map = new MapGraph();
+            GraphLoader.loadRoadMap(file.getPath(), map);
+            if (map.getNumVertices() < 2) continue;
+            map.setVertexOrder(VertexOrder.INSERTION);
+            Workload workload = Workload.generate(map.freeze(), Workload.Kind.DIJKSTRA_RANK, QUERIES, 2016);
+            List<GeographicPoint[]> pairs = new ArrayList<>(workload.size());
+            for (int i = 0; i < workload.size(); i++) {
+                pairs.add(new GeographicPoint[] {workload.getStart(i), workload.getGoal(i)});
+            }
+
+            double[] dijkstra = new double[orders.length];
+            double[] aStar = new double[orders.length];
+            Arrays.fill(dijkstra, Double.POSITIVE_INFINITY);
+            Arrays.fill(aStar, Double.POSITIVE_INFINITY);
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int o = 0; o < orders.length; o++) {
+                    map.setVertexOrder(orders[o]);
+                    dijkstra[o] = Math.min(dijkstra[o], time(map, pairs, SearchAlgorithm.DIJKSTRA));
+                    aStar[o] = Math.min(aStar[o], time(map, pairs, SearchAlgorithm.A_STAR));
+                }
+            }
+
+            for (int o = 0; o < orders.length; o++) {
+                map.setVertexOrder(orders[o]);
+                CompactGraph graph = map.freeze();
+                long span = 0;
+                int sameLine = 0;
+                for (int u = 0; u < graph.getNumVertices(); u++) {
+                    for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                        int v = graph.target(e);
+                        span += Math.abs(u - v);
+                        if (u / LINE == v / LINE) sameLine++;
+                    }
+                }
+                int m = Math.max(1, graph.getNumEdges());
+                System.out.println(String.format(Locale.ROOT, "%s,%s,%d,%.1f,%.1f,%.2f,%.2f",
+                        file.getName(), orders[o], graph.getNumVertices(), span / (double) m, 100.0 * sameLine / m,
+                        dijkstra[o], aStar[o]));
+            }
+        }
+    }
+
+    // The mean time of a query in microseconds
+    private static double time(MapGraph map, List<GeographicPoint[]> pairs, SearchAlgorithm algorithm) {
+        for (int i = 0; i < WARMUP; i++) {
+            pass(map, pairs, algorithm);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < PASSES; i++) {
+            pass(map, pairs, algorithm);
+        }
+        return (System.nanoTime() - start) / 1000.0 / PASSES / pairs.size();
+    }
+
+    private static void pass(MapGraph map, List<GeographicPoint[]> pairs, SearchAlgorithm algorithm) {
+        for (GeographicPoint[] pair : pairs) {
+            Route route = map.findRoute(pair[0], pair[1], algorithm, (x) -> {}, null);
+            sink += route.getLength();
+        }
+    }
+}
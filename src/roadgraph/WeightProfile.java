@@ -0,0 +1,244 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+import geography.RoadClass;
+
+/**
+ * How fast each class of road is driven, for finding the fastest route
+ * instead of the shortest one.
+ *
+ * A profile gives each RoadClass a speed in km/h, which may change with
+ * the time of day (a SpeedFunction), and a penalty in seconds added to
+ * every edge of that class, for example to keep routes off service roads.
+ * The time of an edge is its length at the speed of its class, plus the
+ * penalty.
+ *
+ * A profile is immutable, and a CompactGraph compiles the edge times of
+ * each profile without time of day speeds once, into an array it keeps,
+ * so routing with several profiles on the same graph needs no reload.
+ * Create each profile once and reuse it; the graph tells them apart by
+ * identity.
+ */
+public class WeightProfile {
+    private static final RoadClass[] CLASSES = RoadClass.values();
+
+    private final String name;
+    /** The constant speed of each road class, by code, in km/h */
+    private final double[] kmh;
+    /** The time of day speed of each road class, by code, or null where constant */
+    private final SpeedFunction[] speeds;
+    /** The penalty of each road class, by code, in seconds */
+    private final double[] penalties;
+    private final boolean timeDependent;
+    private final double maxKmh;
+
+    private WeightProfile(Builder builder) {
+        this.name = builder.name;
+        this.kmh = builder.kmh.clone();
+        this.speeds = builder.speeds.clone();
+        this.penalties = builder.penalties.clone();
+        boolean anyFunction = false;
+        double max = 0;
+        for (int c = 0; c < CLASSES.length; c++) {
+            if (speeds[c] != null) {
+                anyFunction = true;
+                max = Math.max(max, speeds[c].getMaxSpeed());
+            }
+            else {
+                max = Math.max(max, kmh[c]);
+            }
+        }
+        this.timeDependent = anyFunction;
+        this.maxKmh = max;
+    }
+
+    /**
+     * @param name A name for the profile, for printing
+     * @return A builder whose road classes are all driven at 50 km/h with
+     *   no penalty until set
+     */
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    /** @return A profile with typical car speeds for each road class */
+    public static WeightProfile car() {
+        return carSpeeds(builder("car")).build();
+    }
+
+    /**
+     * A car profile for a city with a morning and evening rush hour, when
+     * motorways and main roads slow to a crawl and side streets slow a
+     * little
+     * @return The profile
+     */
+    public static WeightProfile rushHour() {
+        Builder b = carSpeeds(builder("rush hour"));
+        for (RoadClass road : CLASSES) {
+            double free = b.kmh[road.ordinal()];
+            double slow = road.ordinal() <= RoadClass.SECONDARY_LINK.ordinal() ? free * 0.35 : free * 0.7;
+            b.speed(road, new SpeedFunction(
+                    new double[] {6 * SpeedFunction.HOUR, 8 * SpeedFunction.HOUR, 10 * SpeedFunction.HOUR,
+                        16 * SpeedFunction.HOUR, 18 * SpeedFunction.HOUR, 20 * SpeedFunction.HOUR},
+                    new double[] {free, slow, free, free, slow, free}));
+        }
+        return b.build();
+    }
+
+    private static Builder carSpeeds(Builder b) {
+        return b.speed(RoadClass.MOTORWAY, 110)
+                .speed(RoadClass.MOTORWAY_LINK, 60)
+                .speed(RoadClass.TRUNK, 90)
+                .speed(RoadClass.TRUNK_LINK, 50)
+                .speed(RoadClass.PRIMARY, 70)
+                .speed(RoadClass.PRIMARY_LINK, 40)
+                .speed(RoadClass.SECONDARY, 60)
+                .speed(RoadClass.SECONDARY_LINK, 40)
+                .speed(RoadClass.TERTIARY, 50)
+                .speed(RoadClass.TERTIARY_LINK, 35)
+                .speed(RoadClass.RESIDENTIAL, 30)
+                .speed(RoadClass.LIVING_STREET, 10)
+                .speed(RoadClass.UNCLASSIFIED, 40)
+                .speed(RoadClass.SERVICE, 20)
+                .speed(RoadClass.OTHER, 30);
+    }
+
+    /** @return The name of the profile */
+    public String getName() {
+        return name;
+    }
+
+    /** @return Whether any speed changes with the time of day */
+    public boolean isTimeDependent() {
+        return timeDependent;
+    }
+
+    /**
+     * @return The highest speed on any road at any time, in km/h, which
+     *   bounds the time to the goal for A*
+     */
+    public double getMaxSpeed() {
+        return maxKmh;
+    }
+
+    /**
+     * The time to drive a road
+     * @param road The class of the road
+     * @param km The length of the road, in km
+     * @param departure The time of day it is entered, in seconds from
+     *   midnight; ignored unless the profile is time dependent
+     * @return The time to drive it, in seconds, including the penalty
+     */
+    public double edgeSeconds(RoadClass road, double km, double departure) {
+        return edgeSeconds(road.code(), km, departure);
+    }
+
+    // The time of an edge with the given RoadClass code
+    double edgeSeconds(byte code, double km, double departure) {
+        SpeedFunction speed = speeds[code];
+        double drive = speed != null ? speed.travelSeconds(departure, km) : km / kmh[code] * SpeedFunction.HOUR;
+        return drive + penalties[code];
+    }
+
+    /**
+     * The time to drive a route with this profile
+     * @param route The route
+     * @param departure The time it starts, in seconds from midnight
+     * @return The time to drive it, in seconds
+     */
+    public double travelSeconds(Route route, double departure) {
+        CompactGraph graph = route.getGraph();
+        double time = departure;
+        for (int i = 0; i < route.getNumEdges(); i++) {
+            int e = route.getEdge(i);
+            time += edgeSeconds(graph.roadClass(e), graph.length(e), time);
+        }
+        return time - departure;
+    }
+
+    // The time of every edge of graph, for a profile that is not time dependent
+    double[] compile(double[] lengths, byte[] roadTypes) {
+        double[] weights = new double[lengths.length];
+        for (int e = 0; e < weights.length; e++) {
+            weights[e] = edgeSeconds(roadTypes[e], lengths[e], 0);
+        }
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        return "WeightProfile " + name;
+    }
+
+    /** Collects the speeds and penalties of a WeightProfile */
+    public static class Builder {
+        private String name;
+        private final double[] kmh = new double[CLASSES.length];
+        private final SpeedFunction[] speeds = new SpeedFunction[CLASSES.length];
+        private final double[] penalties = new double[CLASSES.length];
+
+        private Builder(String name) {
+            this.name = name;
+            Arrays.fill(kmh, 50);
+        }
+
+        /**
+         * @param name A name for the profile, for printing
+         * @return This builder
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Drive a road class at the same speed all day
+         * @param road The road class
+         * @param kmh The speed, in km/h
+         * @return This builder
+         * @throws IllegalArgumentException If the speed is not positive
+         */
+        public Builder speed(RoadClass road, double kmh) {
+            if (!(kmh > 0)) {
+                throw new IllegalArgumentException("Speed must be positive: " + kmh);
+            }
+            this.kmh[road.ordinal()] = kmh;
+            speeds[road.ordinal()] = null;
+            return this;
+        }
+
+        /**
+         * Drive a road class at a speed that changes with the time of day
+         * @param road The road class
+         * @param speed The speed
+         * @return This builder
+         */
+        public Builder speed(RoadClass road, SpeedFunction speed) {
+            if (speed == null)
+                throw new NullPointerException("speed");
+            speeds[road.ordinal()] = speed;
+            return this;
+        }
+
+        /**
+         * Add a time to every road of a class
+         * @param road The road class
+         * @param seconds The penalty, in seconds
+         * @return This builder
+         * @throws IllegalArgumentException If the penalty is negative
+         */
+        public Builder penalty(RoadClass road, double seconds) {
+            if (!(seconds >= 0)) {
+                throw new IllegalArgumentException("Penalty must not be negative: " + seconds);
+            }
+            penalties[road.ordinal()] = seconds;
+            return this;
+        }
+
+        /** @return The profile */
+        public WeightProfile build() {
+            return new WeightProfile(this);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package roadgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * A reproducible set of routing queries on a graph, for load testing and
+ * tuning.  Each query is a start and goal vertex and a group, which tells
+ * what kind of query it is, so latencies can be broken down by group:
+ *
+ *   UNIFORM       start and goal are uniformly random vertices, so some
+ *                 have no route at all.  Every query is in group 0.
+ *   DISTANCE      queries spread evenly over road distances of
+ *                 [0, 1), [1, 2), [2, 4), [4, 8) ... km; group b is the
+ *                 b-th of these ranges, and the last range is open ended.
+ *   DIJKSTRA_RANK for random starts, the goal is the vertex Dijkstra
+ *                 settles 2^r-th from the start; group r is the rank r.
+ *                 This is the usual way of showing how a search scales
+ *                 from local to long range queries.
+ *
+ * The same graph, kind, size and seed always give the same workload.  A
+ * workload is saved as vertex ids, 9 bytes per query, tagged with the
+ * fingerprint of the graph it was made for.
+ *
+ * Make a workload file from the project root with
+ *   java roadgraph.Workload map kind queries file [seed]
+ * and run it with WorkloadReplay.
+ */
+public class Workload {
+    /** "WKLD" */
+    private static final int MAGIC = 0x574b4c44;
+    private static final int VERSION = 1;
+    /** Distance buckets used by DISTANCE */
+    public static final int DISTANCE_BUCKETS = 6;
+    /** Upper end of the first distance bucket, in km */
+    private static final double FIRST_BUCKET_KM = 1.0;
+
+    /** The ways of choosing queries */
+    public enum Kind { UNIFORM, DISTANCE, DIJKSTRA_RANK }
+
+    private final CompactGraph graph;
+    private final Kind kind;
+    private final long seed;
+    private final int[] starts;
+    private final int[] goals;
+    private final byte[] groups;
+
+    private Workload(CompactGraph graph, Kind kind, long seed, int[] starts, int[] goals, byte[] groups) {
+        this.graph = graph;
+        this.kind = kind;
+        this.seed = seed;
+        this.starts = starts;
+        this.goals = goals;
+        this.groups = groups;
+    }
+
+    /**
+     * Make a workload
+     * @param graph The graph to query
+     * @param kind How to choose the queries
+     * @param count The number of queries
+     * @param seed The seed of the random choices
+     * @return The workload.  It has fewer than count queries only if the
+     *   graph has too few vertices for the kind, e.g. no vertex at a
+     *   distance the DISTANCE kind needs.
+     */
+    public static Workload generate(CompactGraph graph, Kind kind, int count, long seed) {
+        int n = graph.getNumVertices();
+        int[] starts = new int[count];
+        int[] goals = new int[count];
+        byte[] groups = new byte[count];
+        int size = 0;
+        if (n > 0) {
+            Random random = new Random(seed);
+            if (kind == Kind.UNIFORM) {
+                for (; size < count; size++) {
+                    starts[size] = random.nextInt(n);
+                    goals[size] = random.nextInt(n);
+                }
+            } else {
+                size = stratified(graph, kind, count, random, starts, goals, groups);
+            }
+        }
+        return new Workload(graph, kind, seed, Arrays.copyOf(starts, size), Arrays.copyOf(goals, size),
+                Arrays.copyOf(groups, size));
+    }
+
+    // Settle the whole graph from random starts and take goals from the
+    // order they were settled in, one per group each time, until there are
+    // count queries.  Returns the number of queries made.
+    private static int stratified(CompactGraph graph, Kind kind, int count, Random random,
+                                  int[] starts, int[] goals, byte[] groups) {
+        int n = graph.getNumVertices();
+        SearchContext ctx = graph.context();
+        int[] order = ctx.queue();
+        int size = 0;
+        // give up on groups no start can fill after this many starts
+        for (int tries = 0; size < count && tries < count + 100; tries++) {
+            int s = random.nextInt(n);
+            int settled = graph.settleWithin(s, Double.POSITIVE_INFINITY, ctx, CompactGraph.DEFAULT_HEAP, order);
+            if (kind == Kind.DIJKSTRA_RANK) {
+                for (int r = 0; (1 << r) < settled && size < count; r++) {
+                    starts[size] = s;
+                    goals[size] = order[1 << r];
+                    groups[size++] = (byte) r;
+                }
+            } else {
+                // order is sorted by distance, so each bucket is a run of it
+                int from = 1;
+                for (int b = 0; b < DISTANCE_BUCKETS && size < count; b++) {
+                    double limit = b == DISTANCE_BUCKETS - 1 ? Double.POSITIVE_INFINITY
+                            : FIRST_BUCKET_KM * (1 << b);
+                    int to = from;
+                    while (to < settled && ctx.distance(order[to]) < limit) to++;
+                    if (to > from) {
+                        starts[size] = s;
+                        goals[size] = order[from + random.nextInt(to - from)];
+                        groups[size++] = (byte) b;
+                    }
+                    from = to;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Read a workload written by save()
+     * @param graph The graph the workload is for
+     * @param filename The workload file
+     * @return The workload, or null if it was made for another graph
+     * @throws IOException If the file cannot be read or is not a workload file
+     */
+    public static Workload load(CompactGraph graph, String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filename)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a workload file: " + filename);
+            }
+            if (in.readInt() != VERSION || in.readLong() != graph.fingerprint()) {
+                return null;
+            }
+            Kind kind = Kind.values()[in.readInt()];
+            long seed = in.readLong();
+            int count = in.readInt();
+            int[] starts = new int[count];
+            int[] goals = new int[count];
+            byte[] groups = new byte[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = in.readInt();
+                goals[i] = in.readInt();
+                groups[i] = in.readByte();
+            }
+            return new Workload(graph, kind, seed, starts, goals, groups);
+        }
+    }
+
+    /**
+     * Write the workload, tagged with the fingerprint of the graph
+     * @param filename The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void save(String filename) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(filename)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(graph.fingerprint());
+            out.writeInt(kind.ordinal());
+            out.writeLong(seed);
+            out.writeInt(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                out.writeInt(starts[i]);
+                out.writeInt(goals[i]);
+                out.writeByte(groups[i]);
+            }
+        }
+    }
+
+    /** @return The graph the workload queries */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /** @return How the queries were chosen */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** @return The seed the queries were chosen with */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** @return The number of queries */
+    public int size() {
+        return starts.length;
+    }
+
+    /** @return The number of groups, one more than the largest group */
+    public int getNumGroups() {
+        int max = -1;
+        for (byte group : groups) {
+            max = Math.max(max, group);
+        }
+        return max + 1;
+    }
+
+    /**
+     * @param i A query number, from 0 to size() - 1
+     * @return Where the query starts
+     */
+    public GeographicPoint getStart(int i) {
+        return graph.getPoint(starts[i]);
+    }
+
+    /**
+     * @param i A query number, from 0 to size() - 1
+     * @return Where the query ends
+     */
+    public GeographicPoint getGoal(int i) {
+        return graph.getPoint(goals[i]);
+    }
+
+    /**
+     * @param i A query number, from 0 to size() - 1
+     * @return The group of the query
+     */
+    public int getGroup(int i) {
+        return groups[i];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: java roadgraph.Workload map kind queries file [seed]");
+            System.out.println("  kind is one of " + Arrays.toString(Kind.values()));
+            return;
+        }
+        MapGraph map = new MapGraph();
+        GraphLoader.loadRoadMap(args[0], map);
+        Kind kind = Kind.valueOf(args[1]);
+        int count = Integer.parseInt(args[2]);
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 2016;
+
+        Workload workload = generate(map.freeze(), kind, count, seed);
+        workload.save(args[3]);
+        System.out.println("Wrote " + workload.size() + " " + kind + " queries in "
+                + workload.getNumGroups() + " groups to " + args[3]);
+    }
+}
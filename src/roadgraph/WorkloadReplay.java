@@ -0,0 +1,175 @@
+package roadgraph;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import util.GraphLoader;
+import util.LatencyHistogram;
+
+/**
+ * Runs a Workload against one of the searches of MapGraph.findRoute from
+ * a number of threads at once, like that many clients each sending their
+ * next query as soon as the last one is answered.
+ *
+ * Every route is checked against the length of the route a reference
+ * Dijkstra finds, which is computed before the run (so BFS, which finds
+ * the fewest intersections, shows wrong routes).  The workload is run
+ * once untimed to warm up, then once measured.  The report gives the
+ * throughput, the number of wrong routes, and the median, 99th and 99.9th
+ * percentile latencies, over all queries and for each group of the
+ * workload.
+ *
+ * Run from the project root:
+ *   java roadgraph.WorkloadReplay map workload [algorithm] [threads]
+ * where algorithm is one of SearchAlgorithm (default A_STAR) and threads
+ * defaults to the number of processors.
+ */
+public class WorkloadReplay {
+    /** Relative difference in length still counted as the same route */
+    private static final double TOLERANCE = 1e-9;
+
+    private final MapGraph map;
+    private final Workload workload;
+    private final SearchAlgorithm algorithm;
+    private final int threads;
+    /** Length of the reference route of each query, or -1 if it has none */
+    private final double[] reference;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder wrong = new LongAdder();
+    private LatencyHistogram all;
+    private LatencyHistogram[] byGroup;
+
+    /**
+     * Prepare a replay, finding the reference routes
+     * @param map The graph to route on
+     * @param workload The queries, made for map.freeze()
+     * @param algorithm The search to run
+     * @param threads The number of queries to run at once
+     */
+    public WorkloadReplay(MapGraph map, Workload workload, SearchAlgorithm algorithm, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.map = map;
+        this.workload = workload;
+        this.algorithm = algorithm;
+        this.threads = threads;
+        reference = new double[workload.size()];
+        for (int i = 0; i < reference.length; i++) {
+            reference[i] = lengthOf(map.findRoute(workload.getStart(i), workload.getGoal(i),
+                    SearchAlgorithm.DIJKSTRA, (x) -> {}, null));
+        }
+    }
+
+    /**
+     * Run the workload once, recording latencies and wrong routes from
+     * scratch
+     * @return The queries answered per second
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public double run() throws InterruptedException {
+        all = new LatencyHistogram();
+        byGroup = new LatencyHistogram[workload.getNumGroups()];
+        for (int g = 0; g < byGroup.length; g++) {
+            byGroup[g] = new LatencyHistogram();
+        }
+        wrong.reset();
+        next.set(0);
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::work, "replay-" + i);
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) t.start();
+        for (Thread t : workers) t.join();
+        long nanos = System.nanoTime() - start;
+        return workload.size() / (nanos / 1e9);
+    }
+
+    // Answer queries until there are none left
+    private void work() {
+        int i;
+        while ((i = next.getAndIncrement()) < workload.size()) {
+            long before = System.nanoTime();
+            Route route = map.findRoute(workload.getStart(i), workload.getGoal(i), algorithm, (x) -> {}, null);
+            long nanos = System.nanoTime() - before;
+            all.record(nanos);
+            byGroup[workload.getGroup(i)].record(nanos);
+            double length = lengthOf(route);
+            if (Math.abs(length - reference[i]) > TOLERANCE * Math.max(1, reference[i])) {
+                wrong.increment();
+            }
+        }
+    }
+
+    private static double lengthOf(Route route) {
+        return route == null ? -1 : route.getLength();
+    }
+
+    /** @return The number of routes of the last run that did not match the reference */
+    public long getWrong() {
+        return wrong.sum();
+    }
+
+    /** @return The latencies of the last run, in nanoseconds */
+    public LatencyHistogram getLatency() {
+        return all;
+    }
+
+    /**
+     * @param group A group of the workload
+     * @return The latencies of the last run's queries in the group, in nanoseconds
+     */
+    public LatencyHistogram getLatency(int group) {
+        return byGroup[group];
+    }
+
+    /**
+     * @return A header line, then a line for all queries and one for each
+     *   group with queries: the number of queries and the median, 99th and
+     *   99.9th percentile and largest latency in microseconds
+     */
+    public String latencyCsv() {
+        StringBuilder csv = new StringBuilder("group,queries,p50 us,p99 us,p99.9 us,max us\n");
+        csv.append(latencyLine("all", all));
+        for (int g = 0; g < byGroup.length; g++) {
+            if (byGroup[g].getCount() > 0) {
+                csv.append(latencyLine(Integer.toString(g), byGroup[g]));
+            }
+        }
+        return csv.toString();
+    }
+
+    private static String latencyLine(String name, LatencyHistogram latency) {
+        return String.format(Locale.ROOT, "%s,%d,%.1f,%.1f,%.1f,%.1f%n", name, latency.getCount(),
+                latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0,
+                latency.getPercentile(99.9) / 1000.0, latency.getMax() / 1000.0);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: java roadgraph.WorkloadReplay map workload [algorithm] [threads]");
+            return;
+        }
+        MapGraph map = new MapGraph();
+        GraphLoader.loadRoadMap(args[0], map);
+        Workload workload = Workload.load(map.freeze(), args[1]);
+        if (workload == null) {
+            System.out.println(args[1] + " was made for a different graph than " + args[0]);
+            return;
+        }
+        SearchAlgorithm algorithm = args.length > 2 ? SearchAlgorithm.valueOf(args[2]) : SearchAlgorithm.A_STAR;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        WorkloadReplay replay = new WorkloadReplay(map, workload, algorithm, threads);
+        replay.run();
+        double throughput = replay.run();
+        System.out.println(String.format(Locale.ROOT, "%d %s queries with %s on %d threads: %.1f queries/s, %d wrong",
+                workload.size(), workload.getKind(), algorithm, threads, throughput, replay.getWrong()));
+        System.out.print(replay.latencyCsv());
+    }
+}
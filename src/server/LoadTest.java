@@ -0,0 +1,139 @@
+package server;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import geography.GeographicPoint;
+import roadgraph.MapGraph;
+import roadgraph.SearchAlgorithm;
+import roadgraph.Workload;
+import util.GraphLoader;
+import util.LatencyHistogram;
+
+/**
+ * A load test client for RoutingServer.  It loads the same map file as the
+ * server, makes a Workload from it and sends every query as a /route
+ * request from a number of threads at once, each sending its next request
+ * as soon as the last is answered.  The workload is sent once untimed to
+ * warm up the server, then once measured; the report gives the requests
+ * per second, the failed requests and the latency percentiles, as seen by
+ * the client.
+ *
+ * Run from the project root, with the server running:
+ *   java server.LoadTest url map [kind] [queries] [threads] [algorithm]
+ * e.g. java server.LoadTest http://localhost:8080 data/maps/utc.map
+ */
+public class LoadTest {
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final String baseUrl;
+    private final String mapName;
+    private final Workload workload;
+    private final SearchAlgorithm algorithm;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder failed = new LongAdder();
+    private LatencyHistogram latency;
+
+    /**
+     * @param baseUrl Where the server is, e.g. http://localhost:8080
+     * @param mapName The name the server gives the map
+     * @param workload The queries to send
+     * @param algorithm The search to ask for
+     */
+    public LoadTest(String baseUrl, String mapName, Workload workload, SearchAlgorithm algorithm) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.mapName = mapName;
+        this.workload = workload;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Send the whole workload once
+     * @param threads The number of requests in flight at once
+     * @return The requests answered per second
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public double run(int threads) throws InterruptedException {
+        latency = new LatencyHistogram();
+        failed.reset();
+        next.set(0);
+        Thread[] clients = new Thread[threads];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Thread(this::send, "client-" + i);
+        }
+        long start = System.nanoTime();
+        for (Thread t : clients) t.start();
+        for (Thread t : clients) t.join();
+        long nanos = System.nanoTime() - start;
+        return workload.size() / (nanos / 1e9);
+    }
+
+    // Send requests until there are none left
+    private void send() {
+        int i;
+        while ((i = next.getAndIncrement()) < workload.size()) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url(i))).GET().build();
+            long before = System.nanoTime();
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    failed.increment();
+                }
+            } catch (IOException e) {
+                failed.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            latency.record(System.nanoTime() - before);
+        }
+    }
+
+    private String url(int i) {
+        GeographicPoint from = workload.getStart(i);
+        GeographicPoint to = workload.getGoal(i);
+        return baseUrl + "/route?map=" + mapName + "&algorithm=" + algorithm
+                + "&from=" + from.getX() + "," + from.getY() + "&to=" + to.getX() + "," + to.getY();
+    }
+
+    /** @return The requests of the last run that failed or were not answered with status 200 */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /** @return The latencies of the last run, in nanoseconds */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: java server.LoadTest url map [kind] [queries] [threads] [algorithm]");
+            return;
+        }
+        MapGraph map = new MapGraph();
+        GraphLoader.loadRoadMap(args[1], map);
+        Workload.Kind kind = args.length > 2 ? Workload.Kind.valueOf(args[2]) : Workload.Kind.DIJKSTRA_RANK;
+        int queries = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : 4 * Runtime.getRuntime().availableProcessors();
+        SearchAlgorithm algorithm = args.length > 5 ? SearchAlgorithm.valueOf(args[5]) : SearchAlgorithm.A_STAR;
+
+        Workload workload = Workload.generate(map.freeze(), kind, queries, 2016);
+        LoadTest test = new LoadTest(args[0], RoutingServer.mapName(args[1]), workload, algorithm);
+        test.run(threads);
+        double throughput = test.run(threads);
+        LatencyHistogram latency = test.getLatency();
+        System.out.println(String.format(Locale.ROOT,
+                "%d %s requests with %s from %d threads: %.1f requests/s, %d failed%n"
+                + "p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                workload.size(), kind, algorithm, threads, throughput, test.getFailed(),
+                latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0,
+                latency.getPercentile(99.9) / 1000.0, latency.getMax() / 1000.0));
+    }
+}
@@ -0,0 +1,415 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import geography.GeographicPoint;
+import roadgraph.MapGraph;
+import roadgraph.Route;
+import roadgraph.SearchAlgorithm;
+import roadgraph.SearchMetrics;
+import util.GraphLoader;
+
+/**
+ * A headless routing server: answers routing queries on one or more maps
+ * over HTTP, with JSON responses.
+ *
+ *   GET /route?map=M&amp;from=LAT,LON&amp;to=LAT,LON[&amp;algorithm=A]
+ *       the route between the intersections closest to from and to, found
+ *       with one of SearchAlgorithm (default A_STAR), as its length and
+ *       the points of its road geometry
+ *   GET /matrix?map=M&amp;sources=LAT,LON;LAT,LON...[&amp;targets=...]
+ *       the road distance from every source to every target (default the
+ *       sources), snapped to intersections; null where there is no route
+ *   GET /nearest?map=M&amp;lat=LAT&amp;lon=LON
+ *       the intersection closest to a location
+ *   GET /metrics
+ *       the SearchMetrics of every map
+ *
+ * The map parameter may be left out when only one map is loaded.  Bad
+ * requests get status 400 and unknown maps 404, with {"error": ...}.
+ *
+ * Each request is handled on its own virtual thread when the JVM has them
+ * (Java 21 on), and on a cached thread pool otherwise.  Searches do not run
+ * on those threads: each search context is as big as the graph, and a
+ * context per virtual thread would mean one per request.  The searches run
+ * instead on a fixed pool of one platform thread per core, so every search
+ * uses the context confined to its worker thread and all cores are kept
+ * busy, while the request threads only parse, wait and write.
+ *
+ * Start it from the project root with
+ *   java server.RoutingServer port map.map [map.map ...]
+ * A map is named by its file name without ".map", e.g. "utc".
+ */
+public class RoutingServer {
+    /** Largest number of sources or targets in one /matrix request */
+    public static final int MAX_MATRIX = 100;
+
+    static {
+        // The server writes the headers and the body of an answer apart, and
+        // with Nagle's algorithm on, the body then waits for the client's
+        // delayed ACK, some 40 ms per request.  Must be set before the JDK
+        // server reads its configuration.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Map<String, MapGraph> maps;
+    private final HttpServer http;
+    private final ExecutorService requests;
+    private final ExecutorService searches;
+
+    // An error to answer a request with
+    private static class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // The work of one endpoint: the JSON body of the answer to a request
+    private interface Endpoint {
+        String answer(Map<String, String> params) throws InterruptedException;
+    }
+
+    /**
+     * Create a server; call start() to start answering requests
+     * @param maps The maps to serve, by name
+     * @param port The port to listen on, or 0 for any free port
+     * @param searchThreads The number of threads to run searches on
+     * @throws IOException If the port cannot be bound
+     */
+    public RoutingServer(Map<String, MapGraph> maps, int port, int searchThreads) throws IOException {
+        if (maps.isEmpty()) {
+            throw new IllegalArgumentException("No maps to serve");
+        }
+        this.maps = new LinkedHashMap<>(maps);
+        for (MapGraph map : this.maps.values()) {
+            if (map.getSearchMetrics() == null) {
+                map.setSearchMetrics(new SearchMetrics());
+            }
+            map.freeze();
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        searches = Executors.newFixedThreadPool(searchThreads,
+                (r) -> new Thread(r, "search-" + threadNumber.incrementAndGet()));
+        requests = requestExecutor();
+
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.setExecutor(requests);
+        http.createContext("/route", (exchange) -> handle(exchange, this::route));
+        http.createContext("/matrix", (exchange) -> handle(exchange, this::matrix));
+        http.createContext("/nearest", (exchange) -> handle(exchange, this::nearest));
+        http.createContext("/metrics", (exchange) -> handle(exchange, this::metrics));
+    }
+
+    // A virtual thread per task if the JVM has virtual threads, else a
+    // cached pool.  Looked up by reflection so this still runs on Java 17.
+    private static ExecutorService requestExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Start answering requests */
+    public void start() {
+        http.start();
+    }
+
+    /** Stop answering requests and end the threads */
+    public void stop() {
+        http.stop(0);
+        requests.shutdown();
+        searches.shutdown();
+    }
+
+    /** @return The port the server listens on */
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    /**
+     * @param filename The path of a map file
+     * @return The name the server gives the map: the file name without
+     *   directories or ".map"
+     */
+    public static String mapName(String filename) {
+        String name = new File(filename).getName();
+        return name.endsWith(".map") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    // Answer a request with the JSON from endpoint, or with an error
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                throw new RequestException(405, "Only GET is supported");
+            }
+            body = endpoint.answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (RequestException e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 503;
+            body = error("Interrupted");
+        } catch (RuntimeException e) {
+            status = 500;
+            body = error(e.toString());
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    // Run a search on the search pool and wait for it
+    private <T> T search(Callable<T> task) throws InterruptedException {
+        try {
+            return searches.submit(task).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private String route(Map<String, String> params) throws InterruptedException {
+        String name = mapParam(params);
+        MapGraph map = maps.get(name);
+        GeographicPoint from = snap(map, point(required(params, "from")));
+        GeographicPoint to = snap(map, point(required(params, "to")));
+        SearchAlgorithm algorithm = params.containsKey("algorithm")
+                ? SearchAlgorithm.valueOf(params.get("algorithm").toUpperCase(Locale.ROOT))
+                : SearchAlgorithm.A_STAR;
+
+        Route route = search(() -> map.findRoute(from, to, algorithm, (x) -> {}, null));
+        StringBuilder json = new StringBuilder();
+        json.append("{\"map\": ").append(quote(name))
+                .append(", \"algorithm\": ").append(quote(algorithm.toString()))
+                .append(", \"from\": ").append(coordinates(from))
+                .append(", \"to\": ").append(coordinates(to))
+                .append(", \"found\": ").append(route != null);
+        if (route != null) {
+            json.append(String.format(Locale.ROOT, ", \"lengthKm\": %.6f, \"edges\": %d, \"path\": [",
+                    route.getLength(), route.getNumEdges()));
+            List<GeographicPoint> geometry = route.getGeometry();
+            for (int i = 0; i < geometry.size(); i++) {
+                if (i > 0) json.append(", ");
+                json.append(coordinates(geometry.get(i)));
+            }
+            json.append(']');
+        }
+        return json.append("}").toString();
+    }
+
+    private String matrix(Map<String, String> params) throws InterruptedException {
+        String name = mapParam(params);
+        MapGraph map = maps.get(name);
+        List<GeographicPoint> sources = points(map, required(params, "sources"));
+        List<GeographicPoint> targets = params.containsKey("targets")
+                ? points(map, params.get("targets")) : sources;
+
+        // the rows are searched in parallel on the search pool
+        double[][] distances = map.distanceMatrix(sources, targets, searches);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"map\": ").append(quote(name)).append(", \"sources\": [");
+        appendCoordinates(json, sources);
+        json.append("], \"targets\": [");
+        appendCoordinates(json, targets);
+        json.append("], \"distancesKm\": [");
+        for (int i = 0; i < distances.length; i++) {
+            if (i > 0) json.append(", ");
+            json.append('[');
+            for (int j = 0; j < distances[i].length; j++) {
+                if (j > 0) json.append(", ");
+                double d = distances[i][j];
+                json.append(Double.isInfinite(d) ? "null" : String.format(Locale.ROOT, "%.6f", d));
+            }
+            json.append(']');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String nearest(Map<String, String> params) {
+        String name = mapParam(params);
+        double lat = number(params, "lat");
+        double lon = number(params, "lon");
+        GeographicPoint vertex = snap(maps.get(name), new GeographicPoint(lat, lon));
+        return String.format(Locale.ROOT, "{\"map\": %s, \"vertex\": %s, \"distanceKm\": %.6f}",
+                quote(name), coordinates(vertex),
+                GeographicPoint.distance(lat, lon, vertex.getX(), vertex.getY()));
+    }
+
+    private String metrics(Map<String, String> params) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, MapGraph> entry : maps.entrySet()) {
+            if (json.length() > 1) json.append(',');
+            json.append("\n").append(quote(entry.getKey())).append(": ")
+                    .append(entry.getValue().getSearchMetrics().toJson().trim());
+        }
+        return json.append("\n}\n").toString();
+    }
+
+    // The name of the map a request asks for
+    private String mapParam(Map<String, String> params) {
+        String name = params.get("map");
+        if (name == null) {
+            if (maps.size() == 1) return maps.keySet().iterator().next();
+            throw new IllegalArgumentException("Missing parameter map, one of " + maps.keySet());
+        }
+        if (!maps.containsKey(name)) {
+            throw new RequestException(404, "No map " + name + ", only " + maps.keySet());
+        }
+        return name;
+    }
+
+    private static String required(Map<String, String> params, String key) {
+        String value = params.get(key);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + key);
+        }
+        return value;
+    }
+
+    private static double number(Map<String, String> params, String key) {
+        String value = required(params, key);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + key + " is not a number: " + value);
+        }
+    }
+
+    // Parse "lat,lon"
+    private static GeographicPoint point(String text) {
+        String[] parts = text.split(",");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected lat,lon but got " + text);
+        }
+        try {
+            return new GeographicPoint(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected lat,lon but got " + text);
+        }
+    }
+
+    // Parse "lat,lon;lat,lon;..." and snap each point to the graph
+    private static List<GeographicPoint> points(MapGraph map, String text) {
+        String[] parts = text.split(";");
+        if (parts.length > MAX_MATRIX) {
+            throw new IllegalArgumentException("At most " + MAX_MATRIX + " points are allowed, got " + parts.length);
+        }
+        List<GeographicPoint> points = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            points.add(snap(map, point(part)));
+        }
+        return points;
+    }
+
+    private static GeographicPoint snap(MapGraph map, GeographicPoint location) {
+        GeographicPoint vertex = map.nearestVertex(location.getX(), location.getY());
+        if (vertex == null) {
+            throw new IllegalArgumentException("The map has no intersections");
+        }
+        return vertex;
+    }
+
+    private static void appendCoordinates(StringBuilder json, List<GeographicPoint> points) {
+        for (int i = 0; i < points.size(); i++) {
+            if (i > 0) json.append(", ");
+            json.append(coordinates(points.get(i)));
+        }
+    }
+
+    private static String coordinates(GeographicPoint p) {
+        return "[" + p.getX() + ", " + p.getY() + "]";
+    }
+
+    private static String error(String message) {
+        return "{\"error\": " + quote(String.valueOf(message)) + "}";
+    }
+
+    // A JSON string
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java server.RoutingServer port map.map [map.map ...]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        Map<String, MapGraph> maps = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            MapGraph map = new MapGraph();
+            GraphLoader.loadRoadMap(args[i], map);
+            maps.put(mapName(args[i]), map);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        RoutingServer server = new RoutingServer(maps, port, cores);
+        server.start();
+        System.out.println("Serving " + maps.keySet() + " on port " + server.getPort()
+                + " with " + cores + " search threads");
+    }
+}
@@ -17,11 +17,11 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import basicgraph.Graph;
 import geography.GeographicPoint;
+import geography.PointIndex;
+import geography.RoadNames;
 import geography.RoadSegment;
 import roadgraph.MapGraph;
 
@@ -45,30 +45,23 @@ public class GraphLoader
 	 */
 	public static void createIntersectionsFile(String roadDataFile, String intersectionsFile)
 	{
-		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(roadDataFile);
+        PointMap pointMap = buildPointMapOneWay(roadDataFile);
 		
         // Print the intersections to the file
 		List<GeographicPoint> intersections = findIntersections(pointMap);
-		for (GeographicPoint pt : intersections) {
-			nodes.add(pt);
-		}
+		PointIndex nodes = indexOf(intersections);
 
 		try {
 			PrintWriter writer = new PrintWriter(intersectionsFile, "UTF-8");
 
 			// Now we need to add the edges
 			// This is the tricky part
-			for (GeographicPoint pt : nodes) {
+			for (GeographicPoint pt : intersections) {
 				// Trace the node to its next node, building up the points 
 				// on the edge as you go.
 				List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
 				LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
 				for (RoadLineInfo info : outgoing) {
-					HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
-					used.add(pt);
-				
 					List<GeographicPoint> pointsOnEdge = 
 							findPointsOnEdge(pointMap, info, nodes);
 					GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
@@ -130,26 +123,98 @@ public class GraphLoader
 	 * @param map The graph to load the map into.  The graph is
 	 *   assumed to be directed.
 	 */
-	public static void loadRoadMap(String filename, roadgraph.MapGraph map,  
-			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
-			Set<GeographicPoint> intersectionsToLoad)
+	public static void loadRoadMap(String filename, final roadgraph.MapGraph map,  
+			final HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
+			final Set<GeographicPoint> intersectionsToLoad)
+	{
+		traceRoadMap(filename, graphBuilder(map, segments, intersectionsToLoad));
+	}
+
+	/** A handler that adds the intersections and roads it is given, with
+	 * their geometry, to map, and to segments and intersectionsToLoad if
+	 * they are not null. */
+	static RoadMapHandler graphBuilder(final roadgraph.MapGraph map,
+			final HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			final Set<GeographicPoint> intersectionsToLoad)
+	{
+		// the segments' road names, kept for as long as any of them is
+		final RoadNames names = segments == null ? null : new RoadNames();
+		return new RoadMapHandler() {
+			public void intersection(GeographicPoint pt) {
+				map.addVertex(pt);
+				if (intersectionsToLoad != null) {
+					intersectionsToLoad.add(pt);
+				}
+			}
+
+			public void road(GeographicPoint start, GeographicPoint end,
+					List<GeographicPoint> pointsOnEdge, String roadName,
+					String roadType, double length) {
+				map.addEdge(start, end, roadName, roadType, length, pointsOnEdge);
+				// If the segments variable is not null, then we 
+				// also save the road geometry as RoadSegments
+				if (segments != null) {
+					addSegment(segments, new RoadSegment(start, end, pointsOnEdge, 
+							roadName, roadType, length, names));
+				}
+			}
+		};
+	}
+
+	/** Receives the intersections and the roads between them as a map
+	 * file is collapsed.  All intersections are reported before any road.
+	 */
+	interface RoadMapHandler
 	{
-		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(filename);
+		void intersection(GeographicPoint pt);
+
+		/** A road from one intersection to the next, with the points
+		 * in between (not including start and end) and its length in km */
+		void road(GeographicPoint start, GeographicPoint end,
+				List<GeographicPoint> pointsOnEdge, String roadName,
+				String roadType, double length);
+	}
+
+	/** Read a map file, collapse it so only intersections are nodes, and
+	 * report the intersections and the roads between them to handler.
+	 * @param filename The file containing the road data
+	 * @param handler Receives the intersections, then the roads
+	 */
+	static void traceRoadMap(String filename, RoadMapHandler handler)
+	{
+        PointMap pointMap = buildPointMapOneWay(filename);
 		
         // Add the nodes to the graph
 		List<GeographicPoint> intersections = findIntersections(pointMap);
 		for (GeographicPoint pt : intersections) {
-			map.addVertex(pt);
-			if (intersectionsToLoad != null) {
-				intersectionsToLoad.add(pt);
-			}
-			nodes.add(pt);
+			handler.intersection(pt);
 		}
 		
-		
-		addEdgesAndSegments(nodes, pointMap, map, segments);
+		traceEdges(intersections, indexOf(intersections), pointMap, handler);
+	}
+
+	/** Number the intersections in order, for finding them by location */
+	static PointIndex indexOf(List<GeographicPoint> intersections)
+	{
+		PointIndex nodes = new PointIndex(intersections.size());
+		for (GeographicPoint pt : intersections) {
+			nodes.put(pt, nodes.size());
+		}
+		return nodes;
+	}
+
+	/** Add a road segment to the sets of both of its end points */
+	static void addSegment(HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			RoadSegment seg)
+	{
+		for (GeographicPoint pt : new GeographicPoint[] {seg.getStart(), seg.getEnd()}) {
+			HashSet<RoadSegment> segs = segments.get(pt);
+			if (segs == null) {
+				segs = new HashSet<RoadSegment>();
+				segments.put(pt, segs);
+			}
+			segs.add(seg);
+		}
 	}
 
 	
@@ -173,22 +238,19 @@ public class GraphLoader
 	 */
 	public static void loadRoadMap(String filename, basicgraph.Graph theGraph)
 	{
-		HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(filename);
+		PointMap pointMap = buildPointMapOneWay(filename);
 		
 		HashMap<Integer,GeographicPoint> vertexMap = 
 				new HashMap<Integer,GeographicPoint>();
-		HashMap<GeographicPoint,Integer> reverseMap = 
-				new HashMap<GeographicPoint,Integer>();
 		
         // Add the nodes to the graph
 		List<GeographicPoint> intersections = findIntersections(pointMap);
+		PointIndex reverseMap = indexOf(intersections);
 		
 		int index = 0;
 		for (GeographicPoint pt : intersections) {
 			theGraph.addVertex();
 			vertexMap.put(index, pt);
-			reverseMap.put(pt, index);
 			index++;
 		}
 		
@@ -203,7 +265,7 @@ public class GraphLoader
 			for (RoadLineInfo info : infoList) {
 				GeographicPoint end = findEndOfEdge(pointMap, info, theGraph, 
 						reverseMap);
-				Integer endNum = reverseMap.get(end);
+				int endNum = reverseMap.get(end);
 				theGraph.addEdge(nodeNum, endNum);
 			}
 		}
@@ -320,50 +382,26 @@ public class GraphLoader
 
 	
 	// Once you have built the pointMap and added the Nodes, 
-	// add the edges and build the road segments if the segments
-	// map is not null.
-	private static void addEdgesAndSegments(Collection<GeographicPoint> nodes, 
-			HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
-			MapGraph map, 
-			HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
+	// trace each road out of every node to the next node.
+	private static void traceEdges(List<GeographicPoint> intersections, PointIndex nodes,
+			PointMap pointMap, RoadMapHandler handler)
 	{
 	
 		// Now we need to add the edges
 		// This is the tricky part
-		for (GeographicPoint pt : nodes) {
+		RoadNames names = pointMap.names();
+		for (GeographicPoint pt : intersections) {
 			// Trace the node to its next node, building up the points 
 			// on the edge as you go.
 			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
 			LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
 			for (RoadLineInfo info : outgoing) {
-				HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
-				used.add(pt);
-				
 				List<GeographicPoint> pointsOnEdge = 
 						findPointsOnEdge(pointMap, info, nodes);
 				GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
 				double length = getRoadLength(pt, end, pointsOnEdge);
-				map.addEdge(pt, end, info.roadName, info.roadType, length);
-
-				// If the segments variable is not null, then we 
-				// save the road geometry
-				if (segments != null) {
-					// Now create road Segments for each edge
-					HashSet<RoadSegment> segs = segments.get(pt);
-					if (segs == null) {
-						segs = new HashSet<RoadSegment>();
-						segments.put(pt,segs);
-					}
-					RoadSegment seg = new RoadSegment(pt, end, pointsOnEdge, 
-							info.roadName, info.roadType, length);
-					segs.add(seg);
-					segs = segments.get(end);
-					if (segs == null) {
-						segs = new HashSet<RoadSegment>();
-						segments.put(end,segs);
-					}
-					segs.add(seg);
-				}
+				handler.road(pt, end, pointsOnEdge, names.name(info.label),
+						names.type(info.label), length);
 			}
 		}
 	}
@@ -371,7 +409,7 @@ public class GraphLoader
 	
 	// Calculate the length of this road segment taking into account all of the 
 	// intermediate geographic points.
-	private static double getRoadLength(GeographicPoint start, GeographicPoint end,
+	static double getRoadLength(GeographicPoint start, GeographicPoint end,
 			List<GeographicPoint> path)
 	{
 		double dist = 0.0;
@@ -384,9 +422,8 @@ public class GraphLoader
 		return dist;
 	}
 	
-	private static List<GeographicPoint>
-	findPointsOnEdge(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
-		RoadLineInfo info, Collection<GeographicPoint> nodes) 
+	static List<GeographicPoint>
+	findPointsOnEdge(PointMap pointMap, RoadLineInfo info, PointIndex nodes) 
 	{
 		List<GeographicPoint> toReturn = new LinkedList<GeographicPoint>();
 		GeographicPoint pt = info.point1;
@@ -417,15 +454,14 @@ public class GraphLoader
 	// Find the other end of the road segment.  Trace through the pointMap 
 	// starting from the first point in this info until you get to the second.
 	private static GeographicPoint
-	findEndOfEdge(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
-		RoadLineInfo info, basicgraph.Graph graph, 
-		HashMap<GeographicPoint, Integer> reverseMap) 
+	findEndOfEdge(PointMap pointMap, RoadLineInfo info, basicgraph.Graph graph, 
+		PointIndex reverseMap) 
 	{
 		
 		GeographicPoint pt = info.point1;
 		GeographicPoint end = info.point2;
-		Integer endNum = reverseMap.get(end);
-		while (endNum==null) {
+		int endNum = reverseMap.get(end);
+		while (endNum < 0) {
 			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(end);
 			List<RoadLineInfo> nextLines = inAndOut.get(0);
 			RoadLineInfo nextInfo = nextLines.get(0);
@@ -450,90 +486,93 @@ public class GraphLoader
 	// or intersections between two different roads, or where three
 	// or more segments of the same road meet.
 	private static List<GeographicPoint> 
-	findIntersections(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap) {
+	findIntersections(PointMap pointMap) {
 		// Now find the intersections.  These are roads that do not have
 		// Exactly 1 or 2 roads coming in and out, where the roads in
 		// match the roads out.
-		List<GeographicPoint> intersections = new LinkedList<GeographicPoint>();
-		for (GeographicPoint pt : pointMap.keySet()) {
-			List<LinkedList<RoadLineInfo>> roadsInAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
-			LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
-			
-			boolean isNode = true;
-			
-			if (roadsIn.size() == 1 && roadsOut.size() == 1) {
-				// If these are the reverse of each other, then this is
-				// and intersection (dead end)
-				if (!(roadsIn.get(0).point1.equals(roadsOut.get(0).point2) &&
-						roadsIn.get(0).point2.equals(roadsOut.get(0).point1))
-						&& roadsIn.get(0).roadName.equals(roadsOut.get(0).roadName)) {
-					isNode = false;
-				}
+		List<GeographicPoint> intersections = new ArrayList<GeographicPoint>();
+		for (int id = 0; id < pointMap.size(); id++) {
+			if (isIntersection(pointMap.get(id), pointMap.names())) {
+				intersections.add(pointMap.point(id));
 			}
-			if (roadsIn.size() == 2 && roadsOut.size() == 2) {
-				// If all the road segments have the same name, 
-				// And there are two pairs of reversed nodes, then 
-				// this is not an intersection because the roads pass
-				// through.
-			
-				String name = roadsIn.get(0).roadName;
-				boolean sameName = true;
-				for (RoadLineInfo info : roadsIn) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
+		}
+		return intersections;
+	}
+
+	// Whether a point is an intersection, given the road segments out of
+	// it and into it (see findIntersections), whose labels are in names
+	static boolean isIntersection(List<LinkedList<RoadLineInfo>> roadsInAndOut, RoadNames names)
+	{
+		LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
+		LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
+		
+		boolean isNode = true;
+		
+		if (roadsIn.size() == 1 && roadsOut.size() == 1) {
+			// If these are the reverse of each other, then this is
+			// and intersection (dead end)
+			if (!(roadsIn.get(0).point1.equals(roadsOut.get(0).point2) &&
+					roadsIn.get(0).point2.equals(roadsOut.get(0).point1))
+					&& names.sameName(roadsIn.get(0).label, roadsOut.get(0).label)) {
+				isNode = false;
+			}
+		}
+		if (roadsIn.size() == 2 && roadsOut.size() == 2) {
+			// If all the road segments have the same name, 
+			// And there are two pairs of reversed nodes, then 
+			// this is not an intersection because the roads pass
+			// through.
+		
+			int name = roadsIn.get(0).label;
+			boolean sameName = true;
+			for (RoadLineInfo info : roadsIn) {
+				if (!names.sameName(info.label, name)) {
+					sameName = false;
 				}
-				for (RoadLineInfo info : roadsOut) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
+			}
+			for (RoadLineInfo info : roadsOut) {
+				if (!names.sameName(info.label, name)) {
+					sameName = false;
 				}
+			}
+			
+			RoadLineInfo in1 = roadsIn.get(0);
+			RoadLineInfo in2 = roadsIn.get(1);
+			RoadLineInfo out1 = roadsOut.get(0);
+			RoadLineInfo out2 = roadsOut.get(1);
+	
+			boolean passThrough = false;
+			if ((in1.isReverse(out1) && in2.isReverse(out2)) ||
+					(in1.isReverse(out2) && in2.isReverse(out1))) {
 				
-				RoadLineInfo in1 = roadsIn.get(0);
-				RoadLineInfo in2 = roadsIn.get(1);
-				RoadLineInfo out1 = roadsOut.get(0);
-				RoadLineInfo out2 = roadsOut.get(1);
-		
-				boolean passThrough = false;
-				if ((in1.isReverse(out1) && in2.isReverse(out2)) ||
-						(in1.isReverse(out2) && in2.isReverse(out1))) {
-					
-					passThrough = true;
-				} 
-				
-				if (sameName && passThrough) {
-					isNode = false;
-				} 
-
+				passThrough = true;
 			} 
-			if (isNode) {
-				intersections.add(pt);
-			}
-		}
-		return intersections;
+			
+			if (sameName && passThrough) {
+				isNode = false;
+			} 
+
+		} 
+		return isNode;
 	}
 		
 	// Build the map from points to lists of lists of lines.
-	// The map returned is indexed by a GeographicPoint.  The values
-	// are lists of length two where each entry in the list is a list.
-	// The first list stores the outgoing roads while the second 
-	// stores the outgoing roads.
-	private static HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
-	buildPointMapOneWay(String filename)
+	// The map holds, for each point, a list of length two where each
+	// entry in the list is a list.  The first list stores the outgoing
+	// roads while the second stores the incoming roads.  Points are
+	// numbered in the order they first appear in the file.
+	private static PointMap buildPointMapOneWay(String filename)
 	{
-		BufferedReader reader = null;
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
+        final PointMap pointMap = new PointMap(1024);
 		try {
-            String nextLine;
-            reader = new BufferedReader(new FileReader(filename));
-            // Read the lines out of the file and put them in a HashMap by points
-            while ((nextLine = reader.readLine()) != null) {
-            	RoadLineInfo line = splitInputString(nextLine);
-            	addToPointsMapOneWay(line, pointMap);
-            }
-            reader.close();
+			MapFileReader.read(filename, (lat1, lon1, lat2, lon2, roadName, roadType) -> {
+				int id1 = pointMap.intern(lat1, lon1);
+				int id2 = pointMap.intern(lat2, lon2);
+				RoadLineInfo line = new RoadLineInfo(pointMap.point(id1), pointMap.point(id2),
+						pointMap.names().label(roadName, roadType));
+				pointMap.get(id1).get(0).add(line);
+				pointMap.get(id2).get(1).add(line);
+			});
         } catch (IOException e) {
             System.err.println("Problem loading dictionary file: " + filename);
             e.printStackTrace();
@@ -541,62 +580,6 @@ public class GraphLoader
 		
 		return pointMap;
 	}
-
-
-	// Add the next line read from the file to the points map.
-	private static void 
-	addToPointsMapOneWay(RoadLineInfo line,
-						HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> map)
-	{
-		List<LinkedList<RoadLineInfo>> pt1Infos = map.get(line.point1);
-		if (pt1Infos == null) {
-			pt1Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			map.put(line.point1, pt1Infos);
-		}
-		List<RoadLineInfo> outgoing = pt1Infos.get(0);
-		outgoing.add(line);
-		
-		List<LinkedList<RoadLineInfo>> pt2Infos = map.get(line.point2);
-		if (pt2Infos == null) {
-			pt2Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			map.put(line.point2, pt2Infos);
-		}
-		List<RoadLineInfo> incoming = pt2Infos.get(1);
-		incoming.add(line);
-		
-	}
-	
-	// Split the input string into the line information
-	private static RoadLineInfo splitInputString(String input)
-	{	
-		
-		ArrayList<String> tokens = new ArrayList<String>();
-		Pattern tokSplitter = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"");
-		Matcher m = tokSplitter.matcher(input);
-		
-		while (m.find()) {
-			if (m.group(1) != null) {
-				tokens.add(m.group(1));	
-			}
-			else {
-				tokens.add(m.group());
-			}
-		}
-
-    	double lat1 = Double.parseDouble(tokens.get(0));
-        double lon1 = Double.parseDouble(tokens.get(1));
-        double lat2 = Double.parseDouble(tokens.get(2));
-        double lon2 = Double.parseDouble(tokens.get(3));
-        GeographicPoint p1 = new GeographicPoint(lat1, lon1);
-        GeographicPoint p2 = new GeographicPoint(lat2, lon2);
-
-        return new RoadLineInfo(p1, p2, tokens.get(4), tokens.get(5));
-		
-	}
 	
 	public static void main(String[] args)
 	{
@@ -613,104 +596,4 @@ public class GraphLoader
 
 	}
 	
-}	
-	
-
-// A class to store information about the lines in the road files.
-class RoadLineInfo
-{
-	GeographicPoint point1;
-	GeographicPoint point2;
-	
-	String roadName;
-	String roadType;
-	
-	/** Create a new RoadLineInfo object to store information about the line 
-	 * read from the file
-	 * @param p1 One of the points
-	 * @param p2 The other point
-	 * @param roadName The name of the road
-	 * @param roadType The type of the road
-	 */
-	RoadLineInfo(GeographicPoint p1, GeographicPoint p2, String roadName, String roadType) 
-	{
-		point1 = p1;
-		point2 = p2;
-		this.roadName = roadName;
-		this.roadType = roadType;
-	}
-	
-	
-	/** Get the other point from this roadLineInfo */
-	public GeographicPoint getOtherPoint(GeographicPoint pt)
-	{
-		if (pt == null) throw new IllegalArgumentException();
-		if (pt.equals(point1)) {
-			return point2;
-		}
-		else if (pt.equals(point2)) {
-			return point1;
-		}
-		else throw new IllegalArgumentException();
-	}
-	
-	/** Two RoadLineInfo objects are considered equal if they have the same
-	 * two points and the same roadName and roadType.
-	 */
-	public boolean equals(Object o)
-	{
-		if (o == null || !(o instanceof RoadLineInfo))
-		{
-			return false;
-		}
-		RoadLineInfo info = (RoadLineInfo)o;
-		return info.point1.equals(this.point1) && info.point2.equals(this.point2)  &&
-				info.roadType.equals(this.roadType) && info.roadName.equals(this.roadName);
-				
-	}
-	
-	/** Calculate the hashCode based on the hashCodes of the two points
-	 * @return The hashcode for this object.
-	 */
-	public int hashCode()
-	{
-		return point1.hashCode() + point2.hashCode();
-		
-	}
-	
-	/** Returns whether these segments are part of the same road in terms of
-	 * road name and road type.
-	 * @param info The RoadLineInfo to compare against.
-	 * @return true if these represent the same road, false otherwise.
-	 */
-	public boolean sameRoad(RoadLineInfo info)
-	{
-		return info.roadName.equals(this.roadName) && info.roadType.equals(this.roadType);
-	}
-	
-	/** Return a copy of this LineInfo in the other direction */
-	public RoadLineInfo getReverseCopy()
-	{
-		return new RoadLineInfo(this.point2, this.point1, this.roadName, this.roadType);
-	}
-	
-	/** Return true if this road is the same segment as other, but in reverse
-	 *   Otherwise return false.
-	 */
-	public boolean isReverse(RoadLineInfo other)
-	{
-		return this.point1.equals(other.point2) && this.point2.equals(other.point1) &&
-				this.roadName.equals(other.roadName) && this.roadType.equals(other.roadType);
-	}
-	
-	/** Return the string representation of this LineInfo. */
-	public String toString()
-	{
-		return this.point1 + " " + this.point2 + " " + this.roadName + " " + this.roadType;
-		
-	}
-	
-	
-	
-	
 }
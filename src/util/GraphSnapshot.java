@@ -0,0 +1,446 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import geography.GeographicPoint;
+import geography.PointIndex;
+import geography.RoadNames;
+import geography.RoadSegment;
+import roadgraph.MapGraph;
+import roadgraph.MappedGraph;
+
+/**
+ * A precompiled binary copy of a .map file: the intersections, the roads
+ * between them with their lengths, names, types and geometry, exactly as
+ * GraphLoader.loadRoadMap produces them.  Loading a snapshot skips parsing
+ * the text and collapsing the road segments into intersections, which is
+ * where nearly all of the time of loadRoadMap goes.
+ *
+ * The snapshot is read through a memory mapped FileChannel.  It starts
+ * with a fixed header:
+ *
+ *   int    magic "MAPS"
+ *   int    format version
+ *   long   last modified time of the .map file it was made from
+ *   long   length of the .map file it was made from
+ *   long   length of the payload
+ *   int    CRC32 of the payload
+ *   int    position of the search index
+ *
+ * followed by the payload:
+ *
+ *   int    number of strings, then each as int length + UTF-8 bytes
+ *   int    number of intersections n, then n x (double lat, double lon)
+ *   int    number of roads m, then m x (int from, int to, double length,
+ *          int name, int type, int geometry points)
+ *   the geometry points of every road in order, as (double lat, double lon)
+ *   the search index: int position of the intersections, int position of
+ *          the roads, (n + 1) x int the first road out of each
+ *          intersection, and n x (long PointIndex key, int intersection)
+ *          sorted by key
+ *
+ * Names and types are indexes into the string table, so each distinct
+ * name is stored once.  The roads out of an intersection are stored
+ * together, in the order of the intersections, so with the search index
+ * the snapshot is a CSR graph that mapRoadMap can search in place, as a
+ * MappedGraph, without copying the map onto the heap.
+ */
+public class GraphSnapshot
+{
+	/** "MAPS" */
+	private static final int MAGIC = 0x4d415053;
+	private static final int VERSION = 3;
+	private static final int HEADER = 40;
+	private static final int CRC_OFFSET = 32;
+	private static final int INDEX_OFFSET = 36;
+	/** Bytes in the record of one road: 5 ints and a double */
+	private static final int ROAD = 28;
+
+	/**
+	 * Load a map through its snapshot, which is kept next to the map file
+	 * (the map file name with ".snapshot" appended).  The snapshot is
+	 * (re)built from the map file if it is missing, damaged, in an old
+	 * format, or was made from a map file with another modification time
+	 * or length.  Any difference counts, not only a newer map file, since
+	 * a checkout or a restored backup can bring back an older one.
+	 *
+	 * @param mapFile The .map file
+	 * @param map The graph to load the map into
+	 * @param segments If not null, receives the road geometry as in
+	 *   GraphLoader.loadRoadMap
+	 * @param intersections If not null, receives the intersections
+	 */
+	public static void loadRoadMap(String mapFile, MapGraph map,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			Set<GeographicPoint> intersections)
+	{
+		String snapshotFile = mapFile + ".snapshot";
+		File source = new File(mapFile);
+		long modified = source.lastModified();
+		long length = source.length();
+		if (new File(snapshotFile).exists()) {
+			try {
+				if (read(snapshotFile, modified, length, map, segments, intersections)) {
+					return;
+				}
+			}
+			catch (IOException e) {
+				System.err.println("Problem loading snapshot file: " + snapshotFile);
+				e.printStackTrace();
+			}
+		}
+
+		// save a snapshot of the map, and load that, as it is quicker
+		// than collapsing the map a second time
+		try {
+			write(mapFile, snapshotFile);
+			if (read(snapshotFile, modified, length, map, segments, intersections)) {
+				return;
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Problem saving snapshot file: " + snapshotFile);
+			e.printStackTrace();
+		}
+		GraphLoader.loadRoadMap(mapFile, map, segments, intersections);
+	}
+
+	/**
+	 * Read a map file and write its snapshot
+	 * @param mapFile The .map file
+	 * @param snapshotFile The snapshot file to write
+	 * @throws IOException If the snapshot cannot be written
+	 */
+	public static void write(String mapFile, String snapshotFile) throws IOException
+	{
+		final List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		final PointIndex ids = new PointIndex();
+		final List<RoadSegment> roads = new ArrayList<RoadSegment>();
+		final RoadNames names = new RoadNames();
+		File source = new File(mapFile);
+		long modified = source.lastModified();
+		long length = source.length();
+
+		GraphLoader.traceRoadMap(mapFile, new GraphLoader.RoadMapHandler() {
+			public void intersection(GeographicPoint pt) {
+				ids.put(pt, points.size());
+				points.add(pt);
+			}
+
+			public void road(GeographicPoint start, GeographicPoint end,
+					List<GeographicPoint> pointsOnEdge, String roadName,
+					String roadType, double length) {
+				roads.add(new RoadSegment(start, end, pointsOnEdge, roadName, roadType, length, names));
+			}
+		});
+
+		HashMap<String,Integer> stringIds = new HashMap<String,Integer>();
+		List<String> strings = new ArrayList<String>();
+		for (RoadSegment road : roads) {
+			for (String s : new String[] {road.getRoadName(), road.getRoadType()}) {
+				if (!stringIds.containsKey(s)) {
+					stringIds.put(s, strings.size());
+					strings.add(s);
+				}
+			}
+		}
+
+		// write to a temporary file of our own, so a reader never sees half
+		// a snapshot, and two processes writing the same snapshot at once
+		// cannot move each other's unfinished file into place
+		File target = new File(snapshotFile).getAbsoluteFile();
+		File temp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp").toFile();
+		try {
+			writePayload(temp, modified, length, strings, stringIds, points, ids, roads);
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	private static void writePayload(File temp, long modified, long length,
+			List<String> strings, HashMap<String,Integer> stringIds,
+			List<GeographicPoint> points, PointIndex ids, List<RoadSegment> roads) throws IOException
+	{
+		long payload;
+		int indexAt;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(modified);
+			out.writeLong(length);
+			out.writeLong(0); // payload length, filled in below
+			out.writeInt(0);  // checksum, filled in below
+			out.writeInt(0);
+
+			out.writeInt(strings.size());
+			for (String s : strings) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.writeInt(points.size());
+			int pointsAt = out.size();
+			for (GeographicPoint pt : points) {
+				out.writeDouble(pt.getX());
+				out.writeDouble(pt.getY());
+			}
+			out.writeInt(roads.size());
+			int roadsAt = out.size();
+			for (RoadSegment road : roads) {
+				out.writeInt(ids.get(road.getStart()));
+				out.writeInt(ids.get(road.getEnd()));
+				out.writeDouble(road.getLength());
+				out.writeInt(stringIds.get(road.getRoadName()));
+				out.writeInt(stringIds.get(road.getRoadType()));
+				out.writeInt(road.getGeometry().size());
+			}
+			for (RoadSegment road : roads) {
+				for (GeographicPoint pt : road.getGeometry()) {
+					out.writeDouble(pt.getX());
+					out.writeDouble(pt.getY());
+				}
+			}
+			indexAt = out.size();
+			writeIndex(out, pointsAt, roadsAt, points, ids, roads);
+			out.flush();
+			payload = out.size() - HEADER;
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+			file.seek(CRC_OFFSET - 8);
+			file.writeLong(payload);
+			file.writeInt(checksum(file.getChannel(), payload));
+			file.writeInt(indexAt);
+		}
+	}
+
+	// Write the search index (see the class comment)
+	private static void writeIndex(DataOutputStream out, int pointsAt, int roadsAt,
+			final List<GeographicPoint> points, PointIndex ids, List<RoadSegment> roads) throws IOException
+	{
+		out.writeInt(pointsAt);
+		out.writeInt(roadsAt);
+		int[] offsets = new int[points.size() + 1];
+		int last = 0;
+		for (RoadSegment road : roads) {
+			int from = ids.get(road.getStart());
+			if (from < last) {
+				throw new IllegalStateException("Roads are not in the order of their start");
+			}
+			last = from;
+			offsets[from + 1]++;
+		}
+		for (int v = 0; v < points.size(); v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		for (int offset : offsets) {
+			out.writeInt(offset);
+		}
+
+		final long[] keys = new long[points.size()];
+		Integer[] byKey = new Integer[points.size()];
+		for (int v = 0; v < keys.length; v++) {
+			keys[v] = PointIndex.key(points.get(v).getX(), points.get(v).getY());
+			byKey[v] = v;
+		}
+		Arrays.sort(byKey, (a, b) -> Long.compare(keys[a], keys[b]));
+		for (int v : byKey) {
+			out.writeLong(keys[v]);
+			out.writeInt(v);
+		}
+	}
+
+	private static int checksum(FileChannel channel, long payload) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(channel.map(FileChannel.MapMode.READ_ONLY, HEADER, payload));
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Load a map from its snapshot
+	 * @param snapshotFile The snapshot file
+	 * @param modified The last modified time of the map file
+	 * @param length The length of the map file; a snapshot made from a
+	 *   map file with another modification time or length is not loaded
+	 * @param map The graph to load the map into
+	 * @param segments If not null, receives the road geometry
+	 * @param intersections If not null, receives the intersections
+	 * @return true if the map was loaded, false if the snapshot is out of
+	 *   date or in an older format (nothing is loaded then)
+	 * @throws IOException If the file cannot be read, is not a snapshot,
+	 *   or fails its checksum
+	 */
+	public static boolean read(String snapshotFile, long modified, long length, MapGraph map,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			Set<GeographicPoint> intersections) throws IOException
+	{
+		MappedByteBuffer buffer = open(snapshotFile, modified, length);
+		if (buffer == null) {
+			return false;
+		}
+		buffer.position(HEADER);
+		readPayload(buffer, map, segments, intersections);
+		return true;
+	}
+
+	/**
+	 * Map a map's snapshot as a graph to search in place, as loadRoadMap
+	 * does: the snapshot is kept next to the map file, and (re)built from
+	 * it if it is missing, damaged, in an old format or out of date.
+	 * @param mapFile The .map file
+	 * @return The graph
+	 * @throws IOException If the map file cannot be read, or the snapshot
+	 *   cannot be written or read
+	 */
+	public static MappedGraph mapRoadMap(String mapFile) throws IOException
+	{
+		String snapshotFile = mapFile + ".snapshot";
+		File source = new File(mapFile);
+		long modified = source.lastModified();
+		long length = source.length();
+		if (new File(snapshotFile).exists()) {
+			try {
+				MappedGraph graph = map(snapshotFile, modified, length);
+				if (graph != null) {
+					return graph;
+				}
+			}
+			catch (IOException e) {
+				System.err.println("Problem loading snapshot file: " + snapshotFile);
+				e.printStackTrace();
+			}
+		}
+		write(mapFile, snapshotFile);
+		MappedGraph graph = map(snapshotFile, modified, length);
+		if (graph == null) {
+			throw new IOException("Map file changed while its snapshot was written: " + mapFile);
+		}
+		return graph;
+	}
+
+	/**
+	 * Map a snapshot as a graph to search in place.  The file stays
+	 * mapped for as long as the graph is used.
+	 * @param snapshotFile The snapshot file
+	 * @param modified The last modified time of the map file
+	 * @param length The length of the map file
+	 * @return The graph, or null if the snapshot is out of date or in an
+	 *   older format
+	 * @throws IOException If the file cannot be read, is not a snapshot,
+	 *   or fails its checksum
+	 */
+	public static MappedGraph map(String snapshotFile, long modified, long length) throws IOException
+	{
+		MappedByteBuffer buffer = open(snapshotFile, modified, length);
+		if (buffer == null) {
+			return null;
+		}
+		int indexAt = buffer.getInt(INDEX_OFFSET);
+		int pointsAt = buffer.getInt(indexAt);
+		int roadsAt = buffer.getInt(indexAt + 4);
+		int vertices = buffer.getInt(pointsAt - 4);
+		int edges = buffer.getInt(roadsAt - 4);
+		int offsetsAt = indexAt + 8;
+		return new MappedGraph(buffer, vertices, pointsAt, edges, roadsAt, ROAD, offsetsAt,
+				offsetsAt + 4 * (vertices + 1));
+	}
+
+	// Map a snapshot and check its header and checksum; null if it is
+	// out of date or in an older format
+	private static MappedByteBuffer open(String snapshotFile, long modified, long length)
+			throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(new File(snapshotFile).toPath(),
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER) {
+				throw new IOException("Not a snapshot file: " + snapshotFile);
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot file is too big to map: " + snapshotFile);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a snapshot file: " + snapshotFile);
+			}
+			if (buffer.getInt() != VERSION || buffer.getLong() != modified || buffer.getLong() != length) {
+				return null;
+			}
+			long payload = buffer.getLong();
+			int crc = buffer.getInt();
+			if (payload != size - HEADER || checksum(channel, payload) != crc) {
+				throw new IOException("Snapshot file is damaged: " + snapshotFile);
+			}
+			return buffer;
+		}
+	}
+
+	private static void readPayload(ByteBuffer buffer, MapGraph map,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			Set<GeographicPoint> intersections)
+	{
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		GeographicPoint[] points = new GeographicPoint[buffer.getInt()];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = new GeographicPoint(buffer.getDouble(), buffer.getDouble());
+			map.addVertex(points[i]);
+			if (intersections != null) {
+				intersections.add(points[i]);
+			}
+		}
+
+		int roads = buffer.getInt();
+		// the geometry follows the fixed size road records
+		ByteBuffer geometry = buffer.duplicate();
+		geometry.position(buffer.position() + roads * ROAD);
+		List<GeographicPoint> pointsOnEdge = new ArrayList<GeographicPoint>();
+		RoadNames names = segments == null ? null : new RoadNames();
+		for (int i = 0; i < roads; i++) {
+			GeographicPoint start = points[buffer.getInt()];
+			GeographicPoint end = points[buffer.getInt()];
+			double length = buffer.getDouble();
+			String roadName = strings[buffer.getInt()];
+			String roadType = strings[buffer.getInt()];
+			int count = buffer.getInt();
+			pointsOnEdge.clear();
+			for (int j = 0; j < count; j++) {
+				pointsOnEdge.add(new GeographicPoint(geometry.getDouble(), geometry.getDouble()));
+			}
+			map.addEdge(start, end, roadName, roadType, length, pointsOnEdge);
+
+			if (segments != null) {
+				GraphLoader.addSegment(segments, new RoadSegment(start, end, pointsOnEdge,
+						roadName, roadType, length, names));
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds,
+ * that any number of threads can record into at once.
+ *
+ * Values below 16 each have their own bucket.  Above that, every power of
+ * two is split into 16 buckets of equal width, so a bucket is never wider
+ * than 1/16 of the values in it and a percentile is off by at most 6.25%.
+ * That takes 960 buckets to cover every long, and recording a value is one
+ * atomic increment, with no allocation and no lock.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Record a value
+	 * @param value The value; negative values are recorded as 0
+	 */
+	public void record(long value)
+	{
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	// The bucket of a value
+	private static int bucket(long value)
+	{
+		if (value < SUB) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return SUB + shift * SUB + (int) (value >>> shift) - SUB;
+	}
+
+	/**
+	 * @param bucket A bucket number, from 0 to getNumBuckets() - 1
+	 * @return The smallest value in the bucket
+	 */
+	public static long bucketFrom(int bucket)
+	{
+		if (bucket < SUB) {
+			return bucket;
+		}
+		int shift = (bucket - SUB) / SUB;
+		return (long) (SUB + (bucket - SUB) % SUB) << shift;
+	}
+
+	/**
+	 * @param bucket A bucket number, from 0 to getNumBuckets() - 1
+	 * @return The smallest value above the bucket
+	 */
+	public static long bucketTo(int bucket)
+	{
+		if (bucket < SUB) {
+			return bucket + 1;
+		}
+		return bucketFrom(bucket) + (1L << ((bucket - SUB) / SUB));
+	}
+
+	/** @return The number of buckets */
+	public static int getNumBuckets()
+	{
+		return BUCKETS;
+	}
+
+	/**
+	 * @param bucket A bucket number, from 0 to getNumBuckets() - 1
+	 * @return The number of values recorded in the bucket
+	 */
+	public long getBucketCount(int bucket)
+	{
+		return counts.get(bucket);
+	}
+
+	/** @return The number of values recorded */
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/** @return The mean of the values recorded, or 0 if there are none */
+	public double getMean()
+	{
+		long n = count.sum();
+		return n == 0 ? 0 : sum.sum() / (double) n;
+	}
+
+	/** @return The largest value recorded, or 0 if there are none */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Get the value below which a given percentage of the values fall.
+	 * The answer is the top of the bucket it falls in, but never more
+	 * than the largest value recorded.
+	 * @param percent The percentage, from 0 to 100
+	 * @return The percentile, or 0 if no values were recorded
+	 */
+	public long getPercentile(double percent)
+	{
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(bucketTo(i) - 1, getMax());
+			}
+		}
+		return getMax();
+	}
+}
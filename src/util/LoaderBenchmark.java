@@ -0,0 +1,175 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import geography.GeographicPoint;
+import roadgraph.MapGraph;
+
+/**
+ * Measures how fast the .map files in data/maps are read, and how much
+ * memory is allocated per line while doing it.
+ *
+ * Three ways of reading each file are compared:
+ *   regex     - the line splitting GraphLoader used to do: BufferedReader,
+ *               a regular expression per line, Double.parseDouble on each
+ *               token and two new GeographicPoints
+ *   mapped    - MapFileReader on its own
+ *   load      - GraphLoader.loadRoadMap into a MapGraph, which includes
+ *               building the intersections and edges
+ *
+ * Then ParallelGraphLoader is timed on the largest maps with pools of
+ * 1, 2, 4, ... threads up to the number of processors, against the
+ * serial GraphLoader.loadRoadMap.
+ *
+ * Allocation is measured with the per-thread allocation counter of the
+ * HotSpot ThreadMXBean; -1 is reported if the JVM does not provide it.
+ *
+ * Run from the project root:  java util.LoaderBenchmark [runs]
+ */
+public class LoaderBenchmark
+{
+	private static final String MAP_DIR = "data/maps";
+	private static final int WARMUP = 3;
+	/** How many of the largest maps the parallel loader is timed on */
+	private static final int LARGEST = 3;
+
+	// Sink for parsed values, so the JIT cannot drop the parsing
+	private static double checksum;
+
+	public static void main(String[] args) throws IOException
+	{
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+		File[] files = new File(MAP_DIR).listFiles((dir, name) -> name.endsWith(".map"));
+		if (files == null) {
+			System.err.println("Run from the project root, " + MAP_DIR + " not found");
+			return;
+		}
+		Arrays.sort(files);
+
+		System.out.println("map,reader,lines,lines/sec,bytes/line");
+		for (File file : files) {
+			String filename = file.getPath();
+			int lines = MapFileReader.read(filename, (a, b, c, d, name, type) -> {});
+			if (lines == 0) continue;
+			for (String reader : new String[] {"regex", "mapped", "load"}) {
+				for (int i = 0; i < WARMUP; i++) {
+					run(reader, filename);
+				}
+				long bytes = allocatedBytes();
+				long start = System.nanoTime();
+				for (int i = 0; i < runs; i++) {
+					run(reader, filename);
+				}
+				long nanos = System.nanoTime() - start;
+				long allocated = bytes < 0 ? -1 : allocatedBytes() - bytes;
+				long total = (long) lines * runs;
+				System.out.printf("%s,%s,%d,%.0f,%.1f%n", file.getName(), reader, lines,
+						total / (nanos / 1e9), allocated < 0 ? -1.0 : allocated / (double) total);
+			}
+		}
+
+		// the largest maps last
+		Arrays.sort(files, (a, b) -> Long.compare(a.length(), b.length()));
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println();
+		System.out.println("map,threads,ms,speedup (" + cores + " processors)");
+		for (int f = Math.max(0, files.length - LARGEST); f < files.length; f++) {
+			String filename = files[f].getPath();
+			double serial = timeLoad(filename, null, runs);
+			System.out.printf("%s,serial,%.2f,1.00%n", files[f].getName(), serial);
+			for (int threads = 1; threads <= cores; threads *= 2) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				double ms = timeLoad(filename, pool, runs);
+				pool.shutdown();
+				System.out.printf("%s,%d,%.2f,%.2f%n", files[f].getName(), threads, ms, serial / ms);
+			}
+		}
+		if (checksum == 42) System.out.println();
+	}
+
+	// Average milliseconds to load a map, serially if pool is null
+	private static double timeLoad(String filename, ForkJoinPool pool, int runs)
+	{
+		long start = 0;
+		for (int i = 0; i < WARMUP + runs; i++) {
+			if (i == WARMUP) {
+				start = System.nanoTime();
+			}
+			MapGraph map = new MapGraph();
+			if (pool == null) {
+				GraphLoader.loadRoadMap(filename, map);
+			}
+			else {
+				ParallelGraphLoader.loadRoadMap(filename, map, null, null, pool);
+			}
+			checksum += map.getNumEdges();
+		}
+		return (System.nanoTime() - start) / 1e6 / runs;
+	}
+
+	private static void run(String reader, String filename) throws IOException
+	{
+		if (reader.equals("regex")) {
+			regexRead(filename);
+		}
+		else if (reader.equals("mapped")) {
+			MapFileReader.read(filename, (lat1, lon1, lat2, lon2, name, type) -> {
+				checksum += lat1 + lon1 + lat2 + lon2 + name.length() + type.length();
+			});
+		}
+		else {
+			MapGraph map = new MapGraph();
+			GraphLoader.loadRoadMap(filename, map);
+			checksum += map.getNumEdges();
+		}
+	}
+
+	// The line splitting GraphLoader did before MapFileReader
+	private static void regexRead(String filename) throws IOException
+	{
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+			String nextLine;
+			while ((nextLine = reader.readLine()) != null) {
+				ArrayList<String> tokens = new ArrayList<String>();
+				Pattern tokSplitter = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"");
+				Matcher m = tokSplitter.matcher(nextLine);
+				while (m.find()) {
+					if (m.group(1) != null) {
+						tokens.add(m.group(1));
+					}
+					else {
+						tokens.add(m.group());
+					}
+				}
+				GeographicPoint p1 = new GeographicPoint(Double.parseDouble(tokens.get(0)),
+						Double.parseDouble(tokens.get(1)));
+				GeographicPoint p2 = new GeographicPoint(Double.parseDouble(tokens.get(2)),
+						Double.parseDouble(tokens.get(3)));
+				checksum += p1.getX() + p1.getY() + p2.getX() + p2.getY()
+						+ tokens.get(4).length() + tokens.get(5).length();
+			}
+		}
+	}
+
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+			if (hotspot.isThreadAllocatedMemorySupported()) {
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
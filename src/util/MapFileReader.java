@@ -0,0 +1,335 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the road segments of a .map file straight from a memory mapped
+ * file, without regular expressions or a String per line.
+ *
+ * Each line of the file is
+ *     lat1 lon1 lat2 lon2 "road name" roadType
+ * The four coordinates are parsed from the bytes into doubles, and the
+ * road name and type are looked up in a table of the strings already
+ * seen, so a String is only created the first time a name turns up.
+ * Numbers are parsed to exactly the value Double.parseDouble gives.
+ */
+public class MapFileReader
+{
+	/** Receives the segments of a map file, one call per line */
+	public interface SegmentHandler
+	{
+		void segment(double lat1, double lon1, double lat2, double lon2,
+				String roadName, String roadType);
+	}
+
+	/** Map the file in windows of at most this many bytes */
+	private static final long WINDOW = 1L << 30;
+	private static final int TOKENS = 6;
+
+	/** Powers of ten that are exact doubles */
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final int[] tokenStart = new int[TOKENS];
+	private final int[] tokenEnd = new int[TOKENS];
+
+	// Open addressing table of the strings read so far, keyed by their bytes
+	private byte[][] keys = new byte[256][];
+	private String[] values = new String[256];
+	private int[] hashes = new int[256];
+	private int size;
+
+	private int lines;
+	private int malformed;
+
+	/**
+	 * Read every segment of a map file
+	 * @param filename The .map file
+	 * @param handler Called once for every segment in the file
+	 * @return The number of segments read
+	 * @throws IOException If the file cannot be read
+	 */
+	public static int read(String filename, SegmentHandler handler) throws IOException
+	{
+		MapFileReader reader = new MapFileReader();
+		reader.readFile(filename, handler);
+		if (reader.malformed > 0) {
+			System.err.println("Skipped " + reader.malformed + " malformed lines in " + filename);
+		}
+		return reader.lines;
+	}
+
+	private void readFile(String filename, SegmentHandler handler) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			long position = 0;
+			while (position < fileSize) {
+				long length = Math.min(WINDOW, fileSize - position);
+				boolean last = position + length == fileSize;
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				int done = readLines(buffer, 0, (int) length, last, handler);
+				if (done == 0) {
+					throw new IOException("Line too long in " + filename);
+				}
+				// a line cut off by the end of the window is read again
+				// at the start of the next one
+				position += done;
+			}
+		}
+	}
+
+	/**
+	 * Read the segments on the lines between two offsets of a buffer
+	 * holding (part of) a map file.  Used to parse a file in chunks on
+	 * several threads, with one reader per chunk.
+	 * @param buffer The map file contents
+	 * @param start The offset of the first line
+	 * @param end The offset just past the last line, which is read even
+	 *   if it has no line break
+	 * @param handler Called once for every segment
+	 * @return The number of segments read
+	 */
+	int read(ByteBuffer buffer, int start, int end, SegmentHandler handler)
+	{
+		int before = lines;
+		readLines(buffer, start, end, true, handler);
+		return lines - before;
+	}
+
+	/** @return The number of malformed lines skipped so far */
+	int getMalformed()
+	{
+		return malformed;
+	}
+
+	// Parse the complete lines in the buffer, and the final line too if
+	// the buffer ends the file.  Returns the offset just past the last
+	// line parsed.
+	private int readLines(ByteBuffer buffer, int pos, int limit, boolean last, SegmentHandler handler)
+	{
+		while (pos < limit) {
+			int end = pos;
+			while (end < limit && buffer.get(end) != '\n') {
+				end++;
+			}
+			if (end == limit && !last) {
+				break;
+			}
+			int lineEnd = end;
+			if (lineEnd > pos && buffer.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			parseLine(buffer, pos, lineEnd, handler);
+			pos = Math.min(end + 1, limit);
+		}
+		return pos;
+	}
+
+	// Split a line into tokens the way the old regular expression
+	// [^\s"']+|"([^"]*)" did: quoted tokens keep their spaces, and
+	// whitespace and quote characters separate the others.
+	private void parseLine(ByteBuffer buffer, int pos, int end, SegmentHandler handler)
+	{
+		int count = 0;
+		while (pos < end && count < TOKENS) {
+			byte c = buffer.get(pos);
+			if (c == '"') {
+				int close = pos + 1;
+				while (close < end && buffer.get(close) != '"') {
+					close++;
+				}
+				if (close < end) {
+					tokenStart[count] = pos + 1;
+					tokenEnd[count] = close;
+					count++;
+					pos = close + 1;
+				}
+				else {
+					pos++; // a quote with no match is only a separator
+				}
+			}
+			else if (isSeparator(c)) {
+				pos++;
+			}
+			else {
+				int start = pos;
+				while (pos < end && !isSeparator(buffer.get(pos)) && buffer.get(pos) != '"') {
+					pos++;
+				}
+				tokenStart[count] = start;
+				tokenEnd[count] = pos;
+				count++;
+			}
+		}
+		if (count == 0) {
+			return; // blank line
+		}
+		if (count < TOKENS) {
+			malformed++;
+			return;
+		}
+		try {
+			double lat1 = parseDouble(buffer, tokenStart[0], tokenEnd[0]);
+			double lon1 = parseDouble(buffer, tokenStart[1], tokenEnd[1]);
+			double lat2 = parseDouble(buffer, tokenStart[2], tokenEnd[2]);
+			double lon2 = parseDouble(buffer, tokenStart[3], tokenEnd[3]);
+			handler.segment(lat1, lon1, lat2, lon2,
+					string(buffer, tokenStart[4], tokenEnd[4]),
+					string(buffer, tokenStart[5], tokenEnd[5]));
+			lines++;
+		}
+		catch (NumberFormatException e) {
+			malformed++;
+		}
+	}
+
+	private static boolean isSeparator(byte c)
+	{
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f'
+				|| c == 0x0b || c == '\'';
+	}
+
+	/**
+	 * Parse a decimal number.  When the digits fit in 53 bits and there
+	 * are at most 22 decimals (true of all coordinates) both the digits
+	 * and the power of ten are exact doubles, so one division gives the
+	 * correctly rounded value.  Anything else falls back to
+	 * Double.parseDouble.
+	 */
+	static double parseDouble(ByteBuffer buffer, int start, int end)
+	{
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int significant = 0;
+		int scale = 0;
+		boolean digits = false;
+		while (i < end && isDigit(buffer.get(i))) {
+			mantissa = mantissa * 10 + (buffer.get(i) - '0');
+			if (mantissa != 0) significant++;
+			digits = true;
+			i++;
+			if (significant > 18) return slowParse(buffer, start, end);
+		}
+		if (i < end && buffer.get(i) == '.') {
+			i++;
+			while (i < end && isDigit(buffer.get(i))) {
+				mantissa = mantissa * 10 + (buffer.get(i) - '0');
+				if (mantissa != 0) significant++;
+				scale--;
+				digits = true;
+				i++;
+				if (significant > 18) return slowParse(buffer, start, end);
+			}
+		}
+		if (!digits) {
+			throw new NumberFormatException();
+		}
+		if (i < end) {
+			// an exponent, or something that is not a number at all
+			return slowParse(buffer, start, end);
+		}
+		if (mantissa != 0 && mantissa < (1L << 53)) {
+			if (scale == 0) {
+				double value = mantissa;
+				return negative ? -value : value;
+			}
+			if (scale < 0 && -scale < POW10.length) {
+				double value = mantissa / POW10[-scale];
+				return negative ? -value : value;
+			}
+		}
+		else if (mantissa == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+		return slowParse(buffer, start, end);
+	}
+
+	private static boolean isDigit(byte c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	private static double slowParse(ByteBuffer buffer, int start, int end)
+	{
+		byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; i++) {
+			bytes[i - start] = buffer.get(i);
+		}
+		return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+	}
+
+	// Look up the string with these (UTF-8) bytes, creating it the first
+	// time it is seen
+	private String string(ByteBuffer buffer, int start, int end)
+	{
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+		int mask = keys.length - 1;
+		int slot = hash & mask;
+		while (keys[slot] != null) {
+			if (hashes[slot] == hash && sameBytes(keys[slot], buffer, start, end)) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; i++) {
+			bytes[i - start] = buffer.get(i);
+		}
+		String value = new String(bytes, StandardCharsets.UTF_8);
+		keys[slot] = bytes;
+		values[slot] = value;
+		hashes[slot] = hash;
+		if (++size * 2 > keys.length) {
+			grow();
+		}
+		return value;
+	}
+
+	private static boolean sameBytes(byte[] key, ByteBuffer buffer, int start, int end)
+	{
+		if (key.length != end - start) return false;
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] != buffer.get(start + i)) return false;
+		}
+		return true;
+	}
+
+	private void grow()
+	{
+		byte[][] oldKeys = keys;
+		String[] oldValues = values;
+		int[] oldHashes = hashes;
+		keys = new byte[oldKeys.length * 2][];
+		values = new String[oldKeys.length * 2];
+		hashes = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == null) continue;
+			int slot = oldHashes[i] & mask;
+			while (keys[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+			hashes[slot] = oldHashes[i];
+		}
+	}
+}
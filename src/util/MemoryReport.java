@@ -0,0 +1,171 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.function.Supplier;
+
+import geography.GeographicPoint;
+import geography.RoadNames;
+import geography.RoadSegment;
+import roadgraph.MapGraph;
+
+/**
+ * Reports, for each map in data/maps, how much heap a loaded map takes,
+ * how much of it keeping a RoadNames label instead of two Strings saves,
+ * and how the road geometry held as RoadSegments (a map from each end point
+ * to the segments there, as GraphLoader.loadRoadMap fills it) compares with
+ * the graph's packed GeometryStore.
+ *
+ * The saving is the change in the size of one MapEdge, one RoadSegment and
+ * one RoadLineInfo, times how many of each a map has.  The sizes are
+ * measured on the running JVM (with its pointer size and object alignment)
+ * by filling the heap with objects laid out like the classes were with
+ * String fields, and like they are now.  RoadLineInfos only live while a
+ * map is loading, so they count towards the peak, not the retained heap.
+ *
+ * Run from the project root:  java util.MemoryReport
+ */
+public class MemoryReport
+{
+	private static final String MAP_DIR = "data/maps";
+	private static final int SAMPLE = 200000;
+	private static final int COPIES = 10;
+
+	// The fields of MapEdge, RoadSegment and RoadLineInfo with the road
+	// name and type as Strings, and as a label (with the RoadNames it is
+	// from, which the lines of a loader share)
+	@SuppressWarnings("unused")
+	private static class EdgeWithStrings
+	{
+		String roadName, roadType; Object start, end; double length; int id;
+	}
+
+	@SuppressWarnings("unused")
+	private static class EdgeWithLabel
+	{
+		Object names; int label; Object start, end; double length; int id;
+	}
+
+	@SuppressWarnings("unused")
+	private static class SegmentWithStrings
+	{
+		Object point1, point2, geometryPoints; String roadName, roadType; double length;
+	}
+
+	@SuppressWarnings("unused")
+	private static class SegmentWithLabel
+	{
+		Object point1, point2, geometryPoints, names; int label; double length;
+	}
+
+	@SuppressWarnings("unused")
+	private static class LineWithStrings
+	{
+		Object point1, point2; String roadName, roadType;
+	}
+
+	@SuppressWarnings("unused")
+	private static class LineWithLabel
+	{
+		Object point1, point2; int label;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		File[] files = new File(MAP_DIR).listFiles((dir, name) -> name.endsWith(".map"));
+		if (files == null) {
+			System.err.println("Run from the project root, " + MAP_DIR + " not found");
+			return;
+		}
+		Arrays.sort(files);
+
+		long edgeSaving = sizeOf(EdgeWithStrings::new) - sizeOf(EdgeWithLabel::new);
+		long segmentSaving = sizeOf(SegmentWithStrings::new) - sizeOf(SegmentWithLabel::new);
+		long lineSaving = sizeOf(LineWithStrings::new) - sizeOf(LineWithLabel::new);
+		System.out.println("bytes saved per edge " + edgeSaving + ", per segment "
+				+ segmentSaving + ", per line " + lineSaving);
+
+		System.out.println("map,lines,labels,edges,retained bytes,saved bytes,saved %,peak saved bytes,"
+				+ "segment bytes,geometry bytes,segment/geometry");
+		for (File file : files) {
+			report(file.getPath(), edgeSaving, segmentSaving, lineSaving);
+		}
+	}
+
+	// Print the line of one map.  Everything it loads is garbage when it
+	// returns, so it does not count towards the next map.
+	private static void report(String filename, long edgeSaving, long segmentSaving, long lineSaving)
+			throws IOException
+	{
+		final RoadNames labels = new RoadNames();
+		int lines = MapFileReader.read(filename, (lat1, lon1, lat2, lon2, name, type) -> {
+			labels.label(name, type);
+		});
+		if (lines == 0) return;
+
+		// hold several copies, so the measurement is not lost in the
+		// noise of small maps
+		GraphLoader.loadRoadMap(filename, new MapGraph());
+		MapGraph[] maps = new MapGraph[COPIES];
+		long before = usedHeap();
+		for (int i = 0; i < COPIES; i++) {
+			maps[i] = new MapGraph();
+			GraphLoader.loadRoadMap(filename, maps[i]);
+		}
+		long retained = (usedHeap() - before) / COPIES;
+
+		// the segments alone, loaded along with graphs that are dropped
+		Object[] segments = new Object[COPIES];
+		before = usedHeap();
+		for (int i = 0; i < COPIES; i++) {
+			HashMap<GeographicPoint,HashSet<RoadSegment>> roads =
+					new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+			GraphLoader.loadRoadMap(filename, new MapGraph(), roads, null);
+			segments[i] = roads;
+		}
+		long segmentBytes = (usedHeap() - before) / COPIES;
+		long geometryBytes = maps[0].freeze().geometry().byteSize();
+
+		// one RoadSegment is made for each edge
+		int edges = maps[0].getNumEdges();
+		long saved = edges * (edgeSaving + segmentSaving);
+		System.out.printf("%s,%d,%d,%d,%d,%d,%.1f,%d,%d,%d,%.1f%n", new File(filename).getName(), lines,
+				labels.size(), edges, retained, saved, 100.0 * saved / (retained + saved),
+				saved + lines * lineSaving, segmentBytes, geometryBytes,
+				segmentBytes / (double) geometryBytes);
+		if (maps[COPIES - 1] == null || segments[COPIES - 1] == null) System.out.println();
+	}
+
+	// The size in bytes of one object made by factory, rounded to the
+	// 8 byte alignment of objects
+	private static long sizeOf(Supplier<Object> factory)
+	{
+		Object[] objects = new Object[SAMPLE];
+		long before = usedHeap();
+		for (int i = 0; i < SAMPLE; i++) {
+			objects[i] = factory.get();
+		}
+		long size = (usedHeap() - before) / SAMPLE;
+		if (objects[0] == null) System.out.println();
+		return (size + 4) / 8 * 8;
+	}
+
+	// Some garbage is only freed once the JVM's own threads have caught up
+	// with a collection, so collect a few times with a pause in between
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,401 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+import geography.GeographicPoint;
+import geography.PointIndex;
+import geography.RoadNames;
+import geography.RoadSegment;
+import roadgraph.MapGraph;
+
+/**
+ * Loads a road map like GraphLoader.loadRoadMap, with the work spread over
+ * the threads of a ForkJoinPool.
+ *
+ * The phases are:
+ *   1. the file is memory mapped, cut into chunks at line breaks, and the
+ *      chunks are parsed in parallel, each with its own MapFileReader
+ *   2. each chunk numbers the distinct end points of its lines in a
+ *      PointIndex of its own, in parallel; the chunks' points are then
+ *      merged in file order into one PointIndex, and the lines' end
+ *      points renumbered to the merged ids, in parallel
+ *   3. the lines into and out of each point are gathered, in parallel
+ *   4. each point is tested for being an intersection, in parallel
+ *   5. the road out of every intersection is traced to the next
+ *      intersection, in parallel
+ *
+ * The graph must come out identical to the serial loader's, down to the
+ * order vertices and edges are added in.  So the parallel phases only
+ * compute; the results are handed over in the serial loader's order, which
+ * numbers the points in the order they first appear in the file.  The only
+ * serial work left is numbering the points and adding the vertices and
+ * edges to the graph.
+ */
+public class ParallelGraphLoader
+{
+	/** Aim for chunks of about this many bytes when parsing */
+	private static final int CHUNK_BYTES = 16 * 1024;
+
+	/**
+	 * Load a map using the common ForkJoinPool
+	 * @see #loadRoadMap(String, MapGraph, HashMap, Set, ForkJoinPool)
+	 */
+	public static void loadRoadMap(String filename, MapGraph map,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			Set<GeographicPoint> intersectionsToLoad)
+	{
+		loadRoadMap(filename, map, segments, intersectionsToLoad, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Read in a file specifying a map, as GraphLoader.loadRoadMap does.
+	 * @param filename The file containing the road data
+	 * @param map The graph to load the map into
+	 * @param segments If not null, receives the road geometry
+	 * @param intersectionsToLoad If not null, receives the intersections
+	 * @param pool The pool to run the parallel phases on
+	 */
+	public static void loadRoadMap(String filename, MapGraph map,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			Set<GeographicPoint> intersectionsToLoad, ForkJoinPool pool)
+	{
+		try {
+			traceRoadMap(filename, GraphLoader.graphBuilder(map, segments, intersectionsToLoad), pool);
+		}
+		catch (IOException e) {
+			System.err.println("Problem loading dictionary file: " + filename);
+			e.printStackTrace();
+		}
+	}
+
+	// The lines parsed from one chunk of the file
+	private static class Chunk
+	{
+		final int start;
+		final int end;
+		int base;
+		int count;
+		double[] coordinates = new double[256];
+		int[] labels = new int[64];
+		// The road names of the chunk's lines, and the label of each in
+		// the merged RoadNames
+		final RoadNames names = new RoadNames();
+		int[] mergedLabels;
+		// The last road seen.  The lines of a road usually follow each
+		// other in the file, and the reader gives the same Strings for the
+		// same name, so this saves most trips to names.
+		String lastName;
+		String lastType;
+		int lastLabel = -1;
+		// The distinct end points of the chunk's lines in the order they
+		// first occur, as latitude, longitude pairs; for both ends of each
+		// line the number of its point among them; and the merged number
+		// of each
+		double[] points;
+		int[] ends;
+		int[] merged;
+
+		Chunk(int start, int end)
+		{
+			this.start = start;
+			this.end = end;
+		}
+
+		void add(double lat1, double lon1, double lat2, double lon2, String name, String type)
+		{
+			if (count == labels.length) {
+				coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+				labels = Arrays.copyOf(labels, labels.length * 2);
+			}
+			if (lastLabel < 0 || name != lastName || type != lastType) {
+				lastName = name;
+				lastType = type;
+				lastLabel = names.label(name, type);
+			}
+			coordinates[4 * count] = lat1;
+			coordinates[4 * count + 1] = lon1;
+			coordinates[4 * count + 2] = lat2;
+			coordinates[4 * count + 3] = lon2;
+			labels[count] = lastLabel;
+			count++;
+		}
+	}
+
+	// A traced road: the next intersection and the points on the way
+	private static class Road
+	{
+		final RoadLineInfo info;
+		final GeographicPoint end;
+		final List<GeographicPoint> pointsOnEdge;
+		final double length;
+
+		Road(RoadLineInfo info, GeographicPoint end, List<GeographicPoint> pointsOnEdge, double length)
+		{
+			this.info = info;
+			this.end = end;
+			this.pointsOnEdge = pointsOnEdge;
+			this.length = length;
+		}
+	}
+
+	/** Report the intersections and roads of a map file to handler, in
+	 * exactly the order GraphLoader.traceRoadMap reports them. */
+	static void traceRoadMap(String filename, GraphLoader.RoadMapHandler handler,
+			ForkJoinPool pool) throws IOException
+	{
+		ByteBuffer file;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				// too big to map in one piece
+				GraphLoader.traceRoadMap(filename, handler);
+				return;
+			}
+			file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		// Phase 1: parse the chunks
+		final Chunk[] chunks = split(file, pool.getParallelism());
+		final ByteBuffer buffer = file;
+		final int[] malformed = new int[chunks.length];
+		parallelFor(pool, chunks.length, (c) -> {
+			Chunk chunk = chunks[c];
+			MapFileReader reader = new MapFileReader();
+			reader.read(buffer.duplicate(), chunk.start, chunk.end, chunk::add);
+			malformed[c] = reader.getMalformed();
+		});
+		int lineCount = 0;
+		int skipped = 0;
+		for (int c = 0; c < chunks.length; c++) {
+			chunks[c].base = lineCount;
+			lineCount += chunks[c].count;
+			skipped += malformed[c];
+		}
+		if (skipped > 0) {
+			System.err.println("Skipped " + skipped + " malformed lines in " + filename);
+		}
+
+		// Phase 2: number the end points of each chunk's lines
+		parallelFor(pool, chunks.length, (c) -> {
+			Chunk chunk = chunks[c];
+			PointIndex seen = new PointIndex(2 * chunk.count);
+			double[] local = new double[4 * chunk.count];
+			int[] localEnds = new int[2 * chunk.count];
+			int size = 0;
+			for (int i = 0; i < 2 * chunk.count; i++) {
+				double lat = chunk.coordinates[2 * i];
+				double lon = chunk.coordinates[2 * i + 1];
+				int id = seen.putIfAbsent(lat, lon, size);
+				if (id < 0) {
+					id = size++;
+					local[2 * id] = lat;
+					local[2 * id + 1] = lon;
+				}
+				localEnds[i] = id;
+			}
+			chunk.points = Arrays.copyOf(local, 2 * size);
+			chunk.ends = localEnds;
+			chunk.coordinates = null;
+		});
+
+		// Merge them and the chunks' road names in file order, which
+		// numbers both in the order the serial loader first met them: the
+		// chunks are in file order, and so are the points and names of
+		// each chunk
+		final PointIndex index = new PointIndex(lineCount);
+		final List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		final RoadNames names = new RoadNames();
+		for (Chunk chunk : chunks) {
+			chunk.mergedLabels = new int[chunk.names.size()];
+			for (int l = 0; l < chunk.mergedLabels.length; l++) {
+				chunk.mergedLabels[l] = names.label(chunk.names.name(l), chunk.names.type(l));
+			}
+			chunk.merged = new int[chunk.points.length / 2];
+			for (int j = 0; j < chunk.merged.length; j++) {
+				double lat = chunk.points[2 * j];
+				double lon = chunk.points[2 * j + 1];
+				int id = index.putIfAbsent(lat, lon, points.size());
+				if (id < 0) {
+					id = points.size();
+					points.add(new GeographicPoint(lat, lon));
+				}
+				chunk.merged[j] = id;
+			}
+		}
+
+		// The merged point of both ends of every line
+		final int[] ends = new int[2 * lineCount];
+		final RoadLineInfo[] lines = new RoadLineInfo[lineCount];
+		parallelFor(pool, chunks.length, (c) -> {
+			Chunk chunk = chunks[c];
+			for (int i = 0; i < chunk.count; i++) {
+				int line = chunk.base + i;
+				int from = chunk.merged[chunk.ends[2 * i]];
+				int to = chunk.merged[chunk.ends[2 * i + 1]];
+				ends[2 * line] = from;
+				ends[2 * line + 1] = to;
+				lines[line] = new RoadLineInfo(points.get(from), points.get(to),
+						chunk.mergedLabels[chunk.labels[i]]);
+			}
+			chunk.points = null;
+			chunk.ends = null;
+			chunk.merged = null;
+		});
+		final int pointCount = points.size();
+
+		// Phase 3: the lines out of (and into) each point, in file order
+		final int[] outStart = new int[pointCount + 1];
+		final int[] inStart = new int[pointCount + 1];
+		final AtomicIntegerArray outFill = new AtomicIntegerArray(pointCount);
+		final AtomicIntegerArray inFill = new AtomicIntegerArray(pointCount);
+		parallelFor(pool, lineCount, (line) -> {
+			outFill.incrementAndGet(ends[2 * line]);
+			inFill.incrementAndGet(ends[2 * line + 1]);
+		});
+		for (int p = 0; p < pointCount; p++) {
+			outStart[p + 1] = outStart[p] + outFill.get(p);
+			inStart[p + 1] = inStart[p] + inFill.get(p);
+			outFill.set(p, outStart[p]);
+			inFill.set(p, inStart[p]);
+		}
+		final int[] outLines = new int[lineCount];
+		final int[] inLines = new int[lineCount];
+		parallelFor(pool, lineCount, (line) -> {
+			outLines[outFill.getAndIncrement(ends[2 * line])] = line;
+			inLines[inFill.getAndIncrement(ends[2 * line + 1])] = line;
+		});
+		final List<List<LinkedList<RoadLineInfo>>> segments = new ArrayList<List<LinkedList<RoadLineInfo>>>(
+				Collections.<List<LinkedList<RoadLineInfo>>>nCopies(pointCount, null));
+		parallelFor(pool, pointCount, (p) -> {
+			Arrays.sort(outLines, outStart[p], outStart[p + 1]);
+			Arrays.sort(inLines, inStart[p], inStart[p + 1]);
+			List<LinkedList<RoadLineInfo>> inAndOut = PointMap.segmentLists();
+			for (int i = outStart[p]; i < outStart[p + 1]; i++) {
+				inAndOut.get(0).add(lines[outLines[i]]);
+			}
+			for (int i = inStart[p]; i < inStart[p + 1]; i++) {
+				inAndOut.get(1).add(lines[inLines[i]]);
+			}
+			segments.set(p, inAndOut);
+		});
+
+		// The serial loader's point map, with the points numbered in the
+		// same order
+		final PointMap pointMap = new PointMap(pointCount, names);
+		for (int p = 0; p < pointCount; p++) {
+			pointMap.add(points.get(p), segments.get(p));
+		}
+
+		// Phase 4: find the intersections
+		final boolean[] isNode = new boolean[pointCount];
+		parallelFor(pool, pointCount, (p) -> {
+			isNode[p] = GraphLoader.isIntersection(pointMap.get(p), names);
+		});
+		final List<GeographicPoint> intersections = new ArrayList<GeographicPoint>();
+		for (int p = 0; p < pointCount; p++) {
+			if (isNode[p]) {
+				handler.intersection(points.get(p));
+				intersections.add(points.get(p));
+			}
+		}
+		final PointIndex nodes = GraphLoader.indexOf(intersections);
+
+		// Phase 5: trace the roads out of each intersection
+		final List<List<Road>> roads =
+				new ArrayList<List<Road>>(Collections.<List<Road>>nCopies(intersections.size(), null));
+		parallelFor(pool, roads.size(), (i) -> {
+			GeographicPoint pt = intersections.get(i);
+			List<Road> traced = new ArrayList<Road>();
+			for (RoadLineInfo info : pointMap.get(pt).get(0)) {
+				List<GeographicPoint> pointsOnEdge =
+						GraphLoader.findPointsOnEdge(pointMap, info, nodes);
+				GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
+				traced.add(new Road(info, end, pointsOnEdge,
+						GraphLoader.getRoadLength(pt, end, pointsOnEdge)));
+			}
+			roads.set(i, traced);
+		});
+		for (int i = 0; i < roads.size(); i++) {
+			for (Road road : roads.get(i)) {
+				handler.road(intersections.get(i), road.end, road.pointsOnEdge,
+						names.name(road.info.label), names.type(road.info.label),
+						road.length);
+			}
+		}
+	}
+
+	// Cut the file into chunks that start and end at line breaks
+	private static Chunk[] split(ByteBuffer file, int parallelism)
+	{
+		int size = file.limit();
+		int pieces = Math.max(1, Math.min(parallelism * 4, size / CHUNK_BYTES));
+		List<Chunk> chunks = new ArrayList<Chunk>(pieces);
+		int start = 0;
+		for (int i = 1; i <= pieces && start < size; i++) {
+			int end = i == pieces ? size : (int) ((long) size * i / pieces);
+			while (end < size && file.get(end - 1) != '\n') {
+				end++;
+			}
+			if (end > start) {
+				chunks.add(new Chunk(start, end));
+				start = end;
+			}
+		}
+		return chunks.toArray(new Chunk[0]);
+	}
+
+	// Run body(i) for every i in [0, n) on the pool
+	private static void parallelFor(ForkJoinPool pool, int n, IntConsumer body)
+	{
+		if (n == 0) return;
+		int grain = Math.max(1, n / (pool.getParallelism() * 8));
+		pool.invoke(new Range(0, n, grain, body));
+	}
+
+	private static class Range extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final IntConsumer body;
+
+		Range(int from, int to, int grain, IntConsumer body)
+		{
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= grain) {
+				for (int i = from; i < to; i++) {
+					body.accept(i);
+				}
+			}
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Range(from, mid, grain, body), new Range(mid, to, grain, body));
+			}
+		}
+	}
+}
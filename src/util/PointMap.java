@@ -0,0 +1,114 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import geography.GeographicPoint;
+import geography.PointIndex;
+import geography.RoadNames;
+
+/**
+ * The points of a map file while it is being loaded, each with the road
+ * segments out of it and into it.  Points are numbered in the order they
+ * were first added, and looked up through a PointIndex, so reading a line
+ * of the file does not create a GeographicPoint for a location already
+ * seen.  The segments' road names and types are labels of the map's own
+ * RoadNames.
+ */
+class PointMap
+{
+	private final PointIndex index;
+	private final ArrayList<GeographicPoint> points;
+	private final ArrayList<List<LinkedList<RoadLineInfo>>> lines;
+	private final RoadNames names;
+
+	PointMap(int expected)
+	{
+		this(expected, new RoadNames());
+	}
+
+	/**
+	 * @param expected The number of points expected
+	 * @param names The dictionary the labels of the segments are in
+	 */
+	PointMap(int expected, RoadNames names)
+	{
+		this.names = names;
+		index = new PointIndex(expected);
+		points = new ArrayList<GeographicPoint>(expected);
+		lines = new ArrayList<List<LinkedList<RoadLineInfo>>>(expected);
+	}
+
+	/**
+	 * Get the id of a location, adding it with no segments if it is new
+	 * @param lat The latitude
+	 * @param lon The longitude
+	 * @return The id of the location
+	 */
+	int intern(double lat, double lon)
+	{
+		int id = index.get(lat, lon);
+		if (id < 0) {
+			id = add(new GeographicPoint(lat, lon), segmentLists());
+		}
+		return id;
+	}
+
+	/** @return An empty list of segments out of a point, then one of
+	 * segments into it, as add() takes them */
+	static List<LinkedList<RoadLineInfo>> segmentLists()
+	{
+		List<LinkedList<RoadLineInfo>> inAndOut = new ArrayList<LinkedList<RoadLineInfo>>(2);
+		inAndOut.add(new LinkedList<RoadLineInfo>());
+		inAndOut.add(new LinkedList<RoadLineInfo>());
+		return inAndOut;
+	}
+
+	/**
+	 * Add a new point with its segments
+	 * @param pt The point, which must not be in the map yet
+	 * @param inAndOut The segments out of the point, then those into it
+	 * @return The id of the point
+	 */
+	int add(GeographicPoint pt, List<LinkedList<RoadLineInfo>> inAndOut)
+	{
+		int id = points.size();
+		index.put(pt, id);
+		points.add(pt);
+		lines.add(inAndOut);
+		return id;
+	}
+
+	/** @return The road names and types of the segments */
+	RoadNames names()
+	{
+		return names;
+	}
+
+	/** @return The number of points */
+	int size()
+	{
+		return points.size();
+	}
+
+	/** @return The point with this id */
+	GeographicPoint point(int id)
+	{
+		return points.get(id);
+	}
+
+	/** @return The segments out of (list 0) and into (list 1) a point */
+	List<LinkedList<RoadLineInfo>> get(int id)
+	{
+		return lines.get(id);
+	}
+
+	/** @return The segments out of (list 0) and into (list 1) a point,
+	 * or null if the point is not in the map */
+	List<LinkedList<RoadLineInfo>> get(GeographicPoint pt)
+	{
+		int id = index.get(pt);
+		return id < 0 ? null : lines.get(id);
+	}
+}